@@ -0,0 +1,44 @@
+package com.blanclink.geoindex;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkLoadBenchmark {
+
+    @Param({"100", "1000"})
+    public double resolution;
+
+    @Param({"100000", "1000000"})
+    public int points;
+
+    @Param({"UNIFORM", "HOTSPOT"})
+    public Fleets.Distribution distribution;
+
+    private List<BasicPoint> fleet;
+
+    @Setup
+    public void setUp() {
+        fleet = Fleets.generate(distribution, points, 42);
+    }
+
+    @Benchmark
+    public PointIndex<BasicPoint> addLoop() {
+        PointIndex<BasicPoint> index = new PointIndex<>(resolution);
+        fleet.forEach(index::add);
+        return index;
+    }
+
+    @Benchmark
+    public PointIndex<BasicPoint> build() {
+        return PointIndex.build(fleet, resolution);
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.blanclink.geoindex;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Scaling of updates and queries with the number of threads, against a single
+ * {@link PointIndex} behind one lock. Run with {@code -t 1}, {@code -t 2}, ... {@code -t max}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentPointIndexBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Indexes {
+
+        @Param({"100", "1000"})
+        public double resolution;
+
+        @Param({"100000"})
+        public int points;
+
+        @Param({"UNIFORM", "HOTSPOT"})
+        public Fleets.Distribution distribution;
+
+        private ConcurrentPointIndex<BasicPoint> concurrent;
+        private PointIndex<BasicPoint> locked;
+        private List<BasicPoint> fleet;
+
+        @Setup
+        public void setUp() {
+            concurrent = new ConcurrentPointIndex<>(resolution);
+            locked = new PointIndex<>(resolution);
+            fleet = Fleets.generate(distribution, points, 42);
+            fleet.forEach(concurrent::add);
+            fleet.forEach(locked::add);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Workload {
+
+        private final Predicate<BasicPoint> all = point -> true;
+        private BasicPoint[] moves;
+        private BasicPoint[] centers;
+        private int next;
+
+        @Setup
+        public void setUp(Indexes indexes) {
+            Random random = new Random(Thread.currentThread().getId());
+            moves = new BasicPoint[QUERIES];
+            centers = new BasicPoint[QUERIES];
+
+            for (int i = 0; i < QUERIES; i++) {
+                BasicPoint vehicle = indexes.fleet.get(random.nextInt(indexes.fleet.size()));
+                moves[i] = Fleets.offset(vehicle, random.nextGaussian() * 50);
+                centers[i] = Fleets.next(indexes.distribution, "q" + i, random);
+            }
+        }
+
+        private int next() {
+            next = (next + 1) & (QUERIES - 1);
+            return next;
+        }
+    }
+
+    @Benchmark
+    public void concurrentAdd(Indexes indexes, Workload workload) {
+        indexes.concurrent.add(workload.moves[workload.next()]);
+    }
+
+    @Benchmark
+    public List<BasicPoint> concurrentKNearest(Indexes indexes, Workload workload) {
+        return indexes.concurrent.kNearest(workload.centers[workload.next()], 10, 1000, workload.all);
+    }
+
+    @Benchmark
+    public void lockedAdd(Indexes indexes, Workload workload) {
+        synchronized (indexes.locked) {
+            indexes.locked.add(workload.moves[workload.next()]);
+        }
+    }
+
+    @Benchmark
+    public List<BasicPoint> lockedKNearest(Indexes indexes, Workload workload) {
+        synchronized (indexes.locked) {
+            return indexes.locked.kNearest(workload.centers[workload.next()], 10, 1000, workload.all);
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedWriter(Indexes indexes, Workload workload) {
+        indexes.concurrent.add(workload.moves[workload.next()]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public List<BasicPoint> mixedReader(Indexes indexes, Workload workload) {
+        return indexes.concurrent.kNearest(workload.centers[workload.next()], 10, 1000, workload.all);
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.blanclink.geoindex;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpiringPointIndexBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @Param({"100", "1000"})
+    public double resolution;
+
+    @Param({"1000", "100000"})
+    public int points;
+
+    @Param({"TUBE", "HOTSPOT"})
+    public Fleets.Distribution distribution;
+
+    @Param({"500"})
+    public double radius;
+
+    @Param({"60"})
+    public int expirationSeconds;
+
+    private final Predicate<BasicPoint> all = point -> true;
+
+    private PointIndex<BasicPoint> index;
+    private BasicPoint[] moves;
+    private BasicPoint[] centers;
+    private BasicPoint[] topLefts;
+    private BasicPoint[] bottomRights;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        index = new PointIndex<>(resolution, Duration.ofSeconds(expirationSeconds));
+        List<BasicPoint> fleet = Fleets.generate(distribution, points, 42);
+        fleet.forEach(index::add);
+
+        Random random = new Random(7);
+        moves = new BasicPoint[QUERIES];
+        centers = new BasicPoint[QUERIES];
+        topLefts = new BasicPoint[QUERIES];
+        bottomRights = new BasicPoint[QUERIES];
+
+        for (int i = 0; i < QUERIES; i++) {
+            moves[i] = Fleets.offset(fleet.get(random.nextInt(fleet.size())), random.nextGaussian() * 50);
+            centers[i] = Fleets.next(distribution, "q" + i, random);
+            topLefts[i] = Fleets.topLeft(centers[i], radius);
+            bottomRights[i] = Fleets.bottomRight(centers[i], radius);
+        }
+    }
+
+    private int next() {
+        next = (next + 1) & (QUERIES - 1);
+        return next;
+    }
+
+    @Benchmark
+    public void add() {
+        index.add(moves[next()]);
+    }
+
+    @Benchmark
+    public void kNearest(Blackhole bh) {
+        bh.consume(index.kNearest(centers[next()], 10, radius, all));
+    }
+
+    @Benchmark
+    public void range(Blackhole bh) {
+        int i = next();
+        bh.consume(index.range(topLefts[i], bottomRights[i]));
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.blanclink.geoindex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public final class Fleets {
+
+    public enum Distribution {
+        UNIFORM, TUBE, HOTSPOT
+    }
+
+    private static final double MIN_LAT = 51.28;
+    private static final double MAX_LAT = 51.70;
+    private static final double MIN_LON = -0.51;
+    private static final double MAX_LON = 0.33;
+
+    private static final double METERS_PER_DEGREE = Cell.LAT_DEGREE_LENGTH;
+
+    private static List<BasicPoint> stations;
+
+    private Fleets() {
+    }
+
+    public static synchronized List<BasicPoint> stations() {
+        if (stations == null) {
+            stations = readStations();
+        }
+        return stations;
+    }
+
+    public static List<BasicPoint> generate(Distribution distribution, int count, long seed) {
+        Random random = new Random(seed);
+        List<BasicPoint> points = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            points.add(next(distribution, "v" + i, random));
+        }
+
+        return points;
+    }
+
+    public static BasicPoint next(Distribution distribution, String id, Random random) {
+        switch (distribution) {
+            case UNIFORM:
+                return new BasicPoint(id,
+                        MIN_LAT + random.nextDouble() * (MAX_LAT - MIN_LAT),
+                        MIN_LON + random.nextDouble() * (MAX_LON - MIN_LON));
+            case TUBE:
+                return around(id, stations().get(random.nextInt(stations().size())), 400, random);
+            case HOTSPOT:
+                List<BasicPoint> stations = stations();
+                if (random.nextDouble() < 0.8) {
+                    return around(id, stations.get(random.nextInt(4)), 150, random);
+                }
+                return around(id, stations.get(random.nextInt(stations.size())), 2000, random);
+            default:
+                throw new IllegalArgumentException(distribution.name());
+        }
+    }
+
+    private static BasicPoint around(String id, IPoint center, double meters, Random random) {
+        double dLat = random.nextGaussian() * meters / METERS_PER_DEGREE;
+        double dLon = random.nextGaussian() * meters / Cell.LON_DEGREE_LENGTH;
+
+        return new BasicPoint(id, center.lat() + dLat, center.lon() + dLon);
+    }
+
+    public static BasicPoint offset(IPoint point, double meters) {
+        return new BasicPoint(point.getId(),
+                point.lat() + meters / METERS_PER_DEGREE,
+                point.lon() + meters / Cell.LON_DEGREE_LENGTH);
+    }
+
+    public static BasicPoint topLeft(IPoint center, double meters) {
+        return new BasicPoint("topLeft",
+                center.lat() + meters / METERS_PER_DEGREE,
+                center.lon() - meters / Cell.LON_DEGREE_LENGTH);
+    }
+
+    public static BasicPoint bottomRight(IPoint center, double meters) {
+        return new BasicPoint("bottomRight",
+                center.lat() - meters / METERS_PER_DEGREE,
+                center.lon() + meters / Cell.LON_DEGREE_LENGTH);
+    }
+
+    private static List<BasicPoint> readStations() {
+        List<BasicPoint> result = new ArrayList<>();
+
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                Fleets.class.getClassLoader().getResourceAsStream("tube.csv"), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] columns = line.split(",");
+                result.add(new BasicPoint(columns[0], Double.parseDouble(columns[1]), Double.parseDouble(columns[2])));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return result;
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.blanclink.geoindex;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeoIndexBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @Param({"100", "1000"})
+    public double resolution;
+
+    @Param({"1000", "100000"})
+    public int points;
+
+    @Param({"UNIFORM", "TUBE", "HOTSPOT"})
+    public Fleets.Distribution distribution;
+
+    @Param({"500", "5000"})
+    public double radius;
+
+    @Param({"false", "true"})
+    public boolean sparse;
+
+    private GeoIndex<Map<String, BasicPoint>> index;
+    private int[][] rectangles;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        index = new GeoIndex<>(resolution, HashMap::new);
+        index.setSparse(sparse);
+        for (BasicPoint point : Fleets.generate(distribution, points, 42)) {
+            index.addEntryAt(point).put(point.getId(), point);
+        }
+
+        Random random = new Random(7);
+        rectangles = new int[QUERIES][];
+
+        for (int i = 0; i < QUERIES; i++) {
+            BasicPoint center = Fleets.next(distribution, "q" + i, random);
+            Cell topLeft = Cell.cellOf(Fleets.topLeft(center, radius), resolution);
+            Cell bottomRight = Cell.cellOf(Fleets.bottomRight(center, radius), resolution);
+            rectangles[i] = new int[]{bottomRight.getX(), topLeft.getX(), topLeft.getY(), bottomRight.getY()};
+        }
+    }
+
+    @Benchmark
+    public List<Map<String, BasicPoint>> get() {
+        int[] r = rectangles[next = (next + 1) & (QUERIES - 1)];
+        return index.get(r[0], r[1], r[2], r[3]);
+    }
+
+}
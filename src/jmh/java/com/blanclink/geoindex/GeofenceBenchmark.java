@@ -0,0 +1,86 @@
+package com.blanclink.geoindex;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of keeping {@code fences} geofences up to date: per position update when subscribed, against one
+ * polling pass of a range query per fence.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeofenceBenchmark {
+
+    private static final int MOVES = 1024;
+
+    @Param({"100000"})
+    public int points;
+
+    @Param({"0", "1000", "10000"})
+    public int fences;
+
+    @Param({"200"})
+    public double radius;
+
+    @Param({"TUBE"})
+    public Fleets.Distribution distribution;
+
+    private PointIndex<BasicPoint> index;
+    private BasicPoint[] moves;
+    private BasicPoint[] topLefts;
+    private BasicPoint[] bottomRights;
+    private long events;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        index = new PointIndex<>(100);
+        List<BasicPoint> fleet = Fleets.generate(distribution, points, 42);
+        fleet.forEach(index::add);
+
+        Random random = new Random(7);
+        GeofenceIndex<BasicPoint> geofences = new GeofenceIndex<>(100);
+        GeofenceListener<BasicPoint> count = new GeofenceListener<BasicPoint>() {
+            public void onEnter(Geofence fence, BasicPoint point) { events++; }
+            public void onExit(Geofence fence, BasicPoint point) { events++; }
+        };
+
+        topLefts = new BasicPoint[fences];
+        bottomRights = new BasicPoint[fences];
+        for (int i = 0; i < fences; i++) {
+            BasicPoint center = Fleets.next(distribution, "f" + i, random);
+            topLefts[i] = Fleets.topLeft(center, radius);
+            bottomRights[i] = Fleets.bottomRight(center, radius);
+            geofences.subscribe(Geofence.rectangle("f" + i, topLefts[i], bottomRights[i]), count);
+        }
+        index.addListener(geofences);
+
+        moves = new BasicPoint[MOVES];
+        for (int i = 0; i < MOVES; i++) {
+            moves[i] = Fleets.offset(fleet.get(random.nextInt(fleet.size())), random.nextGaussian() * 50);
+        }
+    }
+
+    @Benchmark
+    public long add() {
+        next = (next + 1) & (MOVES - 1);
+        index.add(moves[next]);
+        return events;
+    }
+
+    @Benchmark
+    public void poll(Blackhole bh) {
+        for (int i = 0; i < fences; i++) {
+            bh.consume(index.range(topLefts[i], bottomRights[i]));
+        }
+    }
+
+}
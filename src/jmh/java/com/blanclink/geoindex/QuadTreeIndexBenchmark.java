@@ -0,0 +1,101 @@
+package com.blanclink.geoindex;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+/**
+ * {@link QuadTreeIndex} counterpart of {@link PointIndexBenchmark}; compare the two on the same
+ * distribution, e.g. {@code -p distribution=HOTSPOT}.
+ */
+public class QuadTreeIndexBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @Param({"16", "64"})
+    public int capacity;
+
+    @Param({"1000", "100000"})
+    public int points;
+
+    @Param({"UNIFORM", "TUBE", "HOTSPOT"})
+    public Fleets.Distribution distribution;
+
+    @Param({"500", "5000"})
+    public double radius;
+
+    @Param("10")
+    public int k;
+
+    private final Predicate<BasicPoint> all = point -> true;
+
+    private QuadTreeIndex<BasicPoint> index;
+    private List<BasicPoint> fleet;
+    private BasicPoint[] moves;
+    private BasicPoint[] centers;
+    private BasicPoint[] topLefts;
+    private BasicPoint[] bottomRights;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        index = new QuadTreeIndex<>(capacity);
+        fleet = Fleets.generate(distribution, points, 42);
+        fleet.forEach(index::add);
+
+        Random random = new Random(7);
+        moves = new BasicPoint[QUERIES];
+        centers = new BasicPoint[QUERIES];
+        topLefts = new BasicPoint[QUERIES];
+        bottomRights = new BasicPoint[QUERIES];
+
+        for (int i = 0; i < QUERIES; i++) {
+            BasicPoint vehicle = fleet.get(random.nextInt(fleet.size()));
+            moves[i] = Fleets.offset(vehicle, random.nextGaussian() * 50);
+
+            BasicPoint center = Fleets.next(distribution, "q" + i, random);
+            centers[i] = center;
+            topLefts[i] = Fleets.topLeft(center, radius);
+            bottomRights[i] = Fleets.bottomRight(center, radius);
+        }
+    }
+
+    private int next() {
+        next = (next + 1) & (QUERIES - 1);
+        return next;
+    }
+
+    @Benchmark
+    public void add() {
+        index.add(moves[next()]);
+    }
+
+    @Benchmark
+    public void removeAndAdd() {
+        BasicPoint point = moves[next()];
+        index.remove(point.getId());
+        index.add(point);
+    }
+
+    @Benchmark
+    public void kNearest(Blackhole bh) {
+        bh.consume(index.kNearest(centers[next()], k, radius, all));
+    }
+
+    @Benchmark
+    public void range(Blackhole bh) {
+        int i = next();
+        bh.consume(index.range(topLefts[i], bottomRights[i]));
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.blanclink.geoindex;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A few hot boxes polled over and over while the fleet moves, with and without the result cache.
+ * Each {@code poll} queries one hot box after {@code writes} position updates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryCacheBenchmark {
+
+    private static final int HOT = 8;
+    private static final int MOVES = 1024;
+
+    @Param({"100000"})
+    public int points;
+
+    @Param({"0", "64"})
+    public int cacheSize;
+
+    @Param({"0", "10"})
+    public int writes;
+
+    @Param({"1000"})
+    public double radius;
+
+    private PointIndex<BasicPoint> index;
+    private BasicPoint[] moves;
+    private BasicPoint[] topLefts;
+    private BasicPoint[] bottomRights;
+    private int next;
+    private int nextMove;
+
+    @Setup
+    public void setUp() {
+        index = new PointIndex<>(100);
+        index.setCacheSize(cacheSize);
+        List<BasicPoint> fleet = Fleets.generate(Fleets.Distribution.UNIFORM, points, 42);
+        fleet.forEach(index::add);
+
+        Random random = new Random(7);
+        topLefts = new BasicPoint[HOT];
+        bottomRights = new BasicPoint[HOT];
+        for (int i = 0; i < HOT; i++) {
+            BasicPoint center = Fleets.stations().get(i);
+            topLefts[i] = Fleets.topLeft(center, radius);
+            bottomRights[i] = Fleets.bottomRight(center, radius);
+        }
+
+        moves = new BasicPoint[MOVES];
+        for (int i = 0; i < MOVES; i++) {
+            moves[i] = Fleets.offset(fleet.get(random.nextInt(fleet.size())), random.nextGaussian() * 50);
+        }
+    }
+
+    @Benchmark
+    public List<BasicPoint> poll() {
+        for (int i = 0; i < writes; i++) {
+            nextMove = (nextMove + 1) & (MOVES - 1);
+            index.add(moves[nextMove]);
+        }
+        next = (next + 1) % HOT;
+        return index.range(topLefts[next], bottomRights[next]);
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.blanclink.geoindex;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Throughput of {@link ShardedPointIndex} by number of shards. Run it once per thread count, e.g.
+ * {@code -t 1} and {@code -t max}: with one shard every writer queues on the same lock, with more
+ * shards writers spread over them and a large {@code range} fans out to several workers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardedPointIndexBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Indexes {
+
+        @Param({"1", "2", "4", "8"})
+        public int shards;
+
+        @Param({"100"})
+        public double resolution;
+
+        @Param({"100000"})
+        public int points;
+
+        @Param({"UNIFORM", "HOTSPOT"})
+        public Fleets.Distribution distribution;
+
+        private ShardedPointIndex<BasicPoint> index;
+        private List<BasicPoint> fleet;
+
+        @Setup
+        public void setUp() {
+            index = new ShardedPointIndex<>(resolution, shards);
+            fleet = Fleets.generate(distribution, points, 42);
+            fleet.forEach(index::add);
+        }
+
+        @TearDown
+        public void tearDown() {
+            index.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Workload {
+
+        private final Predicate<BasicPoint> all = point -> true;
+        private BasicPoint[] moves;
+        private BasicPoint[] centers;
+        private int next;
+
+        @Setup
+        public void setUp(Indexes indexes) {
+            Random random = new Random(Thread.currentThread().getId());
+            moves = new BasicPoint[QUERIES];
+            centers = new BasicPoint[QUERIES];
+
+            for (int i = 0; i < QUERIES; i++) {
+                BasicPoint vehicle = indexes.fleet.get(random.nextInt(indexes.fleet.size()));
+                moves[i] = Fleets.offset(vehicle, random.nextGaussian() * 50);
+                centers[i] = Fleets.next(indexes.distribution, "q" + i, random);
+            }
+        }
+
+        private int next() {
+            next = (next + 1) & (QUERIES - 1);
+            return next;
+        }
+    }
+
+    @Benchmark
+    public void add(Indexes indexes, Workload workload) {
+        indexes.index.add(workload.moves[workload.next()]);
+    }
+
+    @Benchmark
+    public List<BasicPoint> kNearest(Indexes indexes, Workload workload) {
+        return indexes.index.kNearest(workload.centers[workload.next()], 10, 1000, workload.all);
+    }
+
+    @Benchmark
+    public List<BasicPoint> range(Indexes indexes, Workload workload) {
+        BasicPoint center = workload.centers[workload.next()];
+        return indexes.index.range(Fleets.topLeft(center, 5000), Fleets.bottomRight(center, 5000));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedWriter(Indexes indexes, Workload workload) {
+        indexes.index.add(workload.moves[workload.next()]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public List<BasicPoint> mixedReader(Indexes indexes, Workload workload) {
+        return indexes.index.kNearest(workload.centers[workload.next()], 10, 1000, workload.all);
+    }
+
+}
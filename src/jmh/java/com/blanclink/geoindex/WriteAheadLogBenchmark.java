@@ -0,0 +1,148 @@
+package com.blanclink.geoindex;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cost of logging on {@code add}, with a group commit every 10 ms, and recovery from a checkpoint and a log of {@code updates} moves
+ * against replaying the same moves one {@code add} at a time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteAheadLogBenchmark {
+
+    private static final int MOVES = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Logged {
+
+        @Param({"100"})
+        public double resolution;
+
+        @Param({"100000"})
+        public int points;
+
+        @Param({"false", "true"})
+        public boolean logged;
+
+        private PointIndex<BasicPoint> index;
+        private WriteAheadLog log;
+        private ScheduledExecutorService flusher;
+        private Path directory;
+        private BasicPoint[] moves;
+        private int next;
+
+        @Setup
+        public void setUp() throws IOException {
+            List<BasicPoint> fleet = Fleets.generate(Fleets.Distribution.UNIFORM, points, 42);
+            index = PointIndex.build(fleet, resolution);
+            if (logged) {
+                directory = Files.createTempDirectory("wal");
+                log = new WriteAheadLog(directory);
+                log.attach(index);
+                flusher = Executors.newSingleThreadScheduledExecutor();
+                log.scheduleFlush(flusher, Duration.ofMillis(10));
+            }
+
+            Random random = new Random(7);
+            moves = new BasicPoint[MOVES];
+            for (int i = 0; i < MOVES; i++) {
+                moves[i] = Fleets.offset(fleet.get(random.nextInt(points)), random.nextGaussian() * 50);
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            if (log != null) {
+                flusher.shutdown();
+                log.close();
+                delete(directory);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recovery {
+
+        @Param({"100"})
+        public double resolution;
+
+        @Param({"100000"})
+        public int points;
+
+        @Param({"1000000"})
+        public int updates;
+
+        private Path directory;
+        private List<BasicPoint> fleet;
+        private List<BasicPoint> history;
+
+        @Setup
+        public void setUp() throws IOException {
+            fleet = Fleets.generate(Fleets.Distribution.UNIFORM, points, 42);
+            directory = Files.createTempDirectory("wal");
+
+            PointIndex<BasicPoint> index = PointIndex.build(fleet, resolution);
+            history = new ArrayList<>(updates);
+            try (WriteAheadLog log = new WriteAheadLog(directory)) {
+                log.attach(index);
+                Random random = new Random(7);
+                for (int i = 0; i < updates; i++) {
+                    BasicPoint move = Fleets.offset(fleet.get(random.nextInt(points)), random.nextGaussian() * 50);
+                    index.add(move);
+                    history.add(move);
+                }
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            delete(directory);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void add(Logged state) {
+        state.next = (state.next + 1) & (MOVES - 1);
+        state.index.add(state.moves[state.next]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PointIndex<BasicPoint> recover(Recovery state) throws IOException {
+        return WriteAheadLog.recover(state.directory, state.resolution);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PointIndex<BasicPoint> replayAdds(Recovery state) {
+        PointIndex<BasicPoint> index = new PointIndex<>(state.resolution);
+        state.fleet.forEach(index::add);
+        state.history.forEach(index::add);
+        return index;
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.blanclink.geoindex;
+
+/**
+ * Mergeable summary of a set of points, such as their count or sum, kept per cell by an
+ * {@link AggregateIndex}.
+ */
+public interface Aggregate<T extends IPoint, A extends Aggregate<T, A>> {
+
+    void add(T point);
+
+    void remove(T point);
+
+    /**
+     * Adds the points summarized by {@code other} to this aggregate.
+     */
+    void merge(A other);
+
+}
@@ -0,0 +1,77 @@
+package com.blanclink.geoindex;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Per-cell {@link Aggregate}s of the points of a {@link PointIndex}, kept up to date as a
+ * {@link PointListener}:
+ * <pre>
+ *     AggregateIndex&lt;BasicPoint, PointCount&lt;BasicPoint&gt;&gt; counts = new AggregateIndex&lt;&gt;(1000, PointCount::new);
+ *     index.addListener(counts);
+ * </pre>
+ * Queries merge whole cells and never touch points, so their cost is bounded by the number of cells.
+ * A cell counts in full as soon as it overlaps the queried box; pick a resolution to match.
+ */
+public class AggregateIndex<T extends IPoint, A extends Aggregate<T, A>> implements PointListener<T> {
+
+    private final GeoIndex<A> index;
+    private final Supplier<A> newAggregate;
+
+    public AggregateIndex(double resolution, Supplier<A> newAggregate) {
+        this.index = new GeoIndex<>(resolution, newAggregate);
+        this.newAggregate = newAggregate;
+    }
+
+    @Override
+    public void onAdd(T point) {
+        index.addEntryAt(point).add(point);
+    }
+
+    @Override
+    public void onRemove(T point) {
+        A aggregate = index.find(Cell.keyOf(point, index.getResolution()));
+        if (aggregate != null) {
+            aggregate.remove(point);
+        }
+    }
+
+    /**
+     * Returns the aggregate of the cell containing {@code point}.
+     */
+    public A get(IPoint point) {
+        return index.getEntryAt(point);
+    }
+
+    /**
+     * Returns the aggregate of all the cells overlapping the box.
+     */
+    public A aggregate(IPoint topLeft, IPoint bottomRight) {
+        List<A> cells = index.range(topLeft, bottomRight);
+        A total = newAggregate.get();
+        for (A cell : cells) {
+            total.merge(cell);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the aggregates of the cells overlapping the box that have held points.
+     */
+    public Map<Cell, A> cells(IPoint topLeft, IPoint bottomRight) {
+        Cell topLeftIndex = Cell.cellOf(topLeft, index.getResolution());
+        Cell bottomRightIndex = Cell.cellOf(bottomRight, index.getResolution());
+
+        return index.getCells(bottomRightIndex.getX(), topLeftIndex.getX(), topLeftIndex.getY(), bottomRightIndex.getY());
+    }
+
+    public void setSparse(boolean sparse) {
+        index.setSparse(sparse);
+    }
+
+    public double getResolution() {
+        return index.getResolution();
+    }
+
+}
@@ -3,10 +3,10 @@ package com.blanclink.geoindex;
 public class BasicPoint implements IPoint {
 
     private final String id;
-    private final Double lat;
-    private final Double lon;
+    private final double lat;
+    private final double lon;
 
-    public BasicPoint(String id, Double lat, Double lon) {
+    public BasicPoint(String id, double lat, double lon) {
         this.id = id;
         this.lat = lat;
         this.lon = lon;
@@ -24,6 +24,16 @@ public class BasicPoint implements IPoint {
         return lon;
     }
 
+    @Override
+    public double lat() {
+        return lat;
+    }
+
+    @Override
+    public double lon() {
+        return lon;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -32,16 +42,16 @@ public class BasicPoint implements IPoint {
         BasicPoint point = (BasicPoint) o;
 
         if (!id.equals(point.id)) return false;
-        if (!lat.equals(point.lat)) return false;
-        return lon.equals(point.lon);
+        if (Double.compare(lat, point.lat) != 0) return false;
+        return Double.compare(lon, point.lon) == 0;
 
     }
 
     @Override
     public int hashCode() {
         int result = id.hashCode();
-        result = 31 * result + lat.hashCode();
-        result = 31 * result + lon.hashCode();
+        result = 31 * result + Double.hashCode(lat);
+        result = 31 * result + Double.hashCode(lon);
         return result;
     }
 
@@ -49,4 +59,4 @@ public class BasicPoint implements IPoint {
     public String toString() {
         return id;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,54 @@
+package com.blanclink.geoindex;
+
+import java.util.Collection;
+import java.util.function.Predicate;
+
+/**
+ * Points of a single cell, keyed by id.
+ */
+interface Bucket<T extends IPoint> {
+
+    T get(String id);
+
+    /**
+     * Inserts {@code point}, replacing the point with the same id.
+     *
+     * @return the replaced point, or {@code null}
+     */
+    T put(T point);
+
+    T remove(String id);
+
+    int size();
+
+    /**
+     * Adds to {@code result} the accepted points inside the bounding box.
+     */
+    void collect(double minLat, double maxLat, double minLon, double maxLon,
+                 Predicate<? super T> accept, Collection<? super T> result);
+
+    /**
+     * Passes to {@code visitor} the points inside the bounding box, without allocating.
+     */
+    void visit(double minLat, double maxLat, double minLon, double maxLon, PointVisitor<? super T> visitor);
+
+    /**
+     * Adds to {@code result} the accepted points within {@code meters} of {@code lat, lon}.
+     *
+     * @return the number of haversine distances evaluated
+     */
+    int collectWithin(double lat, double lon, double meters,
+                       Predicate<? super T> accept, Collection<? super T> result);
+
+    /**
+     * Offers to {@code nearest} the accepted points, keyed by their approximate square distance
+     * to {@code lat, lon}. {@code accept} is only tested on points that would enter the heap.
+     */
+    void offer(double lat, double lon, Predicate<? super T> accept, NearestHeap<T> nearest);
+
+    /**
+     * Returns a bucket holding the same points that can be written without affecting this one.
+     */
+    Bucket<T> copy();
+
+}
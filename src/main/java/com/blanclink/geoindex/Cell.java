@@ -16,11 +16,39 @@ public class Cell {
     }
 
     public static Cell cellOf(IPoint point, double resolution) {
+        return new Cell(x(point.lat(), resolution), y(point.lon(), resolution));
+    }
+
+    public static Cell fromKey(long key) {
+        return new Cell(xOf(key), yOf(key));
+    }
+
+    public static int x(double lat, double resolution) {
+        return (int) ((-MIN_LAT + lat) * LAT_DEGREE_LENGTH / resolution);
+    }
+
+    public static int y(double lon, double resolution) {
+        return (int) ((-MIN_LON + lon) * LON_DEGREE_LENGTH / resolution);
+    }
 
-        int x = (int) ((-MIN_LAT + point.getLat()) * LAT_DEGREE_LENGTH / resolution);
-        int y = (int) ((-MIN_LON + point.getLon()) * LON_DEGREE_LENGTH / resolution);
+    public static long keyOf(IPoint point, double resolution) {
+        return key(x(point.lat(), resolution), y(point.lon(), resolution));
+    }
+
+    public static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    public static int xOf(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int yOf(long key) {
+        return (int) key;
+    }
 
-        return new Cell(x, y);
+    public long key() {
+        return key(x, y);
     }
 
     public int getX() {
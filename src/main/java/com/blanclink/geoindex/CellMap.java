@@ -0,0 +1,259 @@
+package com.blanclink.geoindex;
+
+import java.util.*;
+
+/**
+ * Open-addressing hash map from packed cell keys (see {@link Cell#key(int, int)}) to entries.
+ * Lookups neither box the key nor allocate; {@code null} values are not supported.
+ */
+public class CellMap<T> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+    private int resizeAt;
+    // the tables are also referenced by a copy from share() and must be copied before writing
+    private boolean shared;
+
+    public CellMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public CellMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 < expectedSize * 4) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private CellMap(CellMap<T> other) {
+        this.keys = other.keys;
+        this.values = other.values;
+        this.size = other.size;
+        this.mask = other.mask;
+        this.resizeAt = other.resizeAt;
+        this.shared = true;
+    }
+
+    /**
+     * Returns a copy in constant time: both maps keep reading the same tables, and whichever
+     * is written first copies them then.
+     */
+    CellMap<T> share() {
+        shared = true;
+        return new CellMap<>(this);
+    }
+
+    private void unshare() {
+        if (shared) {
+            keys = keys.clone();
+            values = values.clone();
+            shared = false;
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+        this.resizeAt = capacity * 3 / 4;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int slot(long key) {
+        int i = hash(key) & mask;
+        while (values[i] != null) {
+            if (keys[i] == key) return i;
+            i = (i + 1) & mask;
+        }
+        return -1 - i;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(long key) {
+        int i = slot(key);
+        return i >= 0 ? (T) values[i] : null;
+    }
+
+    public boolean containsKey(long key) {
+        return slot(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T put(long key, T value) {
+        Objects.requireNonNull(value);
+        unshare();
+        int i = slot(key);
+
+        if (i >= 0) {
+            T previous = (T) values[i];
+            values[i] = value;
+            return previous;
+        }
+
+        i = -1 - i;
+        keys[i] = key;
+        values[i] = value;
+
+        if (++size > resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T remove(long key) {
+        int i = slot(key);
+        if (i < 0) return null;
+
+        unshare();
+        T previous = (T) values[i];
+        size--;
+
+        // backward-shift deletion keeps probe sequences intact without tombstones
+        int gap = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (values[j] == null) break;
+
+            int home = hash(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        values[gap] = null;
+
+        return previous;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        if (shared) {
+            allocate(values.length);
+            shared = false;
+        } else {
+            Arrays.fill(values, null);
+        }
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int j = -1 - slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Slot-based iteration: slots {@code 0..capacity()-1}, skipping those whose value is {@code null}.
+     */
+    int capacity() {
+        return values.length;
+    }
+
+    long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    T valueAt(int slot) {
+        return (T) values[slot];
+    }
+
+    /**
+     * Live {@link Map} view keyed by {@link Cell}, for callers of the boxed API.
+     */
+    public Map<Cell, T> asMap() {
+        return new AbstractMap<Cell, T>() {
+
+            @Override
+            public T get(Object key) {
+                return key instanceof Cell ? CellMap.this.get(((Cell) key).key()) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof Cell && CellMap.this.containsKey(((Cell) key).key());
+            }
+
+            @Override
+            public T put(Cell key, T value) {
+                return CellMap.this.put(key.key(), value);
+            }
+
+            @Override
+            public T remove(Object key) {
+                return key instanceof Cell ? CellMap.this.remove(((Cell) key).key()) : null;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Set<Entry<Cell, T>> entrySet() {
+                return new AbstractSet<Entry<Cell, T>>() {
+
+                    @Override
+                    public int size() {
+                        return size;
+                    }
+
+                    @Override
+                    public Iterator<Entry<Cell, T>> iterator() {
+                        return new Iterator<Entry<Cell, T>>() {
+
+                            private int next = advance(0);
+                            private int last = -1;
+
+                            private int advance(int i) {
+                                while (i < values.length && values[i] == null) i++;
+                                return i;
+                            }
+
+                            @Override
+                            public boolean hasNext() {
+                                return next < values.length;
+                            }
+
+                            @Override
+                            public Entry<Cell, T> next() {
+                                if (!hasNext()) throw new NoSuchElementException();
+                                last = next;
+                                next = advance(next + 1);
+                                return new SimpleImmutableEntry<>(Cell.fromKey(keys[last]), valueAt(last));
+                            }
+                        };
+                    }
+                };
+            }
+        };
+    }
+
+}
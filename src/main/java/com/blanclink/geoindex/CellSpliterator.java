@@ -0,0 +1,91 @@
+package com.blanclink.geoindex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Points of a block of cells inside a bounding box, read one column of cells at a time as they are
+ * consumed. Splits into halves of the remaining columns.
+ */
+class CellSpliterator<T extends IPoint> implements Spliterator<T> {
+
+    private final GeoIndex<Bucket<T>> index;
+    private final int maxX;
+    private final int minY;
+    private final int maxY;
+    private final double minLat, maxLat, minLon, maxLon;
+    private final Predicate<? super T> accept;
+    private final List<T> column = new ArrayList<>();
+    private int x;
+    private int next;
+
+    CellSpliterator(GeoIndex<Bucket<T>> index, int minX, int maxX, int minY, int maxY,
+                    double minLat, double maxLat, double minLon, double maxLon, Predicate<? super T> accept) {
+        this.index = index;
+        this.x = minX;
+        this.maxX = maxX;
+        this.minY = minY;
+        this.maxY = maxY;
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLon = minLon;
+        this.maxLon = maxLon;
+        this.accept = accept;
+    }
+
+    // reads the next column holding a match, false once there is none
+    private boolean fill() {
+        column.clear();
+        next = 0;
+
+        while (column.isEmpty() && x <= maxX) {
+            for (Bucket<T> entry : index.get(x, x, minY, maxY)) {
+                entry.collect(minLat, maxLat, minLon, maxLon, accept, column);
+            }
+            x++;
+        }
+        return !column.isEmpty();
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (next == column.size() && !fill()) return false;
+
+        action.accept(column.get(next++));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        do {
+            while (next < column.size()) {
+                action.accept(column.get(next++));
+            }
+        } while (fill());
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        if (x >= maxX) return null;
+
+        int mid = x + (maxX - x) / 2;
+        CellSpliterator<T> prefix = new CellSpliterator<>(index, x, mid, minY, maxY,
+                minLat, maxLat, minLon, maxLon, accept);
+        x = mid + 1;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL;
+    }
+
+}
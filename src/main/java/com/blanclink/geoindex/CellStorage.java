@@ -0,0 +1,35 @@
+package com.blanclink.geoindex;
+
+/**
+ * How a {@link PointIndex} stores the points of each cell.
+ */
+public enum CellStorage {
+
+    /**
+     * A hash map from id to point per cell.
+     */
+    MAP {
+        @Override
+        <T extends IPoint> Bucket<T> newBucket(int expectedSize) {
+            return new MapBucket<>(expectedSize);
+        }
+    },
+
+    /**
+     * Parallel primitive coordinate arrays per cell, scanned without dereferencing points that
+     * fall outside the query. Faster range and kNearest scans over dense cells.
+     */
+    COLUMNAR {
+        @Override
+        <T extends IPoint> Bucket<T> newBucket(int expectedSize) {
+            return new ColumnarBucket<>(expectedSize);
+        }
+    };
+
+    <T extends IPoint> Bucket<T> newBucket() {
+        return newBucket(0);
+    }
+
+    abstract <T extends IPoint> Bucket<T> newBucket(int expectedSize);
+
+}
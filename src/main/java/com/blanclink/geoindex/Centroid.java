@@ -0,0 +1,45 @@
+package com.blanclink.geoindex;
+
+/**
+ * Count and mean position of a set of points.
+ */
+public class Centroid<T extends IPoint> implements Aggregate<T, Centroid<T>> {
+
+    private int count;
+    private double latSum;
+    private double lonSum;
+
+    @Override
+    public void add(T point) {
+        count++;
+        latSum += point.lat();
+        lonSum += point.lon();
+    }
+
+    @Override
+    public void remove(T point) {
+        count--;
+        latSum -= point.lat();
+        lonSum -= point.lon();
+    }
+
+    @Override
+    public void merge(Centroid<T> other) {
+        count += other.count;
+        latSum += other.latSum;
+        lonSum += other.lonSum;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double lat() {
+        return latSum / count;
+    }
+
+    public double lon() {
+        return lonSum / count;
+    }
+
+}
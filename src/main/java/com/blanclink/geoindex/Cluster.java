@@ -0,0 +1,52 @@
+package com.blanclink.geoindex;
+
+/**
+ * A cell of a {@link ClusterIndex} level reduced to its point count and centroid, or a single point
+ * of a sparse cell.
+ */
+public class Cluster<T extends IPoint> {
+
+    private final int count;
+    private final double lat;
+    private final double lon;
+    private final T point;
+
+    Cluster(int count, double lat, double lon) {
+        this.count = count;
+        this.lat = lat;
+        this.lon = lon;
+        this.point = null;
+    }
+
+    Cluster(T point) {
+        this.count = 1;
+        this.lat = point.lat();
+        this.lon = point.lon();
+        this.point = point;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double lat() {
+        return lat;
+    }
+
+    public double lon() {
+        return lon;
+    }
+
+    /**
+     * The point itself when this cluster stands for a single point, {@code null} otherwise.
+     */
+    public T getPoint() {
+        return point;
+    }
+
+    @Override
+    public String toString() {
+        return point != null ? point.toString() : "Cluster{" + count + " at " + lat + ", " + lon + "}";
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.blanclink.geoindex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.Math.floorDiv;
+
+/**
+ * Pyramid of {@link Centroid}s for drawing a {@link PointIndex} at any zoom, kept up to date as a
+ * {@link PointListener}. Level {@code 0} has cells of {@code resolution} meters and each level's cells
+ * are {@code factor} times wider than the previous one's, nested exactly. A query returns one
+ * {@link Cluster} per occupied cell of the chosen level, or the points themselves for cells holding
+ * at most {@link #setExpandBelow} points, so its size depends on the level and not on the fleet.
+ * As with {@link AggregateIndex}, a cell is returned in full as soon as it overlaps the queried box.
+ */
+public class ClusterIndex<T extends IPoint> implements PointListener<T> {
+
+    private final double resolution;
+    private final int[] scales;
+    private final GeoIndex<Bucket<T>> points;
+    private final List<GeoIndex<Centroid<T>>> levels;
+    private int expandBelow = 1;
+
+    public ClusterIndex(double resolution, int factor, int levels) {
+        if (factor < 2) throw new IllegalArgumentException("factor must be at least 2");
+        if (levels < 1) throw new IllegalArgumentException("levels must be at least 1");
+
+        this.resolution = resolution;
+        this.scales = new int[levels];
+        this.points = new GeoIndex<>(resolution, CellStorage.MAP::newBucket);
+        this.points.setSparse(true);
+        this.levels = new ArrayList<>(levels);
+
+        long scale = 1;
+        for (int level = 0; level < levels; level++) {
+            if (scale > Integer.MAX_VALUE) throw new IllegalArgumentException("too many levels for factor " + factor);
+            scales[level] = (int) scale;
+            scale *= factor;
+
+            GeoIndex<Centroid<T>> index = new GeoIndex<>(resolution * scales[level], Centroid::new);
+            index.setSparse(true);
+            this.levels.add(index);
+        }
+    }
+
+    /**
+     * Cells holding at most {@code count} points are returned as individual points. Defaults to 1.
+     */
+    public void setExpandBelow(int count) {
+        this.expandBelow = count;
+    }
+
+    @Override
+    public void onAdd(T point) {
+        long key = Cell.keyOf(point, resolution);
+        points.addEntryAt(key).put(point);
+
+        for (int level = 0; level < scales.length; level++) {
+            levels.get(level).addEntryAt(coarse(key, level)).add(point);
+        }
+    }
+
+    @Override
+    public void onRemove(T point) {
+        long key = Cell.keyOf(point, resolution);
+        Bucket<T> bucket = points.find(key);
+        if (bucket == null || bucket.remove(point.getId()) == null) return;
+
+        for (int level = 0; level < scales.length; level++) {
+            levels.get(level).find(coarse(key, level)).remove(point);
+        }
+    }
+
+    private long coarse(long key, int level) {
+        int scale = scales[level];
+        return Cell.key(floorDiv(Cell.xOf(key), scale), floorDiv(Cell.yOf(key), scale));
+    }
+
+    public int getLevels() {
+        return scales.length;
+    }
+
+    /**
+     * Cell width of {@code level}, in meters.
+     */
+    public double getResolution(int level) {
+        return resolution * scales[level];
+    }
+
+    /**
+     * Returns the finest level at which the box spans at most {@code maxCells} cells, or the coarsest level.
+     */
+    public int levelFor(IPoint topLeft, IPoint bottomRight, int maxCells) {
+        int minX = Cell.x(bottomRight.lat(), resolution), maxX = Cell.x(topLeft.lat(), resolution);
+        int minY = Cell.y(topLeft.lon(), resolution), maxY = Cell.y(bottomRight.lon(), resolution);
+
+        for (int level = 0; level < scales.length - 1; level++) {
+            int scale = scales[level];
+            long cells = (long) (floorDiv(maxX, scale) - floorDiv(minX, scale) + 1)
+                    * (floorDiv(maxY, scale) - floorDiv(minY, scale) + 1);
+            if (cells <= maxCells) return level;
+        }
+
+        return scales.length - 1;
+    }
+
+    public List<Cluster<T>> clusters(IPoint topLeft, IPoint bottomRight, int level) {
+        int scale = scales[level];
+        int minX = floorDiv(Cell.x(bottomRight.lat(), resolution), scale);
+        int maxX = floorDiv(Cell.x(topLeft.lat(), resolution), scale);
+        int minY = floorDiv(Cell.y(topLeft.lon(), resolution), scale);
+        int maxY = floorDiv(Cell.y(bottomRight.lon(), resolution), scale);
+
+        List<Cluster<T>> result = new ArrayList<>();
+
+        for (Map.Entry<Cell, Centroid<T>> cell : levels.get(level).getCells(minX, maxX, minY, maxY).entrySet()) {
+            Centroid<T> centroid = cell.getValue();
+            int count = centroid.getCount();
+
+            if (count > expandBelow) {
+                result.add(new Cluster<>(count, centroid.lat(), centroid.lon()));
+            } else if (count > 0) {
+                expand(cell.getKey(), scale, result);
+            }
+        }
+
+        return result;
+    }
+
+    private void expand(Cell cell, int scale, List<Cluster<T>> result) {
+        List<T> members = new ArrayList<>();
+        int x = cell.getX() * scale, y = cell.getY() * scale;
+
+        for (Bucket<T> bucket : points.get(x, x + scale - 1, y, y + scale - 1)) {
+            bucket.collect(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                    Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, point -> true, members);
+        }
+        for (T point : members) {
+            result.add(new Cluster<>(point));
+        }
+    }
+
+}
@@ -0,0 +1,224 @@
+package com.blanclink.geoindex;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Predicate;
+
+import static com.blanclink.geoindex.Distances.approximateSquareDistance;
+import static com.blanclink.geoindex.Distances.distance;
+import static com.blanclink.geoindex.Distances.mayBeWithin;
+
+/**
+ * Struct-of-arrays cell: coordinates live in parallel primitive arrays so that scans run over
+ * contiguous memory, and a point object is only read once its coordinates qualify.
+ * <p>
+ * Points occupy slots {@code 0..size-1}; removal moves the last slot into the hole. Ids are found
+ * through an open-addressing table of {@code slot + 1} entries, 0 marking a free bucket.
+ */
+class ColumnarBucket<T extends IPoint> implements Bucket<T> {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private double[] lat;
+    private double[] lon;
+    private Object[] points;
+    private int[] slots;
+    private int size;
+
+    ColumnarBucket(int expectedSize) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < expectedSize) {
+            capacity <<= 1;
+        }
+
+        this.lat = new double[capacity];
+        this.lon = new double[capacity];
+        this.points = new Object[capacity];
+        this.slots = new int[capacity * 2];
+    }
+
+    private ColumnarBucket(ColumnarBucket<T> other) {
+        this.lat = other.lat.clone();
+        this.lon = other.lon.clone();
+        this.points = other.points.clone();
+        this.slots = other.slots.clone();
+        this.size = other.size;
+    }
+
+    @Override
+    public Bucket<T> copy() {
+        return new ColumnarBucket<>(this);
+    }
+
+    private static int hash(String id) {
+        int h = id.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T point(int slot) {
+        return (T) points[slot];
+    }
+
+    // index of id in the slot table, or -(free index) - 1
+    private int find(String id) {
+        int mask = slots.length - 1;
+        int i = hash(id) & mask;
+
+        while (slots[i] != 0) {
+            if (point(slots[i] - 1).getId().equals(id)) return i;
+            i = (i + 1) & mask;
+        }
+        return -1 - i;
+    }
+
+    @Override
+    public T get(String id) {
+        int i = find(id);
+        return i >= 0 ? point(slots[i] - 1) : null;
+    }
+
+    @Override
+    public T put(T point) {
+        int i = find(point.getId());
+
+        if (i >= 0) {
+            int slot = slots[i] - 1;
+            T previous = point(slot);
+            set(slot, point);
+            return previous;
+        }
+
+        if (size == points.length) {
+            grow();
+            i = find(point.getId());
+        }
+
+        set(size, point);
+        slots[-1 - i] = ++size;
+        return null;
+    }
+
+    private void set(int slot, T point) {
+        lat[slot] = point.lat();
+        lon[slot] = point.lon();
+        points[slot] = point;
+    }
+
+    @Override
+    public T remove(String id) {
+        int i = find(id);
+        if (i < 0) return null;
+
+        int slot = slots[i] - 1;
+        T previous = point(slot);
+        delete(i);
+
+        int last = --size;
+        if (slot != last) {
+            lat[slot] = lat[last];
+            lon[slot] = lon[last];
+            points[slot] = points[last];
+            slots[find(point(slot).getId())] = slot + 1;
+        }
+        points[last] = null;
+
+        return previous;
+    }
+
+    // backward-shift deletion from the linear-probing slot table
+    private void delete(int gap) {
+        int mask = slots.length - 1;
+        int j = gap;
+
+        while (true) {
+            j = (j + 1) & mask;
+            if (slots[j] == 0) break;
+
+            int home = hash(point(slots[j] - 1).getId()) & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                slots[gap] = slots[j];
+                gap = j;
+            }
+        }
+        slots[gap] = 0;
+    }
+
+    private void grow() {
+        int capacity = points.length * 2;
+        lat = Arrays.copyOf(lat, capacity);
+        lon = Arrays.copyOf(lon, capacity);
+        points = Arrays.copyOf(points, capacity);
+
+        slots = new int[capacity * 2];
+        int mask = slots.length - 1;
+        for (int slot = 0; slot < size; slot++) {
+            int i = hash(point(slot).getId()) & mask;
+            while (slots[i] != 0) i = (i + 1) & mask;
+            slots[i] = slot + 1;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void collect(double minLat, double maxLat, double minLon, double maxLon,
+                        Predicate<? super T> accept, Collection<? super T> result) {
+        double[] lat = this.lat, lon = this.lon;
+
+        for (int i = 0; i < size; i++) {
+            double a = lat[i], o = lon[i];
+            if (a >= minLat && a <= maxLat && o >= minLon && o <= maxLon) {
+                T point = point(i);
+                if (accept.test(point)) result.add(point);
+            }
+        }
+    }
+
+    @Override
+    public void visit(double minLat, double maxLat, double minLon, double maxLon, PointVisitor<? super T> visitor) {
+        double[] lat = this.lat, lon = this.lon;
+
+        for (int i = 0; i < size; i++) {
+            double a = lat[i], o = lon[i];
+            if (a >= minLat && a <= maxLat && o >= minLon && o <= maxLon) {
+                visitor.visit(point(i));
+            }
+        }
+    }
+
+    @Override
+    public int collectWithin(double lat, double lon, double meters,
+                             Predicate<? super T> accept, Collection<? super T> result) {
+        double[] lats = this.lat, lons = this.lon;
+
+        int tests = 0;
+        for (int i = 0; i < size; i++) {
+            if (mayBeWithin(lat, lon, lats[i], lons[i], meters)) {
+                tests++;
+                if (distance(lat, lon, lats[i], lons[i]) <= meters) {
+                    T point = point(i);
+                    if (accept.test(point)) result.add(point);
+                }
+            }
+        }
+        return tests;
+    }
+
+    @Override
+    public void offer(double lat, double lon, Predicate<? super T> accept, NearestHeap<T> nearest) {
+        double[] lats = this.lat, lons = this.lon;
+
+        for (int i = 0; i < size; i++) {
+            double distance = approximateSquareDistance(lat, lon, lats[i], lons[i]);
+            if (distance < nearest.worst()) {
+                T point = point(i);
+                if (accept.test(point)) nearest.offer(point, distance);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+package com.blanclink.geoindex;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+
+import static com.blanclink.geoindex.Distances.*;
+
+/**
+ * Thread-safe counterpart of {@link PointIndex}.
+ * <p>
+ * Cells are {@link ConcurrentHashMap}s, found through one {@link CellMap} per lock stripe. Writers lock
+ * the stripes of the cells they touch, the old and the new one when a point changes cell, and swap
+ * {@code currentPosition} under those locks, so concurrent updates of the same id cannot leave a stale copy
+ * behind. Updates in different cells only contend when their cells hash to the same stripe. Queries hold a
+ * stripe only to find a cell, and read the cell itself without a lock.
+ * <p>
+ * A point moving between cells is added to the new cell before it leaves the old one, so a query running
+ * meanwhile never misses it but may see it at both positions: {@code range} may then return the id twice,
+ * and {@code kNearest} may spend two of its {@code k} places on it.
+ * <p>
+ * With an expiration, timers live in a few id-striped {@link TimingWheel}s. Nothing is swept inline:
+ * call {@link #expire()} or {@link #scheduleExpiration} to sweep from a background thread, and expect
+ * expired points to stay visible for up to one sweep period.
+ */
+public class ConcurrentPointIndex<T extends IPoint> {
+
+    private static final int STRIPES = 256;
+    private static final int WHEELS = 16;
+
+    private final double resolution;
+    // cells by key, each map guarded by the lock of the same stripe
+    private final List<CellMap<Map<String, T>>> index = new ArrayList<>(STRIPES);
+    private final ConcurrentMap<String, T> currentPosition = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[STRIPES];
+    private final List<TimingWheel<String>> timers;
+    private final Clock clock;
+    private final long expiration;
+    private final RingSearch.Cells<T> ringCells = this::offer;
+
+    public ConcurrentPointIndex(double resolution) {
+        this.resolution = resolution;
+        this.timers = null;
+        this.clock = null;
+        this.expiration = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+            index.add(new CellMap<>());
+        }
+    }
+
+    public ConcurrentPointIndex(double resolution, Duration expiration) {
+        this(resolution, expiration, Clock.systemUTC());
+    }
+
+    public ConcurrentPointIndex(double resolution, Duration expiration, Clock clock) {
+        this.resolution = resolution;
+        this.timers = new ArrayList<>(WHEELS);
+        this.clock = clock;
+        this.expiration = expiration.toMillis();
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+            index.add(new CellMap<>());
+        }
+        for (int i = 0; i < WHEELS; i++) {
+            timers.add(new TimingWheel<>(1, clock.millis()));
+        }
+    }
+
+    private static int stripe(long cellKey) {
+        long h = cellKey * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 56);
+    }
+
+    // call with the stripe of cellKey locked
+    private Map<String, T> cell(long cellKey) {
+        CellMap<Map<String, T>> cells = index.get(stripe(cellKey));
+        Map<String, T> entry = cells.get(cellKey);
+        if (entry == null) {
+            entry = new ConcurrentHashMap<>();
+            cells.put(cellKey, entry);
+        }
+        return entry;
+    }
+
+    private Map<String, T> find(long cellKey) {
+        int stripe = stripe(cellKey);
+        synchronized (locks[stripe]) {
+            return index.get(stripe).get(cellKey);
+        }
+    }
+
+    public T get(String id) {
+        return currentPosition.get(id);
+    }
+
+    public Map<String, T> getAll() {
+        return new HashMap<>(currentPosition);
+    }
+
+    public int size() {
+        return currentPosition.size();
+    }
+
+    public void add(T point) {
+        String id = point.getId();
+        long to = Cell.keyOf(point, resolution);
+
+        while (true) {
+            T previous = currentPosition.get(id);
+            long from = previous != null ? Cell.keyOf(previous, resolution) : to;
+            int first = stripe(from), second = stripe(to);
+
+            synchronized (locks[Math.min(first, second)]) {
+                synchronized (locks[Math.max(first, second)]) {
+                    if (previous == null ? currentPosition.putIfAbsent(id, point) != null
+                            : !currentPosition.replace(id, previous, point)) {
+                        continue;
+                    }
+
+                    Map<String, T> entry = cell(to);
+                    entry.put(id, point);
+                    if (from != to) {
+                        cell(from).remove(id);
+                    }
+                    if (timers != null) {
+                        TimingWheel<String> wheel = wheel(id);
+                        synchronized (wheel) {
+                            wheel.schedule(id, clock.millis() + expiration + 1);
+                        }
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    public void remove(String id) {
+        while (true) {
+            T previous = currentPosition.get(id);
+            if (previous == null) return;
+
+            long from = Cell.keyOf(previous, resolution);
+
+            synchronized (locks[stripe(from)]) {
+                if (currentPosition.remove(id, previous)) {
+                    cell(from).remove(id);
+                    if (timers != null) {
+                        TimingWheel<String> wheel = wheel(id);
+                        synchronized (wheel) {
+                            wheel.cancel(id);
+                        }
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private TimingWheel<String> wheel(String id) {
+        return timers.get((id.hashCode() & 0x7FFFFFFF) % WHEELS);
+    }
+
+    /**
+     * Drops the points whose expiration has elapsed.
+     *
+     * @return the number of points dropped
+     */
+    public int expire() {
+        if (timers == null) return 0;
+
+        long now = clock.millis();
+        List<String> expired = new ArrayList<>();
+        for (TimingWheel<String> wheel : timers) {
+            synchronized (wheel) {
+                wheel.advance(now, expired::add);
+            }
+        }
+
+        int count = 0;
+        for (String id : expired) {
+            if (removeExpired(id)) count++;
+        }
+        return count;
+    }
+
+    public ScheduledFuture<?> scheduleExpiration(ScheduledExecutorService executor, Duration period) {
+        long millis = period.toMillis();
+        return executor.scheduleAtFixedRate(this::expire, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    // an id re-added after its timer fired has a new timer and must survive
+    private boolean removeExpired(String id) {
+        while (true) {
+            T previous = currentPosition.get(id);
+            if (previous == null) return false;
+
+            long from = Cell.keyOf(previous, resolution);
+
+            synchronized (locks[stripe(from)]) {
+                if (currentPosition.get(id) != previous) continue;
+
+                TimingWheel<String> wheel = wheel(id);
+                synchronized (wheel) {
+                    if (wheel.isScheduled(id)) return false;
+                }
+
+                currentPosition.remove(id);
+                cell(from).remove(id);
+                return true;
+            }
+        }
+    }
+
+    public List<T> kNearest(IPoint point, int k, double maxDistance, Predicate<T> accept) {
+        NearestHeap<T> nearest = new NearestHeap<>(k);
+        RingSearch.search(ringCells, point, resolution, maxDistance, accept, nearest, null);
+
+        int n = nearest.sort();
+        int size = RingSearch.within(nearest, n, point, maxDistance);
+        List<T> nearbyPoints = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            nearbyPoints.add(nearest.item(i));
+        }
+        return nearbyPoints;
+    }
+
+    private void offer(NearestHeap<T> nearest, double lat, double lon, int minX, int maxX, int minY, int maxY,
+                       Predicate<T> accept, QueryStats stats) {
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                Map<String, T> entry = find(Cell.key(x, y));
+                if (entry == null) continue;
+
+                for (T candidate : entry.values()) {
+                    if (accept.test(candidate)) {
+                        nearest.offer(candidate, approximateSquareDistance(lat, lon, candidate.lat(), candidate.lon()));
+                    }
+                }
+            }
+        }
+    }
+
+    public List<T> range(IPoint topLeft, IPoint bottomRight) {
+        double minLat = bottomRight.lat(), maxLat = topLeft.lat();
+        double minLon = topLeft.lon(), maxLon = bottomRight.lon();
+        List<T> result = new ArrayList<>();
+
+        for (int x = Cell.x(minLat, resolution); x <= Cell.x(maxLat, resolution); x++) {
+            for (int y = Cell.y(minLon, resolution); y <= Cell.y(maxLon, resolution); y++) {
+                Map<String, T> entry = find(Cell.key(x, y));
+                if (entry == null) continue;
+
+                for (T point : entry.values()) {
+                    double lat = point.lat(), lon = point.lon();
+                    if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) {
+                        result.add(point);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    public double getResolution() {
+        return resolution;
+    }
+
+    int cellMembers() {
+        int count = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (locks[i]) {
+                CellMap<Map<String, T>> cells = index.get(i);
+                for (int slot = 0; slot < cells.capacity(); slot++) {
+                    Map<String, T> entry = cells.valueAt(slot);
+                    if (entry != null) count += entry.size();
+                }
+            }
+        }
+        return count;
+    }
+
+}
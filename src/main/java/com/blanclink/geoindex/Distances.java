@@ -0,0 +1,120 @@
+package com.blanclink.geoindex;
+
+import static java.lang.Math.*;
+
+final class Distances {
+
+    private static final double EARTH_RADIUS = 6371000;
+
+    // length of one degree of longitude, per tenth of a degree of latitude in [-90, 90]
+    private static final double[] lonDegreeDistance = new double[1801];
+
+    static {
+        for (int latIndex = -900; latIndex <= 900; latIndex++) {
+            double latRounded = latIndex / 10.0;
+            lonDegreeDistance[latIndex + 900] = distance(latRounded, 0.0, latRounded, 1.0);
+        }
+    }
+
+    private Distances() {
+    }
+
+    static double lonDegreeDistance(double lat) {
+        return lonDegreeDistance[(int) (lat * 10) + 900];
+    }
+
+    static double approximateSquareDistance(IPoint p1, IPoint p2) {
+        return approximateSquareDistance(p1.lat(), p1.lon(), p2.lat(), p2.lon());
+    }
+
+    static double approximateSquareDistance(double lat1, double lon1, double lat2, double lon2) {
+        double avgLat = (lat1 + lat2) / 2.0;
+        // the shorter way round, across the antimeridian if need be
+        double dLon = abs(lon1 - lon2);
+        if (dLon > 180.0) dLon = 360.0 - dLon;
+
+        double latLen = abs(lat1 - lat2) * Cell.LAT_DEGREE_LENGTH;
+        double lonLen = dLon * lonDegreeDistance(avgLat);
+
+        return latLen*latLen + lonLen*lonLen;
+    }
+
+    static double distance(IPoint p1, IPoint p2) {
+        return distance(p1.lat(), p1.lon(), p2.lat(), p2.lon());
+    }
+
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+
+        double dLat = toRadians(lat2 - lat1);
+        double dLng = toRadians(lon2 - lon1);
+        double sindLat = sin(dLat / 2);
+        double sindLng = sin(dLng / 2);
+        double a = pow(sindLat, 2) + pow(sindLng, 2) * cos(toRadians(lat1)) * cos(toRadians(lat2));
+        double c = 2 * atan2(sqrt(a), sqrt(1 - a));
+
+        return EARTH_RADIUS * c;
+    }
+
+    /**
+     * Whether the haversine distance between the two points may be at most {@code meters}: points further
+     * than twice that by {@link #approximateSquareDistance} are not, without evaluating the haversine.
+     */
+    static boolean mayBeWithin(double lat1, double lon1, double lat2, double lon2, double meters) {
+        return approximateSquareDistance(lat1, lon1, lat2, lon2) <= 4.0 * meters * meters;
+    }
+
+    /**
+     * Half-width in degrees of the longitudes of the points within {@code meters} of {@code lat, lon} whose
+     * latitude is in {@code minLat..maxLat}: 180 when they go all the way round, negative when there are none.
+     * The circle reaches furthest in longitude at the latitude whose sine is {@code sin(lat) / cos(r)},
+     * r being the radius as an angle, and less the further a latitude of the band is from that one.
+     */
+    static double lonHalfWidth(double lat, double meters, double minLat, double maxLat) {
+        double cosR = cos(meters / EARTH_RADIUS);
+        double sinLat = sin(toRadians(lat)), cosLat = cos(toRadians(lat));
+        if (cosR <= 0.0 || cosLat < 1e-12) return 180.0;
+
+        double widest = sinLat / cosR;
+        double peak = widest >= 1.0 ? 90.0 : widest <= -1.0 ? -90.0 : toDegrees(asin(widest));
+        double band = toRadians(max(minLat, min(peak, maxLat)));
+        if (cos(band) < 1e-12) return 180.0;
+
+        double cosLon = (cosR - sin(band) * sinLat) / (cos(band) * cosLat);
+        if (cosLon <= -1.0) return 180.0;
+        if (cosLon > 1.0) return -1.0;
+        return toDegrees(acos(cosLon));
+    }
+
+    /**
+     * Lower bound of the approximate square distance from {@code point} to any cell of ring {@code d},
+     * i.e. the distance to the nearest edge of the block of rings {@code 0..d-1} around cell {@code x, y}.
+     */
+    static double ringSquareDistance(IPoint point, int x, int y, int d, double resolution) {
+        double lat = point.lat();
+        double gridX = (lat + 90.0) * Cell.LAT_DEGREE_LENGTH;
+        double gridY = (point.lon() + 180.0) * Cell.LON_DEGREE_LENGTH;
+
+        double latLen = min(gridX - (x - d + 1) * resolution, (x + d) * resolution - gridX);
+        double lonLen = min(gridY - (y - d + 1) * resolution, (y + d) * resolution - gridY)
+                * lonDegreeDistance(lat) / Cell.LON_DEGREE_LENGTH;
+        double len = max(min(latLen, lonLen), 0.0);
+
+        return len * len;
+    }
+
+    /**
+     * Lower bound of the approximate square distance from {@code lat, lon} to any point of the bounding box.
+     */
+    static double boxSquareDistance(double lat, double lon, double minLat, double maxLat, double minLon, double maxLon) {
+        double dLat = max(max(minLat - lat, lat - maxLat), 0.0);
+        double dLon = max(max(minLon - lon, lon - maxLon), 0.0);
+        // the degree of longitude is shortest at the latitude furthest from the equator
+        double farthestLat = max(abs(lat), max(abs(minLat), abs(maxLat)));
+
+        double latLen = dLat * Cell.LAT_DEGREE_LENGTH;
+        double lonLen = dLon * lonDegreeDistance(min(farthestLat, 90.0));
+
+        return latLen*latLen + lonLen*lonLen;
+    }
+
+}
@@ -1,59 +1,56 @@
 package com.blanclink.geoindex;
 
+import java.time.Clock;
 import java.time.Duration;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public class ExpiringMap<K, V> extends HashMap<K, V> {
 
-    private final Queue<TimestampedValue> insertionOrder = new LinkedList<>();
-    private final Duration expiration; // minutes
+    private final TimingWheel<K> timers;
+    private final Clock clock;
+    private final long expiration;
+    private final Consumer<K> expireKey = this::expire;
     private BiConsumer<K, V> onExpire;
-    private final Map<K, Instant> lastInserted = new HashMap<>();
 
     public ExpiringMap(Duration expiration) {
-        this.expiration = expiration;
+        this(expiration, Clock.systemUTC());
     }
 
-    private boolean hasExpired(Instant instant) {
-        return instant.until(Instant.now(), ChronoUnit.MILLIS) > expiration.toMillis();
+    public ExpiringMap(Duration expiration, Clock clock) {
+        this.clock = clock;
+        this.expiration = expiration.toMillis();
+        this.timers = new TimingWheel<>(1, clock.millis());
     }
 
     private void expire() {
-        while (!insertionOrder.isEmpty()) {
-            TimestampedValue<K, V> lastInserted = insertionOrder.peek();
-
-            if (hasExpired(lastInserted.getTimestamp())) {
-                insertionOrder.remove();
+        timers.advance(clock.millis(), expireKey);
+    }
 
-                if (hasExpired(this.lastInserted.get(lastInserted.getId()))) {
-                    super.remove(lastInserted.getId());
+    private void expire(K key) {
+        V value = super.remove(key);
 
-                    if (onExpire != null) {
-                        onExpire.accept(lastInserted.getId(), lastInserted.getValue());
-                    }
-                }
-            } else {
-                break;
-            }
+        if (onExpire != null) {
+            onExpire.accept(key, value);
         }
     }
 
     @Override
     public V put(K key, V value) {
         expire();
-        Instant insertionTime = Instant.now();
-        lastInserted.put(key, insertionTime);
-        insertionOrder.add(new TimestampedValue<>(key, value, insertionTime));
+        // expired once strictly more than the expiration has elapsed
+        timers.schedule(key, clock.millis() + expiration + 1);
         return super.put(key, value);
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public V remove(Object key) {
         expire();
-        lastInserted.remove(key);
+        if (super.containsKey(key)) {
+            timers.cancel((K) key);
+        }
         return super.remove(key);
     }
 
@@ -78,4 +75,4 @@ public class ExpiringMap<K, V> extends HashMap<K, V> {
         this.onExpire = onExpire;
     }
 
-}
\ No newline at end of file
+}
@@ -1,9 +1,11 @@
 package com.blanclink.geoindex;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ObjLongConsumer;
 import java.util.function.Supplier;
 
 import static com.blanclink.geoindex.Cell.cellOf;
@@ -11,45 +13,142 @@ import static com.blanclink.geoindex.Cell.cellOf;
 public class GeoIndex<T> {
 
     private final double resolution;
-    private final Map<Cell, T> index;
+    private final CellMap<T> index;
     private final Supplier<T> newEntry;
+    private TreeMap<Long, T> ordered;
 
     public GeoIndex(double resolution, Map<Cell, T> index, Supplier<T> newEntry) {
-        this.resolution = resolution;
-        this.index = index;
-        this.newEntry = newEntry;
+        this(resolution, new CellMap<>(index.size()), newEntry);
+        index.forEach((cell, entry) -> this.index.put(cell.key(), entry));
     }
 
     public GeoIndex(double resolution, Supplier<T> newEntry) {
+        this(resolution, new CellMap<>(), newEntry);
+    }
+
+    private GeoIndex(double resolution, CellMap<T> index, Supplier<T> newEntry) {
         this.resolution = resolution;
-        this.index = new HashMap<>();
+        this.index = index;
         this.newEntry = newEntry;
     }
 
-    public GeoIndex clone() {
-        GeoIndex clone = new GeoIndex<>(this.resolution, this.index, this.newEntry);
-        clone.index.putAll(this.index);
+    /**
+     * Returns a copy with its own cells, which still hold the same entries.
+     */
+    public GeoIndex<T> clone() {
+        GeoIndex<T> clone = share();
+        if (ordered != null) clone.ordered = new TreeMap<>(ordered);
         return clone;
     }
 
+    /**
+     * Like {@link #clone()} in constant time, see {@link CellMap#share()}, but not sparse.
+     */
+    GeoIndex<T> share() {
+        return new GeoIndex<>(this.resolution, this.index.share(), this.newEntry);
+    }
+
+    /**
+     * Keeps occupied cells in Z-order as well, so that range scans over boxes much larger than the
+     * number of occupied cells only visit occupied cells instead of probing every cell of the box.
+     * Every cell counts as occupied until {@link #vacate} reports it empty.
+     */
+    public void setSparse(boolean sparse) {
+        if (!sparse) {
+            this.ordered = null;
+        } else if (this.ordered == null) {
+            this.ordered = new TreeMap<>();
+            for (int slot = 0; slot < index.capacity(); slot++) {
+                T entry = index.valueAt(slot);
+                if (entry != null) {
+                    long key = index.keyAt(slot);
+                    this.ordered.put(Morton.encode(Cell.xOf(key), Cell.yOf(key)), entry);
+                }
+            }
+        }
+    }
+
+    public boolean isSparse() {
+        return ordered != null;
+    }
+
+    /**
+     * Whether a range over these cells walks the occupied cells in Z-order rather than probing each cell.
+     */
+    boolean scansOrdered(int minX, int maxX, int minY, int maxY) {
+        return ordered != null && (long) (maxX - minX + 1) * (maxY - minY + 1) > ordered.size();
+    }
+
+    /**
+     * Drops the cell at {@code square}, whose entry holds nothing anymore, from the range scans of a
+     * sparse index until {@link #occupy} reports it filled again. The cell itself is kept.
+     */
+    void vacate(long square) {
+        if (this.ordered != null) {
+            this.ordered.remove(Morton.encode(Cell.xOf(square), Cell.yOf(square)));
+        }
+    }
+
+    void occupy(long square) {
+        T entry = this.index.get(square);
+        if (this.ordered != null && entry != null) {
+            this.ordered.put(Morton.encode(Cell.xOf(square), Cell.yOf(square)), entry);
+        }
+    }
+
     public T addEntryAt(IPoint point) {
-        Cell square = cellOf(point, this.resolution);
+        return addEntryAt(Cell.keyOf(point, this.resolution));
+    }
 
-        if (!this.index.containsKey(square)) {
-            T entry = this.newEntry.get();
+    public T addEntryAt(long square) {
+        T entry = this.index.get(square);
+
+        if (entry == null) {
+            entry = this.newEntry.get();
             this.index.put(square, entry);
-            return entry;
+            if (this.ordered != null) {
+                this.ordered.put(Morton.encode(Cell.xOf(square), Cell.yOf(square)), entry);
+            }
         }
 
-        return this.index.get(square);
+        return entry;
     }
 
     public T getEntryAt(IPoint point) {
-        Cell square = cellOf(point, this.resolution);
+        T entry = this.index.get(Cell.keyOf(point, this.resolution));
+
+        return entry != null ? entry : this.newEntry.get();
+    }
+
+    // a replaced entry stays out of the range scans if its cell was vacated
+    void setEntryAt(long square, T entry) {
+        T previous = this.index.put(square, entry);
+        if (this.ordered != null) {
+            long z = Morton.encode(Cell.xOf(square), Cell.yOf(square));
+            if (previous == null || this.ordered.containsKey(z)) this.ordered.put(z, entry);
+        }
+    }
+
+    /**
+     * Keys of the cells, in no particular order.
+     */
+    long[] keys() {
+        long[] keys = new long[index.size()];
+        for (int slot = 0, i = 0; slot < index.capacity(); slot++) {
+            if (index.valueAt(slot) != null) keys[i++] = index.keyAt(slot);
+        }
+        return keys;
+    }
 
-        return this.index.containsKey(square) ?
-                this.index.get(square) :
-                this.newEntry.get();
+    /**
+     * Number of cells, which are never removed once created.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    public T find(long cellKey) {
+        return this.index.get(cellKey);
     }
 
     public List<T> range(IPoint topLeft, IPoint bottomRight) {
@@ -60,13 +159,17 @@ public class GeoIndex<T> {
     }
 
     public List<T> get(int minX, int maxX, int minY, int maxY) {
+        if (scansOrdered(minX, maxX, minY, maxY)) {
+            return getOrdered(Math.max(minX, 0), maxX, Math.max(minY, 0), maxY);
+        }
+
         ArrayList<T> entries = new ArrayList<>();
 
         for (int x = minX; x <= maxX; x++) {
             for (int y = minY; y <= maxY; y++) {
-                Cell square = new Cell(x, y);
-                if (index.containsKey(square)) {
-                    entries.add(index.get(square));
+                T entry = index.get(Cell.key(x, y));
+                if (entry != null) {
+                    entries.add(entry);
                 }
             }
         }
@@ -74,16 +177,54 @@ public class GeoIndex<T> {
         return entries;
     }
 
-    private List<Cell> getCells(int minX, int maxX, int minY, int maxY) {
-        ArrayList<Cell> indices = new ArrayList<>();
+    /**
+     * Like {@link #get(int, int, int, int)}, keyed by cell.
+     */
+    public Map<Cell, T> getCells(int minX, int maxX, int minY, int maxY) {
+        Map<Cell, T> entries = new LinkedHashMap<>();
+
+        if (scansOrdered(minX, maxX, minY, maxY)) {
+            scanOrdered(Math.max(minX, 0), maxX, Math.max(minY, 0), maxY,
+                    (entry, key) -> entries.put(Cell.fromKey(key), entry));
+            return entries;
+        }
 
         for (int x = minX; x <= maxX; x++) {
-            for (int y = minY; y < maxY; y++) {
-                indices.add(new Cell(x, y));
+            for (int y = minY; y <= maxY; y++) {
+                T entry = index.get(Cell.key(x, y));
+                if (entry != null) {
+                    entries.put(new Cell(x, y), entry);
+                }
             }
         }
 
-        return indices;
+        return entries;
+    }
+
+    private List<T> getOrdered(int minX, int maxX, int minY, int maxY) {
+        ArrayList<T> entries = new ArrayList<>();
+        scanOrdered(minX, maxX, minY, maxY, (entry, key) -> entries.add(entry));
+        return entries;
+    }
+
+    private void scanOrdered(int minX, int maxX, int minY, int maxY, ObjLongConsumer<T> visitor) {
+        if (maxX < minX || maxY < minY) return;
+
+        long zMin = Morton.encode(minX, minY);
+        long zMax = Morton.encode(maxX, maxY);
+        Map.Entry<Long, T> cell = ordered.ceilingEntry(zMin);
+
+        while (cell != null && cell.getKey() <= zMax) {
+            long z = cell.getKey();
+            int x = Morton.x(z), y = Morton.y(z);
+
+            if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+                visitor.accept(cell.getValue(), Cell.key(x, y));
+                cell = ordered.higherEntry(z);
+            } else {
+                cell = ordered.ceilingEntry(Morton.nextInBox(z, zMin, zMax));
+            }
+        }
     }
 
     public double getResolution() {
@@ -91,7 +232,7 @@ public class GeoIndex<T> {
     }
 
     public Map<Cell, T> getIndex() {
-        return index;
+        return index.asMap();
     }
 
     public Supplier getNewEntry() {
@@ -0,0 +1,113 @@
+package com.blanclink.geoindex;
+
+import java.util.function.LongConsumer;
+
+import static com.blanclink.geoindex.Distances.distance;
+import static java.lang.Math.*;
+
+/**
+ * Rectangle or circle watched by a {@link GeofenceIndex}.
+ */
+public abstract class Geofence {
+
+    private final String id;
+
+    private Geofence(String id) {
+        this.id = id;
+    }
+
+    public static Geofence rectangle(String id, IPoint topLeft, IPoint bottomRight) {
+        return new Rectangle(id, bottomRight.lat(), topLeft.lat(), topLeft.lon(), bottomRight.lon());
+    }
+
+    /**
+     * Points within {@code meters} of {@code center}, as measured by {@link PointIndex#withinRadius}.
+     */
+    public static Geofence circle(String id, IPoint center, double meters) {
+        return new Circle(id, center.lat(), center.lon(), meters);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public abstract boolean contains(IPoint point);
+
+    /**
+     * Passes the key of every cell of width {@code resolution} that may hold a point of the fence.
+     */
+    abstract void forEachCell(double resolution, LongConsumer cell);
+
+    @Override
+    public String toString() {
+        return id;
+    }
+
+    private static final class Rectangle extends Geofence {
+        private final double minLat, maxLat, minLon, maxLon;
+
+        private Rectangle(String id, double minLat, double maxLat, double minLon, double maxLon) {
+            super(id);
+            this.minLat = minLat;
+            this.maxLat = maxLat;
+            this.minLon = minLon;
+            this.maxLon = maxLon;
+        }
+
+        @Override
+        public boolean contains(IPoint point) {
+            double lat = point.lat(), lon = point.lon();
+            return lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
+        }
+
+        @Override
+        void forEachCell(double resolution, LongConsumer cell) {
+            for (int x = Cell.x(minLat, resolution); x <= Cell.x(maxLat, resolution); x++) {
+                for (int y = Cell.y(minLon, resolution); y <= Cell.y(maxLon, resolution); y++) {
+                    cell.accept(Cell.key(x, y));
+                }
+            }
+        }
+    }
+
+    private static final class Circle extends Geofence {
+        private final double lat, lon, meters;
+
+        private Circle(String id, double lat, double lon, double meters) {
+            super(id);
+            this.lat = lat;
+            this.lon = lon;
+            this.meters = meters;
+        }
+
+        @Override
+        public boolean contains(IPoint point) {
+            return distance(lat, lon, point.lat(), point.lon()) <= meters;
+        }
+
+        // the cells of the bounding box whose nearest point is close enough, as in PointIndex.withinRadius
+        @Override
+        void forEachCell(double resolution, LongConsumer cell) {
+            double dLat = meters / Cell.LAT_DEGREE_LENGTH;
+            double farthestLat = min(abs(lat) + dLat, 90.0);
+            double lonDegree = distance(farthestLat, 0.0, farthestLat, 1.0);
+            double dLon = lonDegree > meters / 180.0 ? meters / lonDegree : 180.0;
+
+            for (int x = Cell.x(lat - dLat, resolution); x <= Cell.x(lat + dLat, resolution); x++) {
+                double minLat = x * resolution / Cell.LAT_DEGREE_LENGTH - 90.0;
+                double maxLat = (x + 1) * resolution / Cell.LAT_DEGREE_LENGTH - 90.0;
+
+                for (int y = Cell.y(lon - dLon, resolution); y <= Cell.y(lon + dLon, resolution); y++) {
+                    double minLon = y * resolution / Cell.LON_DEGREE_LENGTH - 180.0;
+                    double maxLon = (y + 1) * resolution / Cell.LON_DEGREE_LENGTH - 180.0;
+
+                    double nearLat = max(minLat, min(lat, maxLat)), nearLon = max(minLon, min(lon, maxLon));
+                    if (distance(lat, lon, nearLat, nearLon) <= meters + 1.0) {
+                        cell.accept(Cell.key(x, y));
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.blanclink.geoindex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Geofence subscriptions kept up to date as a {@link PointListener} of a {@link PointIndex}. Each fence is
+ * registered on the cells it covers, so a change only tests the fences of the point's former and new cells,
+ * and costs nothing when those cells have none.
+ * <p>
+ * Events follow the positions reported by the index: a fence subscribed while points are inside it is not
+ * told that they entered, but is told when they leave.
+ */
+public class GeofenceIndex<T extends IPoint> implements PointListener<T> {
+
+    private static final class Subscription<T extends IPoint> {
+        private final Geofence fence;
+        private final GeofenceListener<? super T> listener;
+
+        private Subscription(Geofence fence, GeofenceListener<? super T> listener) {
+            this.fence = fence;
+            this.listener = listener;
+        }
+    }
+
+    private final double resolution;
+    // lists are replaced rather than changed, so listeners may subscribe from a callback
+    private final CellMap<List<Subscription<T>>> cells = new CellMap<>();
+    private final Map<String, Subscription<T>> subscriptions = new HashMap<>();
+
+    /**
+     * @param resolution width of the cells fences are registered on, in meters; a few times smaller than
+     *                   typical fences keeps the fences tested per change close to those containing the point
+     */
+    public GeofenceIndex(double resolution) {
+        this.resolution = resolution;
+    }
+
+    /**
+     * Subscribes {@code listener} to {@code fence}, replacing the subscription of a fence with the same id.
+     */
+    public void subscribe(Geofence fence, GeofenceListener<? super T> listener) {
+        unsubscribe(fence.getId());
+
+        Subscription<T> subscription = new Subscription<>(fence, listener);
+        subscriptions.put(fence.getId(), subscription);
+        fence.forEachCell(resolution, key -> {
+            List<Subscription<T>> previous = cells.get(key);
+            List<Subscription<T>> next = new ArrayList<>(previous != null ? previous.size() + 1 : 1);
+            if (previous != null) next.addAll(previous);
+            next.add(subscription);
+            cells.put(key, next);
+        });
+    }
+
+    public boolean unsubscribe(String fenceId) {
+        Subscription<T> subscription = subscriptions.remove(fenceId);
+        if (subscription == null) return false;
+
+        subscription.fence.forEachCell(resolution, key -> {
+            List<Subscription<T>> previous = cells.get(key);
+            if (previous == null) return;
+
+            if (previous.size() == 1) {
+                cells.remove(key);
+            } else {
+                List<Subscription<T>> next = new ArrayList<>(previous);
+                next.remove(subscription);
+                cells.put(key, next);
+            }
+        });
+        return true;
+    }
+
+    public int size() {
+        return subscriptions.size();
+    }
+
+    /**
+     * The subscribed fences containing {@code point}.
+     */
+    public List<Geofence> containing(IPoint point) {
+        List<Subscription<T>> candidates = cells.get(Cell.keyOf(point, resolution));
+        if (candidates == null) return Collections.emptyList();
+
+        List<Geofence> fences = new ArrayList<>();
+        for (Subscription<T> subscription : candidates) {
+            if (subscription.fence.contains(point)) fences.add(subscription.fence);
+        }
+        return fences;
+    }
+
+    @Override
+    public void onAdd(T point) {
+        List<Subscription<T>> candidates = cells.get(Cell.keyOf(point, resolution));
+        if (candidates == null) return;
+
+        for (Subscription<T> subscription : candidates) {
+            if (subscription.fence.contains(point)) subscription.listener.onEnter(subscription.fence, point);
+        }
+    }
+
+    @Override
+    public void onRemove(T point) {
+        List<Subscription<T>> candidates = cells.get(Cell.keyOf(point, resolution));
+        if (candidates == null) return;
+
+        for (Subscription<T> subscription : candidates) {
+            if (subscription.fence.contains(point)) subscription.listener.onExit(subscription.fence, point);
+        }
+    }
+
+    @Override
+    public void onMove(T previous, T point) {
+        List<Subscription<T>> from = cells.get(Cell.keyOf(previous, resolution));
+        List<Subscription<T>> to = cells.get(Cell.keyOf(point, resolution));
+
+        // a fence holding either position is registered on its cell, so each list is tested once
+        if (from != null) {
+            for (Subscription<T> subscription : from) {
+                Geofence fence = subscription.fence;
+                if (fence.contains(previous) && !fence.contains(point)) subscription.listener.onExit(fence, previous);
+            }
+        }
+        if (to != null) {
+            for (Subscription<T> subscription : to) {
+                Geofence fence = subscription.fence;
+                if (fence.contains(point) && !fence.contains(previous)) subscription.listener.onEnter(fence, point);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,15 @@
+package com.blanclink.geoindex;
+
+/**
+ * Notified by a {@link GeofenceIndex} when a point enters or leaves a fence it subscribed to.
+ */
+public interface GeofenceListener<T extends IPoint> {
+
+    void onEnter(Geofence fence, T point);
+
+    /**
+     * Called with the last position of a point that moved out of the fence, or was removed or expired inside it.
+     */
+    void onExit(Geofence fence, T point);
+
+}
@@ -0,0 +1,259 @@
+package com.blanclink.geoindex;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.*;
+
+import static java.lang.Math.floorDiv;
+import static java.lang.Math.max;
+
+/**
+ * Every position added over the retention period, answering "what was in this box between two times"
+ * and "where was this id". Register it with {@link PointIndex#addListener} to record each
+ * {@code add} at the time of the clock, or call {@link #add(IPoint, long)} with explicit times.
+ * <p>
+ * Positions are appended to segments of {@code segmentWidth} of time, each a sparse {@link GeoIndex} whose
+ * cells hold their positions in parallel arrays in time order, plus the positions of each id in that
+ * segment. Segments ending more than {@code retention} ago are dropped whole, so at most
+ * {@code retention / segmentWidth + 1} segments are kept. A query only reads the segments overlapping its
+ * time window and, within a segment, starts each cell at the window's first position by binary search.
+ */
+public class HistoryIndex<T extends IPoint> implements PointListener<T> {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    // the positions of one cell of a segment, in time order
+    private static final class Samples {
+        private double[] lat = new double[INITIAL_CAPACITY];
+        private double[] lon = new double[INITIAL_CAPACITY];
+        private long[] time = new long[INITIAL_CAPACITY];
+        private Object[] points = new Object[INITIAL_CAPACITY];
+        private int size;
+        private int ordinal = -1;
+
+        private int append(IPoint point, long at) {
+            if (size == time.length) {
+                int capacity = size * 2;
+                lat = Arrays.copyOf(lat, capacity);
+                lon = Arrays.copyOf(lon, capacity);
+                time = Arrays.copyOf(time, capacity);
+                points = Arrays.copyOf(points, capacity);
+            }
+            lat[size] = point.lat();
+            lon[size] = point.lon();
+            time[size] = at;
+            points[size] = point;
+            return size++;
+        }
+
+        private int firstAtOrAfter(long from) {
+            int low = 0, high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (time[mid] < from) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+    }
+
+    // the positions of one id in a segment, as cell ordinal and slot packed in a long, in time order
+    private static final class Track {
+        private long[] positions = new long[INITIAL_CAPACITY];
+        private int size;
+
+        private void append(int ordinal, int slot) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = (long) ordinal << 32 | slot;
+        }
+    }
+
+    private static final class Segment {
+        private final long start;
+        private final long end;
+        private final GeoIndex<Samples> cells;
+        private final List<Samples> byOrdinal = new ArrayList<>();
+        private final Map<String, Track> tracks = new HashMap<>();
+        private int size;
+
+        private Segment(long start, long end, double resolution) {
+            this.start = start;
+            this.end = end;
+            this.cells = new GeoIndex<>(resolution, Samples::new);
+            this.cells.setSparse(true);
+        }
+
+        private void append(IPoint point, long time) {
+            Samples samples = cells.addEntryAt(point);
+            if (samples.ordinal < 0) {
+                samples.ordinal = byOrdinal.size();
+                byOrdinal.add(samples);
+            }
+
+            int slot = samples.append(point, time);
+            tracks.computeIfAbsent(point.getId(), id -> new Track()).append(samples.ordinal, slot);
+            size++;
+        }
+    }
+
+    private final double resolution;
+    private final long segmentWidth;
+    private final long retention;
+    private final Clock clock;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private long latest = Long.MIN_VALUE;
+
+    public HistoryIndex(double resolution, Duration segmentWidth, Duration retention) {
+        this(resolution, segmentWidth, retention, Clock.systemUTC());
+    }
+
+    public HistoryIndex(double resolution, Duration segmentWidth, Duration retention, Clock clock) {
+        if (segmentWidth.toMillis() <= 0) throw new IllegalArgumentException("segmentWidth must be at least 1 ms");
+        if (retention.isNegative()) throw new IllegalArgumentException("retention must not be negative");
+
+        this.resolution = resolution;
+        this.segmentWidth = segmentWidth.toMillis();
+        this.retention = retention.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * Records {@code point} at the time of the clock, or at the last recorded time if the clock went back.
+     */
+    @Override
+    public void onAdd(T point) {
+        add(point, max(clock.millis(), latest));
+    }
+
+    @Override
+    public void onMove(T previous, T point) {
+        onAdd(point);
+    }
+
+    // the history outlives the point
+    @Override
+    public void onRemove(T point) {
+    }
+
+    /**
+     * Records {@code point} at {@code time}, in milliseconds since the epoch. Times must not decrease.
+     */
+    public void add(T point, long time) {
+        if (time < latest) {
+            throw new IllegalArgumentException("time " + time + " is before the last recorded time " + latest);
+        }
+        evict();
+
+        Segment segment = segments.peekLast();
+        if (segment == null || time >= segment.end) {
+            long start = floorDiv(time, segmentWidth) * segmentWidth;
+            segment = new Segment(start, start + segmentWidth, resolution);
+            segments.addLast(segment);
+        }
+        segment.append(point, time);
+        latest = time;
+    }
+
+    /**
+     * Drops the segments that ended more than the retention ago. Every operation does this first.
+     *
+     * @return the number of segments dropped
+     */
+    public int evict() {
+        long cutoff = clock.millis() - retention;
+        int evicted = 0;
+        while (!segments.isEmpty() && segments.peekFirst().end <= cutoff) {
+            segments.pollFirst();
+            evicted++;
+        }
+        return evicted;
+    }
+
+    /**
+     * Returns the positions recorded inside the box between {@code fromTime} and {@code toTime} inclusive,
+     * in time order within each cell.
+     */
+    @SuppressWarnings("unchecked")
+    public List<TimedPoint<T>> range(IPoint topLeft, IPoint bottomRight, long fromTime, long toTime) {
+        evict();
+        double minLat = bottomRight.lat(), maxLat = topLeft.lat();
+        double minLon = topLeft.lon(), maxLon = bottomRight.lon();
+        int minX = Cell.x(minLat, resolution), maxX = Cell.x(maxLat, resolution);
+        int minY = Cell.y(minLon, resolution), maxY = Cell.y(maxLon, resolution);
+
+        List<TimedPoint<T>> result = new ArrayList<>();
+
+        for (Segment segment : segments) {
+            if (segment.start > toTime) break;
+            if (segment.end <= fromTime) continue;
+
+            for (Samples samples : segment.cells.get(minX, maxX, minY, maxY)) {
+                int i = fromTime > segment.start ? samples.firstAtOrAfter(fromTime) : 0;
+                for (; i < samples.size && samples.time[i] <= toTime; i++) {
+                    double lat = samples.lat[i], lon = samples.lon[i];
+                    if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) {
+                        result.add(new TimedPoint<>((T) samples.points[i], samples.time[i]));
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the positions of {@code id} recorded between {@code fromTime} and {@code toTime} inclusive,
+     * in time order.
+     */
+    @SuppressWarnings("unchecked")
+    public List<TimedPoint<T>> trajectory(String id, long fromTime, long toTime) {
+        evict();
+        List<TimedPoint<T>> result = new ArrayList<>();
+
+        for (Segment segment : segments) {
+            if (segment.start > toTime) break;
+            if (segment.end <= fromTime) continue;
+
+            Track track = segment.tracks.get(id);
+            if (track == null) continue;
+
+            for (int i = 0; i < track.size; i++) {
+                long position = track.positions[i];
+                Samples samples = segment.byOrdinal.get((int) (position >>> 32));
+                int slot = (int) position;
+
+                long time = samples.time[slot];
+                if (time > toTime) break;
+                if (time >= fromTime) {
+                    result.add(new TimedPoint<>((T) samples.points[slot], time));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * The number of positions retained.
+     */
+    public int size() {
+        evict();
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    public int getSegments() {
+        evict();
+        return segments.size();
+    }
+
+    public double getResolution() {
+        return resolution;
+    }
+
+}
@@ -8,4 +8,16 @@ public interface IPoint {
 
     Double getLon();
 
+    /**
+     * Primitive latitude, used by the indexes on every hot path. Implementations holding
+     * primitive coordinates should override it so that queries never box.
+     */
+    default double lat() {
+        return getLat();
+    }
+
+    default double lon() {
+        return getLon();
+    }
+
 }
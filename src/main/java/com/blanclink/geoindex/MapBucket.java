@@ -0,0 +1,92 @@
+package com.blanclink.geoindex;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static com.blanclink.geoindex.Distances.approximateSquareDistance;
+import static com.blanclink.geoindex.Distances.distance;
+import static com.blanclink.geoindex.Distances.mayBeWithin;
+
+class MapBucket<T extends IPoint> implements Bucket<T> {
+
+    private final Map<String, T> points;
+
+    MapBucket(int expectedSize) {
+        this.points = new HashMap<>(Math.max(expectedSize * 4 / 3 + 1, 16));
+    }
+
+    @Override
+    public Bucket<T> copy() {
+        MapBucket<T> copy = new MapBucket<>(points.size());
+        copy.points.putAll(points);
+        return copy;
+    }
+
+    @Override
+    public T get(String id) {
+        return points.get(id);
+    }
+
+    @Override
+    public T put(T point) {
+        return points.put(point.getId(), point);
+    }
+
+    @Override
+    public T remove(String id) {
+        return points.remove(id);
+    }
+
+    @Override
+    public int size() {
+        return points.size();
+    }
+
+    @Override
+    public void collect(double minLat, double maxLat, double minLon, double maxLon,
+                        Predicate<? super T> accept, Collection<? super T> result) {
+        for (T point : points.values()) {
+            double lat = point.lat(), lon = point.lon();
+            if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon && accept.test(point)) {
+                result.add(point);
+            }
+        }
+    }
+
+    @Override
+    public void visit(double minLat, double maxLat, double minLon, double maxLon, PointVisitor<? super T> visitor) {
+        for (T point : points.values()) {
+            double lat = point.lat(), lon = point.lon();
+            if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) {
+                visitor.visit(point);
+            }
+        }
+    }
+
+    @Override
+    public int collectWithin(double lat, double lon, double meters,
+                             Predicate<? super T> accept, Collection<? super T> result) {
+        int tests = 0;
+        for (T point : points.values()) {
+            double a = point.lat(), o = point.lon();
+            if (mayBeWithin(lat, lon, a, o, meters)) {
+                tests++;
+                if (distance(lat, lon, a, o) <= meters && accept.test(point)) result.add(point);
+            }
+        }
+        return tests;
+    }
+
+    @Override
+    public void offer(double lat, double lon, Predicate<? super T> accept, NearestHeap<T> nearest) {
+        for (T point : points.values()) {
+            double distance = approximateSquareDistance(lat, lon, point.lat(), point.lon());
+            if (distance < nearest.worst() && accept.test(point)) {
+                nearest.offer(point, distance);
+            }
+        }
+    }
+
+}
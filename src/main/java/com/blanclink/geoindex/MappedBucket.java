@@ -0,0 +1,150 @@
+package com.blanclink.geoindex;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.function.Predicate;
+
+import static com.blanclink.geoindex.Distances.approximateSquareDistance;
+import static com.blanclink.geoindex.Distances.distance;
+import static com.blanclink.geoindex.Distances.mayBeWithin;
+
+/**
+ * Cell of an opened {@link Snapshot}: scans the mapped columns in place until the first write,
+ * which copies the cell into a heap bucket of the index's storage. Points come from the
+ * {@link Snapshot.Points} shared by the cells of the snapshot, which creates each one the first
+ * time a read returns it.
+ */
+class MappedBucket<T extends IPoint> implements Bucket<T> {
+
+    private final Snapshot.Points<T> points;
+    private final Snapshot snapshot;
+    private final int first;
+    private final int count;
+    private final CellStorage storage;
+    private Bucket<T> copy;
+
+    MappedBucket(Snapshot.Points<T> points, int cell, CellStorage storage) {
+        this(points, points.snapshot().cellFirst(cell), points.snapshot().cellCount(cell), storage);
+    }
+
+    private MappedBucket(Snapshot.Points<T> points, int first, int count, CellStorage storage) {
+        this.points = points;
+        this.snapshot = points.snapshot();
+        this.first = first;
+        this.count = count;
+        this.storage = storage;
+    }
+
+    @Override
+    public Bucket<T> copy() {
+        MappedBucket<T> copy = new MappedBucket<>(points, first, count, storage);
+        if (this.copy != null) copy.copy = this.copy.copy();
+        return copy;
+    }
+
+    private Bucket<T> heap() {
+        if (copy == null) {
+            Bucket<T> heap = storage.newBucket(count);
+            for (int i = first; i < first + count; i++) {
+                heap.put(points.get(i));
+            }
+            copy = heap;
+        }
+        return copy;
+    }
+
+    @Override
+    public T get(String id) {
+        if (copy != null) return copy.get(id);
+
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        for (int i = first; i < first + count; i++) {
+            if (snapshot.idEquals(i, bytes)) return points.get(i);
+        }
+        return null;
+    }
+
+    @Override
+    public T put(T point) {
+        return heap().put(point);
+    }
+
+    @Override
+    public T remove(String id) {
+        return heap().remove(id);
+    }
+
+    @Override
+    public int size() {
+        return copy != null ? copy.size() : count;
+    }
+
+    @Override
+    public void collect(double minLat, double maxLat, double minLon, double maxLon,
+                        Predicate<? super T> accept, Collection<? super T> result) {
+        if (copy != null) {
+            copy.collect(minLat, maxLat, minLon, maxLon, accept, result);
+            return;
+        }
+
+        for (int i = first; i < first + count; i++) {
+            double lat = snapshot.lat(i), lon = snapshot.lon(i);
+            if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) {
+                T point = points.get(i);
+                if (accept.test(point)) result.add(point);
+            }
+        }
+    }
+
+    @Override
+    public void visit(double minLat, double maxLat, double minLon, double maxLon, PointVisitor<? super T> visitor) {
+        if (copy != null) {
+            copy.visit(minLat, maxLat, minLon, maxLon, visitor);
+            return;
+        }
+
+        // coordinates are read from the mapped file, points are created as they first qualify
+        for (int i = first; i < first + count; i++) {
+            double lat = snapshot.lat(i), lon = snapshot.lon(i);
+            if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) {
+                visitor.visit(points.get(i));
+            }
+        }
+    }
+
+    @Override
+    public int collectWithin(double lat, double lon, double meters,
+                             Predicate<? super T> accept, Collection<? super T> result) {
+        if (copy != null) return copy.collectWithin(lat, lon, meters, accept, result);
+
+        int tests = 0;
+        for (int i = first; i < first + count; i++) {
+            double a = snapshot.lat(i), o = snapshot.lon(i);
+            if (mayBeWithin(lat, lon, a, o, meters)) {
+                tests++;
+                if (distance(lat, lon, a, o) <= meters) {
+                    T point = points.get(i);
+                    if (accept.test(point)) result.add(point);
+                }
+            }
+        }
+        return tests;
+    }
+
+    @Override
+    public void offer(double lat, double lon, Predicate<? super T> accept, NearestHeap<T> nearest) {
+        if (copy != null) {
+            copy.offer(lat, lon, accept, nearest);
+            return;
+        }
+
+        for (int i = first; i < first + count; i++) {
+            double distance = approximateSquareDistance(lat, lon, snapshot.lat(i), snapshot.lon(i));
+            if (distance < nearest.worst()) {
+                T point = points.get(i);
+                if (accept.test(point)) nearest.offer(point, distance);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.blanclink.geoindex;
+
+/**
+ * Receives the metrics of a {@link PointIndex}, see {@link PointIndex#setMetrics}. Called on the thread
+ * of the operation, which it delays.
+ */
+public interface MetricsListener {
+
+    void onOperation(QueryStats stats);
+
+    /**
+     * Called after every expiry sweep, which dropped {@code points} points.
+     */
+    default void onExpire(int points, long nanos) {
+    }
+
+    /**
+     * Called when a query looks up its result in the {@link QueryCache}.
+     */
+    default void onCacheLookup(boolean hit) {
+    }
+
+    /**
+     * Called with the {@link PointIndex#getOccupancy() occupancy} of the cells when the listener is set and
+     * when the index switches to new cells; later writes report their changes through {@link #onCellResize}.
+     */
+    default void onOccupancy(long[] occupancy) {
+    }
+
+    /**
+     * Called when a write changes the number of points in a cell from {@code before}, -1 for a cell it
+     * creates, to {@code after}.
+     */
+    default void onCellResize(int before, int after) {
+    }
+
+}
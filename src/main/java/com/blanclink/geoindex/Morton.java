@@ -0,0 +1,74 @@
+package com.blanclink.geoindex;
+
+/**
+ * Z-order (Morton) codes of non-negative cell coordinates: {@code y} on the even bits and
+ * {@code x} on the odd bits, so codes of cells with {@code x, y >= 0} are non-negative longs.
+ */
+final class Morton {
+
+    private static final long EVEN_BITS = 0x5555555555555555L;
+    private static final long ODD_BITS = 0xAAAAAAAAAAAAAAAAL;
+
+    private Morton() {
+    }
+
+    static long encode(int x, int y) {
+        return (spread(x) << 1) | spread(y);
+    }
+
+    static int x(long z) {
+        return compact(z >>> 1);
+    }
+
+    static int y(long z) {
+        return compact(z);
+    }
+
+    private static long spread(int value) {
+        long v = value & 0xFFFFFFFFL;
+        v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & EVEN_BITS;
+        return v;
+    }
+
+    private static int compact(long v) {
+        v &= EVEN_BITS;
+        v = (v | (v >>> 1)) & 0x3333333333333333L;
+        v = (v | (v >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v >>> 4)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v >>> 8)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v >>> 16)) & 0x00000000FFFFFFFFL;
+        return (int) v;
+    }
+
+    /**
+     * Smallest code greater than {@code z} that lies inside the box spanned by {@code zMin} and
+     * {@code zMax} (Tropf and Herzog's BIGMIN), for a {@code z} between them but outside the box.
+     */
+    static long nextInBox(long z, long zMin, long zMax) {
+        long bigMin = zMax;
+
+        for (int bit = 63; bit >= 0; bit--) {
+            long mask = 1L << bit;
+            long below = ((bit & 1) == 0 ? EVEN_BITS : ODD_BITS) & (mask - 1);
+            boolean zBit = (z & mask) != 0, minBit = (zMin & mask) != 0, maxBit = (zMax & mask) != 0;
+
+            if (!zBit && !minBit && maxBit) {
+                bigMin = (zMin & ~below) | mask;
+                zMax = (zMax | below) & ~mask;
+            } else if (!zBit && minBit && maxBit) {
+                return zMin;
+            } else if (zBit && !minBit && !maxBit) {
+                return bigMin;
+            } else if (zBit && !minBit && maxBit) {
+                zMin = (zMin & ~below) | mask;
+            }
+        }
+
+        return bigMin;
+    }
+
+}
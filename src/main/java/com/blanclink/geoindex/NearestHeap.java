@@ -0,0 +1,135 @@
+package com.blanclink.geoindex;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded max-heap keeping the {@code k} smallest keys offered to it. The worst
+ * retained key sits at the root so a candidate is rejected with a single comparison.
+ */
+class NearestHeap<T> {
+
+    private Object[] items;
+    private double[] keys;
+    private int capacity;
+    private int size;
+
+    NearestHeap(int capacity) {
+        this.items = new Object[initialLength(capacity)];
+        this.keys = new double[initialLength(capacity)];
+        this.capacity = capacity;
+    }
+
+    private static int initialLength(int capacity) {
+        return Math.min(Math.max(capacity, 1), 1024);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public double worst() {
+        return isFull() ? keys[0] : Double.POSITIVE_INFINITY;
+    }
+
+    public void offer(T item, double key) {
+        if (size < capacity) {
+            if (size == items.length) {
+                grow();
+            }
+            siftUp(size++, item, key);
+        } else if (key < keys[0]) {
+            siftDown(0, item, key);
+        }
+    }
+
+    /**
+     * Empties the heap into {@code result} in ascending key order.
+     */
+    public void drainTo(List<T> result) {
+        int n = sort();
+        for (int i = 0; i < n; i++) {
+            result.add(item(i));
+        }
+        clear(0, n);
+    }
+
+    /**
+     * Empties the heap, leaving its items in ascending key order at {@link #item} {@code 0..n-1}.
+     *
+     * @return n, the former size
+     */
+    int sort() {
+        int n = size;
+        while (size > 0) {
+            Object top = items[0];
+            double topKey = keys[0];
+            size--;
+            siftDown(0, items[size], keys[size]);
+            items[size] = top;
+            keys[size] = topKey;
+        }
+        return n;
+    }
+
+    @SuppressWarnings("unchecked")
+    T item(int i) {
+        return (T) items[i];
+    }
+
+    /**
+     * Releases the items left by {@link #sort} in {@code from..to-1}.
+     */
+    void clear(int from, int to) {
+        Arrays.fill(items, from, to, null);
+    }
+
+    /**
+     * Empties the heap to keep the {@code capacity} smallest keys from now on, reusing its arrays.
+     */
+    void reset(int capacity) {
+        Arrays.fill(items, 0, size, null);
+        this.size = 0;
+        this.capacity = capacity;
+        // a full heap of capacity 0 compares against keys[0], which must reject every key
+        this.keys[0] = 0.0;
+    }
+
+    private void grow() {
+        int length = Math.min(items.length * 2, capacity);
+        items = Arrays.copyOf(items, length);
+        keys = Arrays.copyOf(keys, length);
+    }
+
+    private void siftUp(int i, Object item, double key) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] >= key) break;
+            items[i] = items[parent];
+            keys[i] = keys[parent];
+            i = parent;
+        }
+        items[i] = item;
+        keys[i] = key;
+    }
+
+    private void siftDown(int i, Object item, double key) {
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && keys[right] > keys[child]) child = right;
+            if (key >= keys[child]) break;
+            items[i] = items[child];
+            keys[i] = keys[child];
+            i = child;
+        }
+        items[i] = item;
+        keys[i] = key;
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.blanclink.geoindex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static com.blanclink.geoindex.Distances.*;
+import static java.lang.Math.max;
+
+/**
+ * Points in increasing approximate distance from a center, found ring of cells by ring as they are
+ * consumed, as {@link PointIndex#kNearest} would return them. A candidate is released once the next
+ * ring cannot hold a nearer point.
+ */
+class NearestSpliterator<T extends IPoint> extends Spliterators.AbstractSpliterator<T> {
+
+    private static final class Candidate<T> {
+        private final T point;
+        private final double distance;
+
+        private Candidate(T point, double distance) {
+            this.point = point;
+            this.distance = distance;
+        }
+    }
+
+    private final GeoIndex<Bucket<T>> index;
+    private final IPoint center;
+    private final double maxDistance;
+    private final Predicate<? super T> accept;
+    private final int x, y;
+    private final int lastRing;
+    private final PriorityQueue<Candidate<T>> candidates =
+            new PriorityQueue<>((a, b) -> Double.compare(a.distance, b.distance));
+    private final List<T> ring = new ArrayList<>();
+    private int nextRing;
+
+    NearestSpliterator(GeoIndex<Bucket<T>> index, IPoint center, double maxDistance, Predicate<? super T> accept) {
+        super(Long.MAX_VALUE, NONNULL | ORDERED);
+        this.index = index;
+        this.center = center;
+        this.maxDistance = maxDistance;
+        this.accept = accept;
+
+        double resolution = index.getResolution();
+        this.x = Cell.x(center.lat(), resolution);
+        this.y = Cell.y(center.lon(), resolution);
+        // the same coarse cut-off as kNearest
+        this.lastRing = (int) (max(maxDistance * 2.0, resolution * 2.0 + 0.01) / resolution);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (true) {
+            Candidate<T> nearest = candidates.peek();
+            double bound = nextRing <= lastRing
+                    ? ringSquareDistance(center, x, y, nextRing, index.getResolution())
+                    : Double.POSITIVE_INFINITY;
+
+            if (nearest != null && nearest.distance <= bound) {
+                candidates.poll();
+                if (distance(center, nearest.point) > maxDistance) {
+                    // as in kNearest, the first point past the exact limit ends the results
+                    candidates.clear();
+                    nextRing = lastRing + 1;
+                    return false;
+                }
+                action.accept(nearest.point);
+                return true;
+            }
+
+            if (nextRing > lastRing) return false;
+            load(nextRing++);
+        }
+    }
+
+    private void load(int d) {
+        if (d == 0) {
+            add(index.get(x, x, y, y));
+        } else {
+            add(index.get(x - d, x + d, y + d, y + d));
+            add(index.get(x - d, x + d, y - d, y - d));
+            add(index.get(x - d, x - d, y - d + 1, y + d - 1));
+            add(index.get(x + d, x + d, y - d + 1, y + d - 1));
+        }
+
+        double lat = center.lat(), lon = center.lon();
+        for (T point : ring) {
+            candidates.add(new Candidate<>(point, approximateSquareDistance(lat, lon, point.lat(), point.lon())));
+        }
+        ring.clear();
+    }
+
+    private void add(List<Bucket<T>> entries) {
+        for (Bucket<T> entry : entries) {
+            entry.collect(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                    Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, accept, ring);
+        }
+    }
+
+}
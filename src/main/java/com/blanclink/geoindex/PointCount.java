@@ -0,0 +1,31 @@
+package com.blanclink.geoindex;
+
+public class PointCount<T extends IPoint> implements Aggregate<T, PointCount<T>> {
+
+    private int count;
+
+    @Override
+    public void add(T point) {
+        count++;
+    }
+
+    @Override
+    public void remove(T point) {
+        count--;
+    }
+
+    @Override
+    public void merge(PointCount<T> other) {
+        count += other.count;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "PointCount{" + count + "}";
+    }
+
+}
@@ -0,0 +1,12 @@
+package com.blanclink.geoindex;
+
+/**
+ * Creates the points of an index opened from a snapshot, which keeps only their ids and coordinates,
+ * see {@link PointIndex#openSnapshot(java.nio.file.Path, PointFactory)}.
+ */
+@FunctionalInterface
+public interface PointFactory<T extends IPoint> {
+
+    T create(String id, double lat, double lon);
+
+}
@@ -1,47 +1,425 @@
 package com.blanclink.geoindex;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import static com.blanclink.geoindex.Distances.*;
 import static java.lang.Math.*;
 
 public class PointIndex<T extends IPoint> {
 
-    private static final double EARTH_RADIUS = 6371000;
-    private final GeoIndex<Map<String, T>> index;
+    // batches smaller than this are added point by point
+    private static final int PARALLEL_BATCH = 4096;
+    // relative error allowed to the equirectangular bounds of withinRadius before a cell counts as crossing the circle
+    static final double RADIUS_MARGIN = 0.01;
+
+    private static final class Migration<T extends IPoint> {
+        private final CompletableFuture<GeoIndex<Bucket<T>>> built;
+        private final CompletableFuture<Void> switched = new CompletableFuture<>();
+        // position at the start of the migration of each id changed since, null if it was absent
+        private final Map<String, T> changed = new HashMap<>();
+
+        private Migration(CompletableFuture<GeoIndex<Bucket<T>>> built) {
+            this.built = built;
+        }
+    }
+
+    private GeoIndex<Bucket<T>> index;
+    private final CellStorage storage;
     private final Map<String, T> currentPosition;
-    private static final Map<Integer, Double> lonDegreeDistance = new HashMap<>();
+    private final TimingWheel<String> timers;
+    // positions of an opened snapshot, whose unchanged ids expire without timers; null otherwise
+    private Snapshot.Positions<T> mapped;
+    private final Clock clock;
+    private final long expiration;
+    private final Consumer<String> expireId = this::expired;
+    private final RingSearch.Cells<T> ringCells = this::offer;
+    private final List<PointListener<? super T>> listeners = new ArrayList<>();
+    private final boolean readOnly;
+    // buckets that no snapshot or clone reads, which can be written in place; null while all can
+    private Set<Bucket<T>> owned;
+    private final QueryStats stats = new QueryStats();
+    private MetricsListener metrics;
+    private QueryCache<T> cache;
+    // rings of cells searched by the latest kNearest
+    private int searchedRings;
+    private Migration<T> migration;
+    // cells holding at least one point; the index keeps the cells that empty out
+    private int occupiedCells;
 
-    private PointIndex(GeoIndex<Map<String, T>> index, Map<String, T> currentPosition) {
+    private PointIndex(GeoIndex<Bucket<T>> index, CellStorage storage, Map<String, T> currentPosition,
+                       TimingWheel<String> timers, Clock clock, long expiration, boolean readOnly) {
         this.currentPosition = currentPosition;
         this.index = index;
+        this.storage = storage;
+        this.timers = timers;
+        this.clock = clock;
+        this.expiration = expiration;
+        this.readOnly = readOnly;
     }
 
     public PointIndex(double resolution) {
+        this(resolution, CellStorage.MAP);
+    }
+
+    public PointIndex(double resolution, CellStorage storage) {
         this.currentPosition = new HashMap<>();
-        this.index = new GeoIndex<>(resolution, HashMap::new);
+        this.index = new GeoIndex<>(resolution, storage::newBucket);
+        this.storage = storage;
+        this.timers = null;
+        this.clock = null;
+        this.expiration = 0;
+        this.readOnly = false;
     }
 
     public PointIndex(double resolution, Duration expiration) {
+        this(resolution, expiration, Clock.systemUTC());
+    }
+
+    public PointIndex(double resolution, Duration expiration, Clock clock) {
+        this(resolution, expiration, clock, CellStorage.MAP);
+    }
+
+    public PointIndex(double resolution, Duration expiration, Clock clock, CellStorage storage) {
         this.currentPosition = new HashMap<>();
-        this.index = new GeoIndex<>(resolution, () -> {
-            ExpiringMap<String, T> eMap = new ExpiringMap<>(expiration);
-            eMap.setOnExpire((s, p) -> currentPosition.remove(p.getId()));
-            return eMap;
-        });
+        this.index = new GeoIndex<>(resolution, storage::newBucket);
+        this.storage = storage;
+        this.timers = new TimingWheel<>(1, clock.millis());
+        this.clock = clock;
+        this.expiration = expiration.toMillis();
+        this.readOnly = false;
     }
 
-    public PointIndex clone() {
-        PointIndex<T> clone = new PointIndex<>(this.index, this.currentPosition);
-        clone.currentPosition.putAll(this.currentPosition);
+    /**
+     * Returns an independent copy of the points and their expiration deadlines, without the listeners.
+     * Both indexes keep sharing each cell until either writes it, as for {@link #snapshot()}.
+     */
+    public PointIndex<T> clone() {
+        expire();
+        TimingWheel<String> timers = null;
+        if (this.timers != null) {
+            timers = new TimingWheel<>(1, clock.millis());
+            for (String id : currentPosition.keySet()) {
+                timers.schedule(id, deadline(id));
+            }
+        }
+
+        PointIndex<T> clone = new PointIndex<>(index.clone(), storage, new HashMap<>(currentPosition),
+                timers, clock, expiration, readOnly);
+        clone.occupiedCells = occupiedCells;
+        this.owned = newOwnedSet();
+        clone.owned = newOwnedSet();
         return clone;
     }
 
+    /**
+     * Returns a read-only view of the points as they are now, in constant time, which can be queried
+     * from other threads while this index keeps changing. The view shares the cells of this index,
+     * which copies a cell before writing it for the first time after the snapshot, and its table of
+     * cells once. The view never expires points, and looking up an id first indexes its ids.
+     */
+    public PointIndex<T> snapshot() {
+        expire();
+        GeoIndex<Bucket<T>> cells = index.share();
+        PointIndex<T> view = new PointIndex<>(cells, storage,
+                new FrozenPositions<>(cells, currentPosition.size()), null, null, 0, true);
+        view.occupiedCells = occupiedCells;
+        this.owned = newOwnedSet();
+        return view;
+    }
+
+    private static <T extends IPoint> Set<Bucket<T>> newOwnedSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    private void checkWritable() {
+        if (readOnly) throw new UnsupportedOperationException("read-only snapshot");
+    }
+
+    // the bucket of a cell, created or copied if need be so that it can be written in place
+    private Bucket<T> writable(long key) {
+        if (cache != null) cache.touch(key);
+        Bucket<T> entry = index.find(key);
+        if (entry == null) {
+            if (metrics != null) metrics.onCellResize(-1, 0);
+            return own(key, storage.newBucket());
+        }
+        return owned == null || owned.contains(entry) ? entry : own(key, entry.copy());
+    }
+
+    private Bucket<T> own(long key, Bucket<T> entry) {
+        index.setEntryAt(key, entry);
+        if (owned != null) owned.add(entry);
+        return entry;
+    }
+
+    private void putAt(long key, T point) {
+        Bucket<T> entry = writable(key);
+        int size = entry.size();
+        if (size == 0) {
+            occupiedCells++;
+            index.occupy(key);
+        }
+        entry.put(point);
+        if (metrics != null) metrics.onCellResize(size, entry.size());
+    }
+
+    private void removeAt(long key, String id) {
+        Bucket<T> entry = writable(key);
+        if (entry.remove(id) == null) return;
+
+        int size = entry.size();
+        if (size == 0) {
+            occupiedCells--;
+            index.vacate(key);
+        }
+        if (metrics != null) metrics.onCellResize(size + 1, size);
+    }
+
+    private static int occupiedCells(GeoIndex<? extends Bucket<?>> index) {
+        int occupied = 0;
+        for (long key : index.keys()) {
+            if (index.find(key).size() > 0) occupied++;
+        }
+        return occupied;
+    }
+
+    /**
+     * Registers {@code listener} to be notified of every later change, after first
+     * notifying it of the points currently indexed through {@link PointListener#onAdd}.
+     */
+    public void addListener(PointListener<? super T> listener) {
+        checkWritable();
+        expire();
+        currentPosition.values().forEach(listener::onAdd);
+        listeners.add(listener);
+    }
+
+    public void removeListener(PointListener<? super T> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * See {@link GeoIndex#setSparse(boolean)}; worth enabling when range boxes span many empty cells.
+     */
+    public void setSparse(boolean sparse) {
+        index.setSparse(sparse);
+        if (sparse) {
+            for (long key : index.keys()) {
+                if (index.find(key).size() == 0) index.vacate(key);
+            }
+        }
+    }
+
+    /**
+     * Drops the points whose expiration has elapsed, after switching to the cells of a finished
+     * {@link #migrate}. Every operation does this first, so calling it directly is only needed to release
+     * memory or finish a migration while the index is otherwise idle.
+     *
+     * @return the number of points dropped
+     */
+    public int expire() {
+        if (migration != null && migration.built.isDone()) switchOver();
+        if (timers == null) return 0;
+        if (metrics == null) return sweep(clock.millis());
+
+        long start = System.nanoTime();
+        int expired = sweep(clock.millis());
+        metrics.onExpire(expired, System.nanoTime() - start);
+        return expired;
+    }
+
+    private int sweep(long now) {
+        int expired = timers.advance(now, expireId);
+        if (mapped != null) expired += mapped.expire(now, expireId);
+        return expired;
+    }
+
+    // the deadline of an id that is present
+    private long deadline(String id) {
+        if (mapped != null && !timers.isScheduled(id)) return mapped.deadline(id);
+        return timers.deadline(id);
+    }
+
+    public double getResolution() {
+        return index.getResolution();
+    }
+
+    /**
+     * Rebuilds the cells at {@code resolution} on {@code executor} while this index keeps serving reads
+     * and writes at the current one. The new cells are filled from a {@link #snapshot()} and the ids changed
+     * meanwhile are recorded; the first operation after the build, or {@link #expire()}, moves those ids to
+     * their current position in the new cells and switches to them, dropping the cached results. The
+     * returned future completes at the switch, so the thread using the index must not wait for it.
+     */
+    public CompletableFuture<Void> migrate(double resolution, Executor executor) {
+        checkWritable();
+        if (migration != null) throw new IllegalStateException("a migration is already running");
+
+        PointIndex<T> view = snapshot();
+        boolean sparse = index.isSparse();
+        migration = new Migration<>(CompletableFuture.supplyAsync(() -> {
+            GeoIndex<Bucket<T>> cells = new GeoIndex<>(resolution, storage::newBucket);
+            cells.setSparse(sparse);
+            view.stream().forEach(point -> cells.addEntryAt(Cell.keyOf(point, resolution)).put(point));
+            return cells;
+        }, executor));
+        return migration.switched;
+    }
+
+    private void switchOver() {
+        Migration<T> migration = this.migration;
+        this.migration = null;
+
+        GeoIndex<Bucket<T>> cells;
+        try {
+            cells = migration.built.join();
+        } catch (CompletionException e) {
+            migration.switched.completeExceptionally(e.getCause());
+            return;
+        }
+
+        double resolution = cells.getResolution();
+        for (Map.Entry<String, T> change : migration.changed.entrySet()) {
+            T before = change.getValue(), now = currentPosition.get(change.getKey());
+            if (before != null) {
+                long key = Cell.keyOf(before, resolution);
+                Bucket<T> entry = cells.find(key);
+                entry.remove(change.getKey());
+                if (entry.size() == 0) cells.vacate(key);
+            }
+            if (now != null) {
+                long key = Cell.keyOf(now, resolution);
+                Bucket<T> entry = cells.addEntryAt(key);
+                if (entry.size() == 0) cells.occupy(key);
+                entry.put(now);
+            }
+        }
+
+        index = cells;
+        occupiedCells = occupiedCells(cells);
+        if (metrics != null) metrics.onOccupancy(occupancy());
+        owned = null;
+        if (cache != null) cache.clear();
+        migration.switched.complete(null);
+    }
+
+    private void changed(String id, T before) {
+        if (!migration.changed.containsKey(id)) {
+            migration.changed.put(id, before);
+        }
+    }
+
+    /**
+     * Suggests the resolution at which each point would share its cell with {@code pointsPerCell} others
+     * on average, from the current occupancy: the points sharing a point's cell estimate the local density,
+     * and a cell holds a number of points proportional to its area. Returns twice the current resolution
+     * if no cell holds two points.
+     */
+    public double suggestResolution(double pointsPerCell) {
+        expire();
+        long points = 0, pairs = 0;
+        for (long key : index.keys()) {
+            long size = index.find(key).size();
+            points += size;
+            pairs += size * (size - 1);
+        }
+
+        double resolution = index.getResolution();
+        if (points == 0) return resolution;
+        if (pairs == 0) return resolution * 2.0;
+        return resolution * sqrt(pointsPerCell * points / pairs);
+    }
+
+    /**
+     * Reports every {@code add}, {@code remove}, {@code range}, {@code withinRadius} and {@code kNearest}
+     * to {@code metrics}, along with expiry sweeps, cache lookups and the changes to {@link #getOccupancy()},
+     * or stops reporting if it is {@code null}. Without metrics, the cost is a null check per operation and
+     * per cell visited.
+     */
+    public void setMetrics(MetricsListener metrics) {
+        this.metrics = metrics;
+        if (metrics != null) metrics.onOccupancy(occupancy());
+    }
+
+    public MetricsListener getMetrics() {
+        return metrics;
+    }
+
+    private QueryStats start(QueryStats.Operation operation) {
+        return metrics != null ? stats.start(operation) : null;
+    }
+
+    private void finish(QueryStats stats) {
+        if (stats != null) {
+            stats.finish(occupiedCells, currentPosition.size());
+            metrics.onOperation(stats);
+        }
+    }
+
+    /**
+     * Caches up to {@code entries} results of {@link #range(IPoint, IPoint)} and
+     * {@link #kNearest(IPoint, int, double, Predicate)}, or none if {@code entries} is 0. A result is served
+     * again until a point is added to, removed from or expires in one of the cells the query read; see
+     * {@link QueryCache}. Callers receive their own copy of the result.
+     * <p>
+     * A {@code range} is keyed by the block of cells its box covers: the cache keeps the points of those
+     * cells and filters them by each box, so boxes drifting within the same cells share an entry. A
+     * {@code kNearest} is keyed by its exact center, {@code k}, {@code maxDistance} and {@code accept}
+     * instance, so only repeats of the same query hit.
+     */
+    public void setCacheSize(int entries) {
+        this.cache = entries > 0 ? new QueryCache<>(entries) : null;
+    }
+
+    /**
+     * The cache and its statistics, or {@code null} if results are not cached.
+     */
+    public QueryCache<T> getCache() {
+        return cache;
+    }
+
+    /**
+     * Number of cells by the number of points they hold: element 0 counts the empty cells and element
+     * {@code i > 0} the cells holding from {@code 2^(i-1)} to {@code 2^i - 1} points.
+     */
+    public long[] getOccupancy() {
+        expire();
+        return occupancy();
+    }
+
+    private long[] occupancy() {
+        long[] occupancy = new long[33];
+        int last = 0;
+        for (long key : index.keys()) {
+            int i = 32 - Integer.numberOfLeadingZeros(index.find(key).size());
+            occupancy[i]++;
+            last = Math.max(last, i);
+        }
+        return Arrays.copyOf(occupancy, last + 1);
+    }
+
     public T get(String id) {
-        if(currentPosition.containsKey(id)) {
-            Map<String, T> entry = index.getEntryAt(currentPosition.get(id));
-            if(entry.containsKey(id)) {
+        expire();
+        T point = currentPosition.get(id);
+        if (point != null) {
+            Bucket<T> entry = index.find(Cell.keyOf(point, index.getResolution()));
+            if (entry != null) {
                 return entry.get(id);
             }
         }
@@ -49,6 +427,7 @@ public class PointIndex<T extends IPoint> {
     }
 
     public Map<String, T> getAll() {
+        expire();
         Map<String, T> newPoints = new HashMap<>();
         for (String key : currentPosition.keySet()) {
             newPoints.put(key, currentPosition.get(key));
@@ -56,126 +435,724 @@ public class PointIndex<T extends IPoint> {
         return newPoints;
     }
 
+    public int size() {
+        expire();
+        return currentPosition.size();
+    }
+
+    /**
+     * All points, read cell by cell as the stream is consumed instead of copied as by {@link #getAll()}.
+     * As for the other streams, the index must not change until the stream is consumed; stream a
+     * {@link #snapshot()} to keep writing meanwhile.
+     */
+    public Stream<T> stream() {
+        expire();
+        GeoIndex<Bucket<T>> index = this.index;
+        return Arrays.stream(index.keys()).mapToObj(index::find).flatMap(entry -> {
+            List<T> points = new ArrayList<>(entry.size());
+            entry.collect(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                    Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, point -> true, points);
+            return points.stream();
+        });
+    }
+
+    /**
+     * Adds {@code point} or moves the point with the same id to it. A move within the same cell replaces
+     * the point in place, a move across cells transfers it with one removal and one insertion.
+     */
     public void add(T point) {
-        remove(point.getId());
-        Map<String, T> entry = index.addEntryAt(point);
-        entry.put(point.getId(), point);
-        currentPosition.put(point.getId(), point);
+        checkWritable();
+        expire();
+        QueryStats stats = start(QueryStats.Operation.ADD);
+        double resolution = index.getResolution();
+        long to = Cell.keyOf(point, resolution);
+
+        T previous = currentPosition.put(point.getId(), point);
+        if (migration != null) changed(point.getId(), previous);
+        if (previous != null) {
+            long from = Cell.keyOf(previous, resolution);
+            if (from != to) {
+                removeAt(from, point.getId());
+            }
+        }
+        putAt(to, point);
+
+        if (timers != null) {
+            // expired once strictly more than the expiration has elapsed
+            timers.schedule(point.getId(), clock.millis() + expiration + 1);
+        }
+        finish(stats);
+
+        for (int i = 0; i < listeners.size(); i++) {
+            if (previous != null) {
+                listeners.get(i).onMove(previous, point);
+            } else {
+                listeners.get(i).onAdd(point);
+            }
+        }
     }
 
-    public void remove(String id) {
-        if (currentPosition.containsKey(id)) {
-            IPoint prevPoint = currentPosition.get(id);
-            Map<String, T> entry = index.getEntryAt(prevPoint);
-            entry.remove(prevPoint.getId());
-            currentPosition.remove(prevPoint.getId());
+    /**
+     * Adds every point of {@code points}, the last one winning when an id occurs more than once: the
+     * others are dropped before anything is applied, so listeners see one event per id. Cell keys are computed and cells filled in parallel, each affected cell being updated once by a
+     * single task; new cells are created at their final size.
+     */
+    public void addAll(Collection<? extends T> points) {
+        addAll(points, null);
+    }
+
+    /**
+     * Like {@link #addAll(Collection)}, scheduling each point to expire at its own deadline in epoch
+     * millis, in the iteration order of {@code points}, rather than after the expiration from now.
+     */
+    @SuppressWarnings("unchecked")
+    void addAll(Collection<? extends T> points, long[] deadlines) {
+        checkWritable();
+        T[] batch = (T[]) points.toArray(new IPoint[0]);
+        int n = batch.length;
+
+        // a point superseded by a later one with the same id is skipped
+        boolean[] latest = new boolean[n];
+        Set<String> seen = new HashSet<>(n * 4 / 3 + 1);
+        for (int i = n - 1; i >= 0; i--) {
+            latest[i] = seen.add(batch[i].getId());
+        }
+
+        if (n < PARALLEL_BATCH) {
+            for (int i = 0; i < n; i++) {
+                if (!latest[i]) continue;
+                add(batch[i]);
+                if (timers != null && deadlines != null) {
+                    timers.schedule(batch[i].getId(), deadlines[i]);
+                }
+            }
+            return;
+        }
+
+        expire();
+        double resolution = index.getResolution();
+
+        // positions before the batch, read in parallel while nothing writes
+        long[] to = new long[n];
+        T[] previous = (T[]) new IPoint[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            to[i] = Cell.keyOf(batch[i], resolution);
+            previous[i] = currentPosition.get(batch[i].getId());
+        });
+
+        for (int i = 0; i < n; i++) {
+            if (!latest[i]) continue;
+            currentPosition.put(batch[i].getId(), batch[i]);
+            if (migration != null) changed(batch[i].getId(), previous[i]);
+        }
+
+        long[] from = new long[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            from[i] = latest[i] && previous[i] != null ? Cell.keyOf(previous[i], resolution) : to[i];
+        });
+
+        // per cell, the indexes of the points to remove (negative) and to add, sized by a first count
+        CellMap<int[]> cells = new CellMap<>();
+        for (int i = 0; i < n; i++) {
+            if (!latest[i]) continue;
+            count(cells, to[i]);
+            if (from[i] != to[i]) count(cells, from[i]);
+        }
+
+        // cells are created in batch order, as copying them in slot order would cluster the index's table
+        long[] keys = new long[cells.size()];
+        int created = 0;
+        for (int i = 0; i < n; i++) {
+            if (!latest[i]) continue;
+            created = append(cells, to[i], i + 1, keys, created);
+            if (from[i] != to[i]) created = append(cells, from[i], -i - 1, keys, created);
+        }
+
+        // +1 for a cell the batch fills, -1 for one it empties
+        int[] filled = new int[keys.length];
+        int[] sizes = new int[keys.length];
+        IntStream.range(0, keys.length).parallel().forEach(c -> {
+            Bucket<T> entry = index.find(keys[c]);
+            sizes[c] = entry.size();
+            boolean occupied = sizes[c] > 0;
+            int[] ops = cells.get(keys[c]);
+            for (int j = 1; j <= ops[0]; j++) {
+                if (ops[j] < 0) entry.remove(batch[-ops[j] - 1].getId());
+            }
+            for (int j = 1; j <= ops[0]; j++) {
+                if (ops[j] > 0) entry.put(batch[ops[j] - 1]);
+            }
+            filled[c] = (entry.size() > 0 ? 1 : 0) - (occupied ? 1 : 0);
+        });
+        for (int c = 0; c < keys.length; c++) {
+            if (filled[c] > 0) index.occupy(keys[c]);
+            if (filled[c] < 0) index.vacate(keys[c]);
+            occupiedCells += filled[c];
+            if (metrics != null) metrics.onCellResize(sizes[c], index.find(keys[c]).size());
+        }
+
+        long deadline = timers != null ? clock.millis() + expiration + 1 : 0;
+        for (int i = 0; i < n; i++) {
+            if (!latest[i]) continue;
+            T point = batch[i];
+            if (timers != null) {
+                timers.schedule(point.getId(), deadlines != null ? deadlines[i] : deadline);
+            }
+            for (int l = 0; l < listeners.size(); l++) {
+                if (previous[i] != null) {
+                    listeners.get(l).onMove(previous[i], point);
+                } else {
+                    listeners.get(l).onAdd(point);
+                }
+            }
         }
     }
 
-    private List<T> getPoints(List<Map<String, T>> entries, Predicate<T> accept) {
-        List<T> result = new ArrayList<>();
-        result = getPointsAppend(result, entries, accept);
-        return result;
+    private static void count(CellMap<int[]> cells, long key) {
+        int[] count = cells.get(key);
+        if (count == null) {
+            cells.put(key, new int[]{1});
+        } else {
+            count[0]++;
+        }
     }
 
-    private List<T> getPointsAppend(List<T> s, List<Map<String, T>> entries, Predicate<T> accept) {
+    private int append(CellMap<int[]> cells, long key, int op, long[] keys, int created) {
+        int[] ops = cells.get(key);
+        if (ops.length == 1) {
+            // still the count, operations always fill an array of two or more
+            int count = ops[0];
+            ops = new int[count + 1];
+            cells.put(key, ops);
+            keys[created++] = key;
+            if (cache != null) cache.touch(key);
+            Bucket<T> entry = index.find(key);
+            if (entry == null) {
+                if (metrics != null) metrics.onCellResize(-1, 0);
+                own(key, storage.newBucket(count));
+            } else if (owned != null && !owned.contains(entry)) {
+                own(key, entry.copy());
+            }
+        }
+        ops[++ops[0]] = op;
+        return created;
+    }
 
-//        for (Map<String, T> entry: entries) {
-//            for (T point : entry.values()) {
-//                if (accept.test(point)) s.add(point);
-//            }
-//        }
+    /**
+     * Creates an index holding {@code points}, see {@link #addAll(Collection)}.
+     */
+    public static <T extends IPoint> PointIndex<T> build(Collection<? extends T> points, double resolution) {
+        return build(points, resolution, CellStorage.MAP);
+    }
 
-        entries.stream()
-                .flatMap(entry -> entry.values().stream())
-                .map(o -> o)
-                .filter(accept)
-                .forEach(s::add);
+    public static <T extends IPoint> PointIndex<T> build(Collection<? extends T> points, double resolution, CellStorage storage) {
+        PointIndex<T> index = new PointIndex<>(resolution, storage);
+        index.addAll(points);
+        return index;
+    }
+
+    /**
+     * Writes the ids and coordinates of the points, with their expiration deadlines if the index expires,
+     * to a binary snapshot file that {@link #openSnapshot} maps back.
+     */
+    public void writeSnapshot(Path path) throws IOException {
+        expire();
+        Map<String, Long> deadlines = null;
+        if (timers != null) {
+            deadlines = new HashMap<>();
+            for (String id : currentPosition.keySet()) {
+                deadlines.put(id, deadline(id));
+            }
+        }
 
-        return s;
+        Snapshot.write(path, index, storage, deadlines);
     }
 
-    private Double approximateSquareDistance(IPoint p1, IPoint p2) {
-        double avgLat = (p1.getLat() + p2.getLat()) / 2.0;
+    /**
+     * Opens a snapshot written by {@link #writeSnapshot}. The file is memory-mapped and queried in place:
+     * opening costs one step per cell, and a cell or id is only copied to the heap once it changes. The
+     * index has the cell storage and sparse mode of the one written.
+     */
+    public static PointIndex<BasicPoint> openSnapshot(Path path) throws IOException {
+        return openSnapshot(path, BasicPoint::new);
+    }
 
-        double latLen = abs(p1.getLat() - p2.getLat()) * Cell.LAT_DEGREE_LENGTH;
-        double lonLen = abs(p1.getLon()-p2.getLon()) * get(lonDegreeDistance, avgLat);
+    /**
+     * Opens a snapshot as an expiring index. Points keep the deadlines they were written with, or expire
+     * after {@code expiration} if the snapshot has none.
+     */
+    public static PointIndex<BasicPoint> openSnapshot(Path path, Duration expiration, Clock clock) throws IOException {
+        return openSnapshot(path, BasicPoint::new, expiration, clock);
+    }
 
-        return latLen*latLen + lonLen*lonLen;
+    /**
+     * Like {@link #openSnapshot(Path)}, creating the points read from the snapshot with {@code factory}.
+     */
+    public static <T extends IPoint> PointIndex<T> openSnapshot(Path path, PointFactory<T> factory) throws IOException {
+        return openSnapshot(path, factory, null, null);
     }
 
-    private double get(Map<Integer, Double> lonDegreeDistance, double lat) {
-        int latIndex = (int) (lat * 10);
-        double latRounded = latIndex / 10;
+    /**
+     * Like {@link #openSnapshot(Path, Duration, Clock)}, creating the points read from the snapshot with
+     * {@code factory}. The ids not changed since opening expire in deadline order straight from the
+     * snapshot, so opening schedules no timers.
+     */
+    public static <T extends IPoint> PointIndex<T> openSnapshot(Path path, PointFactory<T> factory,
+                                                                Duration expiration, Clock clock) throws IOException {
+        Snapshot snapshot = Snapshot.open(path);
+        CellStorage storage = snapshot.storage();
+        Snapshot.Points<T> points = new Snapshot.Points<>(snapshot, factory);
 
-        if (lonDegreeDistance.containsKey(latIndex)) {
-            return lonDegreeDistance.get(latIndex);
-        } else {
-            double dist = distance(new BasicPoint("", latRounded, 0.0), new BasicPoint("", latRounded, 1.0));
-            lonDegreeDistance.put(latIndex, dist);
-            return dist;
+        GeoIndex<Bucket<T>> index = new GeoIndex<>(snapshot.resolution(), storage::newBucket);
+        index.setSparse(snapshot.isSparse());
+        for (int cell = 0; cell < snapshot.cells(); cell++) {
+            index.setEntryAt(snapshot.cellKey(cell), new MappedBucket<>(points, cell, storage));
         }
+
+        TimingWheel<String> timers = null;
+        long deadline = -1;
+        if (expiration != null) {
+            long now = clock.millis();
+            timers = new TimingWheel<>(1, now);
+            deadline = now + expiration.toMillis() + 1;
+        }
+
+        Snapshot.Positions<T> positions = new Snapshot.Positions<>(points, deadline);
+        PointIndex<T> opened = new PointIndex<>(index, storage, positions, timers, clock,
+                expiration != null ? expiration.toMillis() : 0, false);
+        if (timers != null) opened.mapped = positions;
+        opened.occupiedCells = occupiedCells(index);
+        return opened;
     }
 
-    private double distance(IPoint p1, IPoint p2) {
+    public void remove(String id) {
+        checkWritable();
+        expire();
+        QueryStats stats = start(QueryStats.Operation.REMOVE);
+        T previous = unlink(id);
+        if (previous == null) {
+            finish(stats);
+            return;
+        }
 
-        double dLat = toRadians(p2.getLat() - p1.getLat());
-        double dLng = toRadians(p2.getLon() - p1.getLon());
-        double sindLat = sin(dLat / 2);
-        double sindLng = sin(dLng / 2);
-        double a = pow(sindLat, 2) + pow(sindLng, 2) * cos(toRadians(p1.getLat())) * cos(toRadians(p2.getLat()));
-        double c = 2 * atan2(sqrt(a), sqrt(1 - a));
+        if (timers != null) {
+            timers.cancel(id);
+        }
+        finish(stats);
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onRemove(previous);
+        }
+    }
 
-        return EARTH_RADIUS * c;
+    private void expired(String id) {
+        T previous = unlink(id);
+        if (previous == null) return;
+
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onExpire(previous);
+        }
+    }
+
+    private T unlink(String id) {
+        T prevPoint = currentPosition.remove(id);
+        if (prevPoint != null) {
+            if (migration != null) changed(id, prevPoint);
+            removeAt(Cell.keyOf(prevPoint, index.getResolution()), id);
+        }
+        return prevPoint;
     }
 
     public List<T> kNearest(IPoint point, int k, double maxDistance, Predicate<T> accept) {
-        Map<String, T> pointEntry = index.getEntryAt(point);
-        List<T> nearbyPoints = getPoints(Collections.singletonList(pointEntry), accept);
+        QueryCache.Key key = null;
+        if (cache != null) {
+            expire();
+            key = QueryCache.nearestKey(point, k, maxDistance, accept);
+            List<T> cached = cache.get(key);
+            if (metrics != null) metrics.onCacheLookup(cached != null);
+            if (cached != null) return new ArrayList<>(cached);
+        }
 
-        int totalCount = 0;
-        Cell idx = Cell.cellOf(point, index.getResolution());
-        double coarseMaxDistance = max(maxDistance * 2.0, index.getResolution() * 2.0 + 0.01);
+        ResultBuffer<T> nearest = new ResultBuffer<>();
+        int n = kNearest(point, k, maxDistance, accept, nearest);
 
-        for (int d = 1; d * index.getResolution() <= coarseMaxDistance; d++) {
-            int oldCount = nearbyPoints.size();
+        List<T> nearbyPoints = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            nearbyPoints.add(nearest.get(i));
+        }
 
-            nearbyPoints = getPointsAppend(nearbyPoints, index.get(idx.getX()-d, idx.getX()+d, idx.getY()+d, idx.getY()+d), accept);
-            nearbyPoints = getPointsAppend(nearbyPoints, index.get(idx.getX()-d, idx.getX()+d, idx.getY()-d, idx.getY()-d), accept);
-            nearbyPoints = getPointsAppend(nearbyPoints, index.get(idx.getX()-d, idx.getX()-d, idx.getY()-d+1, idx.getY()+d-1), accept);
-            nearbyPoints = getPointsAppend(nearbyPoints, index.get(idx.getX()+d, idx.getX()+d, idx.getY()-d+1, idx.getY()+d-1), accept);
+        if (key != null) {
+            double resolution = index.getResolution();
+            int x = Cell.x(point.lat(), resolution), y = Cell.y(point.lon(), resolution), d = searchedRings;
+            cache.put(key, x - d, x + d, y - d, y + d, new ArrayList<>(nearbyPoints));
+        }
+        return nearbyPoints;
+    }
 
-            totalCount += nearbyPoints.size() - oldCount;
+    /**
+     * Like {@link #kNearest(IPoint, int, double, Predicate)}, into a buffer owned by the caller: once the
+     * buffer has served a query of the same {@code k}, the query allocates nothing.
+     *
+     * @return the number of points found, {@code result.size()}
+     */
+    public int kNearest(IPoint point, int k, double maxDistance, Predicate<T> accept, ResultBuffer<T> result) {
+        expire();
+        QueryStats stats = start(QueryStats.Operation.K_NEAREST);
+        NearestHeap<T> nearest = result.start(k);
 
-            if (totalCount > k) break;
-        }
+        int rings = RingSearch.search(ringCells, point, index.getResolution(), maxDistance, accept, nearest, stats);
+        searchedRings = rings;
 
-        k = min(k, nearbyPoints.size());
+        int n = result.sort();
+        int size = RingSearch.within(nearest, n, point, maxDistance);
+        result.finish(size);
+        nearest.clear(size, n);
 
-        Collections.sort(nearbyPoints, (o1, o2) -> approximateSquareDistance(o1, point)
-                .compareTo(approximateSquareDistance(o2, point)));
+        if (stats != null) {
+            stats.rings = rings;
+            stats.returned = size;
+            stats.distanceTests = min(size + 1, n);
+            finish(stats);
+        }
+        return size;
+    }
+
+    /**
+     * The {@code k} accepted points a {@link #kNearest} search ranks first by approximate distance,
+     * nearest first and not yet cut at {@code maxDistance}, for {@link ShardedPointIndex} to merge.
+     */
+    List<T> nearestCandidates(IPoint point, int k, double maxDistance, Predicate<T> accept) {
+        expire();
+        NearestHeap<T> nearest = new NearestHeap<>(k);
+        RingSearch.search(ringCells, point, index.getResolution(), maxDistance, accept, nearest, null);
+        List<T> candidates = new ArrayList<>(nearest.size());
+        nearest.drainTo(candidates);
+        return candidates;
+    }
 
-        for (int i = 0; i < nearbyPoints.size(); i++) {
-            if (distance(point, nearbyPoints.get(i)) > maxDistance || i == k) {
-                k = i;
-                break;
+    private void offer(NearestHeap<T> nearest, double lat, double lon, int minX, int maxX, int minY, int maxY,
+                       Predicate<T> accept, QueryStats stats) {
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                Bucket<T> entry = index.find(Cell.key(x, y));
+                if (stats != null) stats.visit(entry);
+                if (entry != null) {
+                    entry.offer(lat, lon, accept, nearest);
+                }
             }
         }
+    }
 
-        return nearbyPoints.subList(0, k);
+    /**
+     * The accepted points within {@code maxDistance} of {@code point}, nearest first, searched ring of
+     * cells by ring as the stream is consumed: {@code nearest(point, maxDistance, accept).limit(k)}
+     * yields what {@link #kNearest} returns without fixing {@code k} up front.
+     */
+    public Stream<T> nearest(IPoint point, double maxDistance, Predicate<T> accept) {
+        expire();
+        return StreamSupport.stream(new NearestSpliterator<>(index, point, maxDistance, accept), false);
     }
 
     public List<T> range(IPoint topLeft, IPoint bottomRight) {
-        List<Map<String, T>> entries = index.range(topLeft, bottomRight);
-        Predicate<T> accept = point ->
-                between(point.getLat(), bottomRight.getLat(), topLeft.getLat()) &&
-                        between(point.getLon(), topLeft.getLon(), bottomRight.getLon());
+        expire();
+        double resolution = index.getResolution();
+        double minLat = bottomRight.lat(), maxLat = topLeft.lat();
+        double minLon = topLeft.lon(), maxLon = bottomRight.lon();
+
+        QueryCache.Key key = null;
+        if (cache != null) {
+            key = QueryCache.rangeKey(Cell.x(minLat, resolution), Cell.x(maxLat, resolution),
+                    Cell.y(minLon, resolution), Cell.y(maxLon, resolution));
+            List<T> cells = cache.get(key);
+            if (metrics != null) metrics.onCacheLookup(cells != null);
+            if (cells != null) {
+                List<T> result = new ArrayList<>();
+                for (T point : cells) {
+                    double lat = point.lat(), lon = point.lon();
+                    if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) result.add(point);
+                }
+                return result;
+            }
+        }
 
-        return  getPoints(entries, accept);
+        QueryStats stats = start(QueryStats.Operation.RANGE);
+        List<Bucket<T>> entries = index.range(topLeft, bottomRight);
+
+        List<T> result = new ArrayList<>();
+        for (Bucket<T> entry : entries) {
+            entry.collect(minLat, maxLat, minLon, maxLon, point -> true, result);
+        }
+
+        if (stats != null) {
+            int minX = Cell.x(minLat, resolution), maxX = Cell.x(maxLat, resolution);
+            int minY = Cell.y(minLon, resolution), maxY = Cell.y(maxLon, resolution);
+            long cells = (long) (maxX - minX + 1) * (maxY - minY + 1);
+            // a sparse index walks the occupied cells of large boxes instead of probing every cell
+            stats.cellsVisited = (int) (index.scansOrdered(minX, maxX, minY, maxY) ? entries.size() : min(cells, Integer.MAX_VALUE));
+            stats.cellsOccupied = entries.size();
+            for (Bucket<T> entry : entries) {
+                stats.candidates += entry.size();
+            }
+            stats.returned = result.size();
+            finish(stats);
+        }
+
+        if (key != null) {
+            // the whole cells, for any box over the same cells to filter
+            List<T> cells = new ArrayList<>();
+            for (Bucket<T> entry : entries) {
+                entry.collect(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                        Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, point -> true, cells);
+            }
+            cache.put(key, Cell.x(minLat, resolution), Cell.x(maxLat, resolution),
+                    Cell.y(minLon, resolution), Cell.y(maxLon, resolution), cells);
+        }
+        return result;
+    }
+
+    /**
+     * Like {@link #range(IPoint, IPoint)}, passing each point to {@code visitor} instead of collecting them,
+     * which allocates nothing unless the index is sparse.
+     */
+    public void range(IPoint topLeft, IPoint bottomRight, PointVisitor<? super T> visitor) {
+        range(topLeft, bottomRight, null, visitor);
+    }
+
+    /**
+     * Like {@link #range(IPoint, IPoint, PointVisitor)} over the cells of the box within {@code blocks},
+     * which holds {@code minX, maxX, minY, maxY} for each block of cells, or over all of them if it is
+     * {@code null}.
+     */
+    void range(IPoint topLeft, IPoint bottomRight, int[] blocks, PointVisitor<? super T> visitor) {
+        expire();
+        QueryStats stats = start(QueryStats.Operation.RANGE);
+        if (stats != null) {
+            PointVisitor<? super T> counted = visitor;
+            visitor = point -> {
+                stats.returned++;
+                counted.visit(point);
+            };
+        }
+
+        double resolution = index.getResolution();
+        double minLat = bottomRight.lat(), maxLat = topLeft.lat();
+        double minLon = topLeft.lon(), maxLon = bottomRight.lon();
+        int minX = Cell.x(minLat, resolution), maxX = Cell.x(maxLat, resolution);
+        int minY = Cell.y(minLon, resolution), maxY = Cell.y(maxLon, resolution);
+
+        for (int b = 0; b < (blocks != null ? blocks.length : 1); b += 4) {
+            int fromX = minX, toX = maxX, fromY = minY, toY = maxY;
+            if (blocks != null) {
+                fromX = max(fromX, blocks[b]);
+                toX = min(toX, blocks[b + 1]);
+                fromY = max(fromY, blocks[b + 2]);
+                toY = min(toY, blocks[b + 3]);
+            }
+
+            if (index.isSparse()) {
+                if (fromX > toX || fromY > toY) continue;
+                for (Bucket<T> entry : index.get(fromX, toX, fromY, toY)) {
+                    if (stats != null) stats.visit(entry);
+                    entry.visit(minLat, maxLat, minLon, maxLon, visitor);
+                }
+            } else {
+                for (int x = fromX; x <= toX; x++) {
+                    for (int y = fromY; y <= toY; y++) {
+                        Bucket<T> entry = index.find(Cell.key(x, y));
+                        if (stats != null) stats.visit(entry);
+                        if (entry != null) {
+                            entry.visit(minLat, maxLat, minLon, maxLon, visitor);
+                        }
+                    }
+                }
+            }
+        }
+
+        finish(stats);
+    }
+
+    /**
+     * Lazy {@link #range}: cells are read one column at a time as the stream is consumed, so that
+     * {@code limit} or {@code findAny} stop the scan early, and a parallel stream splits the columns.
+     */
+    public Stream<T> rangeStream(IPoint topLeft, IPoint bottomRight) {
+        expire();
+        double resolution = index.getResolution();
+        double minLat = bottomRight.lat(), maxLat = topLeft.lat();
+        double minLon = topLeft.lon(), maxLon = bottomRight.lon();
+
+        return StreamSupport.stream(new CellSpliterator<>(index,
+                Cell.x(minLat, resolution), Cell.x(maxLat, resolution),
+                Cell.y(minLon, resolution), Cell.y(maxLon, resolution),
+                minLat, maxLat, minLon, maxLon, point -> true), false);
+    }
+
+    /**
+     * Returns the accepted points within {@code meters} of {@code center}, in no particular order.
+     * Cells are sorted by their equirectangular distance to the center first: cells clearly outside the
+     * circle are skipped and cells clearly inside are taken whole, without a haversine. Only the points of
+     * cells within about 1% of the radius of the circle are tested one by one. Each row of cells is scanned
+     * over the longitudes the circle reaches at its latitudes, across the antimeridian or around a pole.
+     */
+    public List<T> withinRadius(IPoint center, double meters, Predicate<T> accept) {
+        return withinRadius(center, meters, accept, null);
+    }
+
+    /**
+     * Like {@link #withinRadius(IPoint, double, Predicate)} over the cells within {@code blocks}, as for
+     * {@link #range(IPoint, IPoint, int[], PointVisitor)}.
+     */
+    List<T> withinRadius(IPoint center, double meters, Predicate<T> accept, int[] blocks) {
+        expire();
+        QueryStats stats = start(QueryStats.Operation.WITHIN_RADIUS);
+        double resolution = index.getResolution();
+        double lat = center.lat(), lon = center.lon();
+
+        double dLat = meters / Cell.LAT_DEGREE_LENGTH;
+        double farthestLat = min(abs(lat) + dLat, 90.0);
+
+        // the shortest and longest degree of longitude within the circle bound the distance across a cell
+        double nearestLat = max(abs(lat) - dLat, 0.0);
+        double shortLonDegree = distance(farthestLat, 0.0, farthestLat, 1.0);
+        double longLonDegree = distance(nearestLat, 0.0, nearestLat, 1.0);
+        double outside = meters * (1.0 + RADIUS_MARGIN) + 1.0;
+        double inside = max(meters * (1.0 - RADIUS_MARGIN) - 1.0, 0.0);
+        int lastY = Cell.y(180.0, resolution);
+
+        // the two degrees of longitude
+        if (stats != null) stats.distanceTests = 2;
+        List<T> result = new ArrayList<>();
+
+        for (int x = Cell.x(max(lat - dLat, -90.0), resolution); x <= Cell.x(min(lat + dLat, 90.0), resolution); x++) {
+            double minLat = x * resolution / Cell.LAT_DEGREE_LENGTH - 90.0;
+            double maxLat = (x + 1) * resolution / Cell.LAT_DEGREE_LENGTH - 90.0;
+            double nearLat = max(max(minLat - lat, lat - maxLat), 0.0) * Cell.LAT_DEGREE_LENGTH;
+            double farLat = max(lat - minLat, maxLat - lat) * Cell.LAT_DEGREE_LENGTH;
+
+            // the columns of the row the circle reaches, in two ranges when it crosses the antimeridian
+            double halfWidth = lonHalfWidth(lat, outside, minLat, maxLat);
+            if (halfWidth < 0.0) continue;
+            double west = lon - halfWidth, east = lon + halfWidth;
+            int fromY = 0, toY = lastY, wrapFromY = 0, wrapToY = -1;
+            if (halfWidth < 180.0) {
+                if (west < -180.0) {
+                    toY = Cell.y(east, resolution);
+                    wrapFromY = Cell.y(west + 360.0, resolution);
+                    wrapToY = lastY;
+                } else if (east > 180.0) {
+                    fromY = Cell.y(west, resolution);
+                    wrapToY = Cell.y(east - 360.0, resolution);
+                } else {
+                    fromY = Cell.y(west, resolution);
+                    toY = Cell.y(east, resolution);
+                }
+                if (wrapFromY <= toY && wrapToY >= fromY) {
+                    fromY = 0;
+                    toY = lastY;
+                    wrapToY = -1;
+                }
+            }
+
+            for (int part = 0; part < 2; part++) {
+                for (int b = 0; b < (blocks != null ? blocks.length : 1); b += 4) {
+                    int from = part == 0 ? fromY : wrapFromY, to = part == 0 ? toY : wrapToY;
+                    if (blocks != null) {
+                        if (x < blocks[b] || x > blocks[b + 1]) continue;
+                        from = max(from, blocks[b + 2]);
+                        to = min(to, blocks[b + 3]);
+                    }
+
+                    for (int y = from; y <= to; y++) {
+                        Bucket<T> entry = index.find(Cell.key(x, y));
+                        if (stats != null) stats.cellsVisited++;
+                        if (entry == null || entry.size() == 0) continue;
+                        if (stats != null) stats.cellsOccupied++;
+
+                        // the copy of the cell nearest to the center, one turn east or west across the antimeridian
+                        double minLon = y * resolution / Cell.LON_DEGREE_LENGTH - 180.0;
+                        double maxLon = (y + 1) * resolution / Cell.LON_DEGREE_LENGTH - 180.0;
+                        double turn = (minLon + maxLon) / 2.0 - lon > 180.0 ? -360.0
+                                : (minLon + maxLon) / 2.0 - lon < -180.0 ? 360.0 : 0.0;
+                        minLon += turn;
+                        maxLon += turn;
+
+                        double nearLon = max(max(minLon - lon, lon - maxLon), 0.0) * shortLonDegree;
+                        if (nearLat * nearLat + nearLon * nearLon > outside * outside) continue;
+
+                        if (stats != null) stats.candidates += entry.size();
+
+                        double farLon = max(lon - minLon, maxLon - lon) * longLonDegree;
+                        if (farLat * farLat + farLon * farLon < inside * inside) {
+                            entry.collect(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                                    Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, accept, result);
+                        } else {
+                            int tests = entry.collectWithin(lat, lon, meters, accept, result);
+                            if (stats != null) stats.distanceTests += tests;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (stats != null) {
+            stats.returned = result.size();
+            finish(stats);
+        }
+        return result;
     }
 
-    private boolean between(Double value, Double min, Double max) {
-        return value >= min && value <= max;
+    // ids of a snapshot, indexed from its cells the first time one is looked up
+    private static final class FrozenPositions<T extends IPoint> extends AbstractMap<String, T> {
+
+        private final GeoIndex<Bucket<T>> index;
+        private final int size;
+        private volatile Map<String, T> positions;
+
+        private FrozenPositions(GeoIndex<Bucket<T>> index, int size) {
+            this.index = index;
+            this.size = size;
+        }
+
+        private Map<String, T> positions() {
+            Map<String, T> positions = this.positions;
+            if (positions == null) {
+                synchronized (this) {
+                    if (this.positions == null) {
+                        List<T> points = new ArrayList<>(size);
+                        for (long key : index.keys()) {
+                            index.find(key).collect(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                                    Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, point -> true, points);
+                        }
+                        Map<String, T> byId = new HashMap<>(size * 4 / 3 + 1);
+                        for (T point : points) {
+                            byId.put(point.getId(), point);
+                        }
+                        this.positions = byId;
+                    }
+                    positions = this.positions;
+                }
+            }
+            return positions;
+        }
+
+        @Override
+        public T get(Object id) {
+            return positions().get(id);
+        }
+
+        @Override
+        public boolean containsKey(Object id) {
+            return positions().containsKey(id);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Set<Entry<String, T>> entrySet() {
+            return Collections.unmodifiableMap(positions()).entrySet();
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,215 @@
+package com.blanclink.geoindex;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link MetricsListener} keeping a latency histogram per operation and running totals of the work done by
+ * queries, readable from any thread and through JMX once {@link #register registered}.
+ */
+public class PointIndexMetrics implements MetricsListener, PointIndexMetricsMBean {
+
+    private final Map<QueryStats.Operation, LatencyHistogram> latencies = new EnumMap<>(QueryStats.Operation.class);
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder cellsVisited = new LongAdder();
+    private final LongAdder candidates = new LongAdder();
+    private final LongAdder returned = new LongAdder();
+    private final LongAdder expirySweeps = new LongAdder();
+    private final LongAdder expiredPoints = new LongAdder();
+    private final LatencyHistogram expiry = new LatencyHistogram();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    // cells by the number of points they hold, as PointIndex.getOccupancy()
+    private final AtomicLongArray occupancy = new AtomicLongArray(33);
+    private volatile int indexCells;
+    private volatile int indexPoints;
+
+    public PointIndexMetrics() {
+        for (QueryStats.Operation operation : QueryStats.Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server under {@code com.blanclink.geoindex:type=PointIndex,name=<name>}.
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("com.blanclink.geoindex:type=PointIndex,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    public static void unregister(ObjectName name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(name)) server.unregisterMBean(name);
+    }
+
+    @Override
+    public void onOperation(QueryStats stats) {
+        latencies.get(stats.getOperation()).record(stats.getNanos());
+        indexCells = stats.getIndexCells();
+        indexPoints = stats.getIndexPoints();
+
+        if (stats.getOperation() != QueryStats.Operation.ADD && stats.getOperation() != QueryStats.Operation.REMOVE) {
+            queries.increment();
+            cellsVisited.add(stats.getCellsVisited());
+            candidates.add(stats.getCandidates());
+            returned.add(stats.getReturned());
+        }
+    }
+
+    @Override
+    public void onExpire(int points, long nanos) {
+        expirySweeps.increment();
+        expiredPoints.add(points);
+        expiry.record(nanos);
+    }
+
+    @Override
+    public void onCacheLookup(boolean hit) {
+        (hit ? cacheHits : cacheMisses).increment();
+    }
+
+    @Override
+    public void onOccupancy(long[] occupancy) {
+        for (int i = 0; i < this.occupancy.length(); i++) {
+            this.occupancy.set(i, i < occupancy.length ? occupancy[i] : 0);
+        }
+    }
+
+    @Override
+    public void onCellResize(int before, int after) {
+        if (before >= 0) occupancy.decrementAndGet(32 - Integer.numberOfLeadingZeros(before));
+        occupancy.incrementAndGet(32 - Integer.numberOfLeadingZeros(after));
+    }
+
+    public LatencyHistogram getLatency(QueryStats.Operation operation) {
+        return latencies.get(operation);
+    }
+
+    public LatencyHistogram getExpiryLatency() {
+        return expiry;
+    }
+
+    @Override
+    public long getOperationCount() {
+        long count = 0;
+        for (LatencyHistogram histogram : latencies.values()) {
+            count += histogram.getCount();
+        }
+        return count;
+    }
+
+    @Override
+    public int getIndexCells() {
+        return indexCells;
+    }
+
+    @Override
+    public int getIndexPoints() {
+        return indexPoints;
+    }
+
+    @Override
+    public long getExpirySweeps() {
+        return expirySweeps.sum();
+    }
+
+    @Override
+    public long getExpiredPoints() {
+        return expiredPoints.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        long hits = cacheHits.sum(), lookups = hits + cacheMisses.sum();
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+
+    @Override
+    public long[] getOccupancy() {
+        long[] occupancy = new long[this.occupancy.length()];
+        int last = 0;
+        for (int i = 0; i < occupancy.length; i++) {
+            occupancy[i] = this.occupancy.get(i);
+            if (occupancy[i] != 0) last = i;
+        }
+        return Arrays.copyOf(occupancy, last + 1);
+    }
+
+    @Override
+    public double getCellsVisitedPerQuery() {
+        return perQuery(cellsVisited);
+    }
+
+    @Override
+    public double getCandidatesPerQuery() {
+        return perQuery(candidates);
+    }
+
+    @Override
+    public double getReturnedPerQuery() {
+        return perQuery(returned);
+    }
+
+    private double perQuery(LongAdder total) {
+        long count = queries.sum();
+        return count > 0 ? (double) total.sum() / count : 0;
+    }
+
+    @Override
+    public String[] getLatencies() {
+        String[] lines = new String[latencies.size()];
+        int i = 0;
+        for (Map.Entry<QueryStats.Operation, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            lines[i++] = String.format("%s count=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus",
+                    entry.getKey(), histogram.getCount(), histogram.getMeanNanos() / 1000.0,
+                    histogram.getPercentileNanos(50) / 1000.0, histogram.getPercentileNanos(99) / 1000.0,
+                    histogram.getMaxNanos() / 1000.0);
+        }
+        return lines;
+    }
+
+    @Override
+    public long getCount(String operation) {
+        return latencies.get(QueryStats.Operation.valueOf(operation)).getCount();
+    }
+
+    @Override
+    public double getPercentileMicros(String operation, double percentile) {
+        return latencies.get(QueryStats.Operation.valueOf(operation)).getPercentileNanos(percentile) / 1000.0;
+    }
+
+    @Override
+    public void reset() {
+        latencies.values().forEach(LatencyHistogram::reset);
+        expiry.reset();
+        queries.reset();
+        cellsVisited.reset();
+        candidates.reset();
+        returned.reset();
+        expirySweeps.reset();
+        expiredPoints.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+    }
+
+}
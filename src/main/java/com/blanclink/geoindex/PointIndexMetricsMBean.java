@@ -0,0 +1,49 @@
+package com.blanclink.geoindex;
+
+/**
+ * JMX view of {@link PointIndexMetrics}.
+ */
+public interface PointIndexMetricsMBean {
+
+    long getOperationCount();
+
+    /**
+     * Occupied cells as of the latest operation.
+     */
+    int getIndexCells();
+
+    int getIndexPoints();
+
+    long getExpirySweeps();
+
+    long getExpiredPoints();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    double getCacheHitRate();
+
+    /**
+     * Cells by the number of points they hold, as {@link PointIndex#getOccupancy()} as of the latest write.
+     */
+    long[] getOccupancy();
+
+    double getCellsVisitedPerQuery();
+
+    double getCandidatesPerQuery();
+
+    double getReturnedPerQuery();
+
+    /**
+     * One line per operation: count, mean, 50th, 99th percentile and maximum latency.
+     */
+    String[] getLatencies();
+
+    long getCount(String operation);
+
+    double getPercentileMicros(String operation, double percentile);
+
+    void reset();
+
+}
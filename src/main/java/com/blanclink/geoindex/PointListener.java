@@ -0,0 +1,24 @@
+package com.blanclink.geoindex;
+
+/**
+ * Notified by a {@link PointIndex} after each change, see {@link PointIndex#addListener}.
+ */
+public interface PointListener<T extends IPoint> {
+
+    void onAdd(T point);
+
+    void onRemove(T point);
+
+    /**
+     * Called when {@code point} replaces {@code previous}, the point with the same id.
+     */
+    default void onMove(T previous, T point) {
+        onRemove(previous);
+        onAdd(point);
+    }
+
+    default void onExpire(T point) {
+        onRemove(point);
+    }
+
+}
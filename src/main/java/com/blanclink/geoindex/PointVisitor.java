@@ -0,0 +1,11 @@
+package com.blanclink.geoindex;
+
+/**
+ * Receives the results of a query one point at a time, see {@link PointIndex#range(IPoint, IPoint, PointVisitor)}.
+ */
+@FunctionalInterface
+public interface PointVisitor<T extends IPoint> {
+
+    void visit(T point);
+
+}
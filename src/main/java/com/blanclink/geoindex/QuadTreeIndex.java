@@ -0,0 +1,305 @@
+package com.blanclink.geoindex;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static com.blanclink.geoindex.Distances.*;
+
+/**
+ * Point index over an adaptive quadtree instead of a fixed grid, for data whose density varies by
+ * orders of magnitude. A leaf splits into four quadrants once it holds more than {@code capacity}
+ * points and a subtree merges back into a single leaf once it drains to half of that, so dense areas
+ * get small cells and empty areas a few large ones. Same semantics as {@link PointIndex}.
+ */
+public class QuadTreeIndex<T extends IPoint> {
+
+    // about 2 cm of latitude; leaves this deep keep growing past their capacity
+    private static final int MAX_DEPTH = 30;
+
+    private static final class Node<T extends IPoint> {
+        private final double minLat, maxLat, minLon, maxLon;
+        private final int depth;
+        private Bucket<T> points;
+        private List<Node<T>> children;
+        private int size;
+
+        private Node(double minLat, double maxLat, double minLon, double maxLon, int depth) {
+            this.minLat = minLat;
+            this.maxLat = maxLat;
+            this.minLon = minLon;
+            this.maxLon = maxLon;
+            this.depth = depth;
+            this.points = CellStorage.MAP.newBucket();
+        }
+
+        private double midLat() {
+            return (minLat + maxLat) / 2.0;
+        }
+
+        private double midLon() {
+            return (minLon + maxLon) / 2.0;
+        }
+
+        private Node<T> child(double lat, double lon) {
+            return children.get((lat >= midLat() ? 2 : 0) + (lon >= midLon() ? 1 : 0));
+        }
+    }
+
+    private final int capacity;
+    private final Node<T> root = new Node<>(-90.0, 90.0, -180.0, 180.0, 0);
+    private final Map<String, T> currentPosition = new HashMap<>();
+    private final TimingWheel<String> timers;
+    private final Clock clock;
+    private final long expiration;
+    private final Consumer<String> expireId = this::unlink;
+    // per depth of the search, the distances to the four quadrants of a node and their order
+    private final double[] quadrantDistances = new double[4 * MAX_DEPTH];
+    private final int[] quadrantOrder = new int[4 * MAX_DEPTH];
+
+    public QuadTreeIndex(int capacity) {
+        if (capacity <= 1) throw new IllegalArgumentException("capacity must be greater than 1");
+        this.capacity = capacity;
+        this.timers = null;
+        this.clock = null;
+        this.expiration = 0;
+    }
+
+    public QuadTreeIndex(int capacity, Duration expiration) {
+        this(capacity, expiration, Clock.systemUTC());
+    }
+
+    public QuadTreeIndex(int capacity, Duration expiration, Clock clock) {
+        if (capacity <= 1) throw new IllegalArgumentException("capacity must be greater than 1");
+        this.capacity = capacity;
+        this.timers = new TimingWheel<>(1, clock.millis());
+        this.clock = clock;
+        this.expiration = expiration.toMillis();
+    }
+
+    /**
+     * See {@link PointIndex#expire()}.
+     */
+    public int expire() {
+        return timers != null ? timers.advance(clock.millis(), expireId) : 0;
+    }
+
+    public T get(String id) {
+        expire();
+        return currentPosition.get(id);
+    }
+
+    public Map<String, T> getAll() {
+        expire();
+        return new HashMap<>(currentPosition);
+    }
+
+    public int size() {
+        expire();
+        return currentPosition.size();
+    }
+
+    public void add(T point) {
+        expire();
+        unlink(point.getId());
+        insert(root, point);
+        currentPosition.put(point.getId(), point);
+
+        if (timers != null) {
+            timers.schedule(point.getId(), clock.millis() + expiration + 1);
+        }
+    }
+
+    public void remove(String id) {
+        expire();
+        if (unlink(id) != null && timers != null) {
+            timers.cancel(id);
+        }
+    }
+
+    private T unlink(String id) {
+        T prevPoint = currentPosition.remove(id);
+        if (prevPoint != null) {
+            delete(root, prevPoint);
+        }
+        return prevPoint;
+    }
+
+    private void insert(Node<T> node, T point) {
+        while (node.children != null) {
+            node.size++;
+            node = node.child(point.lat(), point.lon());
+        }
+
+        node.points.put(point);
+        node.size++;
+
+        if (node.size > capacity && node.depth < MAX_DEPTH) {
+            split(node);
+        }
+    }
+
+    private void split(Node<T> node) {
+        double midLat = node.midLat(), midLon = node.midLon();
+        int depth = node.depth + 1;
+
+        node.children = Arrays.asList(
+                new Node<>(node.minLat, midLat, node.minLon, midLon, depth),
+                new Node<>(node.minLat, midLat, midLon, node.maxLon, depth),
+                new Node<>(midLat, node.maxLat, node.minLon, midLon, depth),
+                new Node<>(midLat, node.maxLat, midLon, node.maxLon, depth));
+
+        List<T> points = new ArrayList<>(node.size);
+        collectAll(node.points, points);
+        node.points = null;
+
+        // all points may land in the same quadrant, which then splits in turn
+        for (T point : points) {
+            Node<T> child = node.child(point.lat(), point.lon());
+            child.points.put(point);
+            child.size++;
+        }
+        for (Node<T> child : node.children) {
+            if (child.size > capacity && child.depth < MAX_DEPTH) {
+                split(child);
+            }
+        }
+    }
+
+    private void delete(Node<T> node, T point) {
+        node.size--;
+
+        if (node.children == null) {
+            node.points.remove(point.getId());
+            return;
+        }
+
+        delete(node.child(point.lat(), point.lon()), point);
+
+        if (node.size <= capacity / 2) {
+            merge(node);
+        }
+    }
+
+    private void merge(Node<T> node) {
+        List<T> points = new ArrayList<>(node.size);
+        collectAll(node, points);
+
+        node.children = null;
+        node.points = CellStorage.MAP.newBucket();
+        for (T point : points) {
+            node.points.put(point);
+        }
+    }
+
+    private void collectAll(Node<T> node, List<T> result) {
+        if (node.children == null) {
+            collectAll(node.points, result);
+        } else {
+            for (Node<T> child : node.children) {
+                collectAll(child, result);
+            }
+        }
+    }
+
+    private void collectAll(Bucket<T> points, List<T> result) {
+        points.collect(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, point -> true, result);
+    }
+
+    public List<T> range(IPoint topLeft, IPoint bottomRight) {
+        expire();
+        List<T> result = new ArrayList<>();
+        range(root, bottomRight.lat(), topLeft.lat(), topLeft.lon(), bottomRight.lon(), result);
+        return result;
+    }
+
+    private void range(Node<T> node, double minLat, double maxLat, double minLon, double maxLon, List<T> result) {
+        if (node.size == 0 || node.minLat > maxLat || node.maxLat < minLat
+                || node.minLon > maxLon || node.maxLon < minLon) {
+            return;
+        }
+
+        if (node.children == null) {
+            node.points.collect(minLat, maxLat, minLon, maxLon, point -> true, result);
+        } else {
+            for (Node<T> child : node.children) {
+                range(child, minLat, maxLat, minLon, maxLon, result);
+            }
+        }
+    }
+
+    public List<T> kNearest(IPoint point, int k, double maxDistance, Predicate<T> accept) {
+        expire();
+        NearestHeap<T> nearest = new NearestHeap<>(k);
+
+        // the same coarse cut-off as the grid, exact distances are checked below
+        double coarseMaxDistance = maxDistance * 2.0;
+        nearest(root, point.lat(), point.lon(), coarseMaxDistance * coarseMaxDistance, accept, nearest);
+
+        List<T> nearbyPoints = new ArrayList<>(nearest.size());
+        nearest.drainTo(nearbyPoints);
+
+        for (int i = 0; i < nearbyPoints.size(); i++) {
+            if (distance(point, nearbyPoints.get(i)) > maxDistance) {
+                return nearbyPoints.subList(0, i);
+            }
+        }
+
+        return nearbyPoints;
+    }
+
+    // depth-first, nearest quadrant first, skipping subtrees that cannot beat the k-th best so far
+    private void nearest(Node<T> node, double lat, double lon, double limit, Predicate<T> accept, NearestHeap<T> nearest) {
+        if (node.children == null) {
+            node.points.offer(lat, lon, accept, nearest);
+            return;
+        }
+
+        List<Node<T>> children = node.children;
+        double[] distances = quadrantDistances;
+        int[] order = quadrantOrder;
+        int base = 4 * node.depth;
+
+        for (int i = 0; i < 4; i++) {
+            Node<T> child = children.get(i);
+            distances[base + i] = boxSquareDistance(lat, lon, child.minLat, child.maxLat, child.minLon, child.maxLon);
+            order[base + i] = i;
+            for (int j = base + i; j > base && distances[base + order[j]] < distances[base + order[j - 1]]; j--) {
+                int swap = order[j];
+                order[j] = order[j - 1];
+                order[j - 1] = swap;
+            }
+        }
+
+        for (int o = base; o < base + 4; o++) {
+            int i = order[o];
+            double distance = distances[base + i];
+            if (distance > limit || distance > nearest.worst()) break;
+            if (children.get(i).size > 0) {
+                nearest(children.get(i), lat, lon, limit, accept, nearest);
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    int depth() {
+        return depth(root);
+    }
+
+    private int depth(Node<T> node) {
+        if (node.children == null) return node.depth;
+
+        int depth = 0;
+        for (Node<T> child : node.children) {
+            depth = Math.max(depth, depth(child));
+        }
+        return depth;
+    }
+
+}
@@ -0,0 +1,253 @@
+package com.blanclink.geoindex;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of {@link PointIndex} query results, see {@link PointIndex#setCacheSize}.
+ * <p>
+ * Each write to a cell stamps it with the next value of a counter. A result records the counter when it
+ * was computed along with the block of cells the query read, and is served again as long as none of
+ * those cells carries a later stamp; with no write since, that takes a single comparison. A result with
+ * fewer writes since than cells in its block checks the cells those writes stamped instead.
+ * <p>
+ * Only stamps later than the oldest result matter, so once more cells carry one than
+ * {@code maxStamps} the cache drops the stamps up to the oldest result, along with the results older
+ * than the latest {@code maxStamps / 2} writes.
+ */
+public class QueryCache<T extends IPoint> {
+
+    static final class Key {
+        private final int kind;
+        private final double a, b, c, d;
+        private final int k;
+        private final Object accept;
+
+        private Key(int kind, double a, double b, double c, double d, int k, Object accept) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+            this.k = k;
+            this.accept = accept;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return kind == key.kind && a == key.a && b == key.b && c == key.c && d == key.d && k == key.k
+                    && accept == key.accept;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = kind;
+            h = 31 * h + Double.hashCode(a);
+            h = 31 * h + Double.hashCode(b);
+            h = 31 * h + Double.hashCode(c);
+            h = 31 * h + Double.hashCode(d);
+            h = 31 * h + k;
+            return 31 * h + System.identityHashCode(accept);
+        }
+    }
+
+    private static final class Result<T> {
+        private final int minX, maxX, minY, maxY;
+        private final long stamp;
+        private final List<T> result;
+
+        private Result(int minX, int maxX, int minY, int maxY, long stamp, List<T> result) {
+            this.minX = minX;
+            this.maxX = maxX;
+            this.minY = minY;
+            this.maxY = maxY;
+            this.stamp = stamp;
+            this.result = result;
+        }
+    }
+
+    private final int maxEntries;
+    private final int maxStamps;
+    private final CellMap<long[]> versions = new CellMap<>();
+    // cell written at each of the latest maxStamps stamps, by stamp modulo maxStamps
+    private final long[] written;
+    private final LinkedHashMap<Key, Result<T>> entries;
+    private long stamp;
+    private long hits;
+    private long misses;
+    private long stale;
+    private long evictions;
+
+    QueryCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.maxStamps = Math.max(1024, maxEntries * 16);
+        this.written = new long[maxStamps];
+        this.entries = new LinkedHashMap<Key, Result<T>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Result<T>> eldest) {
+                if (size() <= QueryCache.this.maxEntries) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Keys a range query by the block of cells its box covers, whatever the box within them.
+     */
+    static Key rangeKey(int minX, int maxX, int minY, int maxY) {
+        return new Key(0, minX, maxX, minY, maxY, 0, null);
+    }
+
+    /**
+     * Keys a nearest query by its parameters, {@code accept} included by identity: reuse the same
+     * predicate instance for the results to be shared.
+     */
+    static Key nearestKey(IPoint point, int k, double maxDistance, Object accept) {
+        return new Key(1, point.lat(), point.lon(), maxDistance, 0, k, accept);
+    }
+
+    void touch(long cell) {
+        long[] version = versions.get(cell);
+        if (version == null) {
+            if (versions.size() >= maxStamps) trim();
+            versions.put(cell, new long[]{++stamp});
+        } else {
+            version[0] = ++stamp;
+        }
+        written[(int) (stamp % maxStamps)] = cell;
+    }
+
+    // drops the stamps no result is older than, after the results older than the latest maxStamps / 2 writes
+    private void trim() {
+        long cutoff = stamp - maxStamps / 2;
+        long oldest = stamp;
+        for (Iterator<Result<T>> results = entries.values().iterator(); results.hasNext(); ) {
+            long resultStamp = results.next().stamp;
+            if (resultStamp < cutoff) {
+                results.remove();
+                evictions++;
+            } else {
+                oldest = Math.min(oldest, resultStamp);
+            }
+        }
+
+        long[] dropped = new long[versions.size()];
+        int n = 0;
+        for (int slot = 0; slot < versions.capacity(); slot++) {
+            long[] version = versions.valueAt(slot);
+            if (version != null && version[0] <= oldest) dropped[n++] = versions.keyAt(slot);
+        }
+        for (int i = 0; i < n; i++) {
+            versions.remove(dropped[i]);
+        }
+    }
+
+    /**
+     * The result stored for {@code key}, or {@code null} if there is none or a cell it read changed since.
+     */
+    List<T> get(Key key) {
+        Result<T> entry = entries.get(key);
+        if (entry != null && !isValid(entry)) {
+            entries.remove(key);
+            stale++;
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.result;
+    }
+
+    void put(Key key, int minX, int maxX, int minY, int maxY, List<T> result) {
+        entries.put(key, new Result<>(minX, maxX, minY, maxY, stamp, result));
+    }
+
+    private boolean isValid(Result<T> entry) {
+        if (entry.stamp == stamp) return true;
+
+        long cells = (long) (entry.maxX - entry.minX + 1) * (entry.maxY - entry.minY + 1);
+        if (stamp - entry.stamp < Math.min(cells, maxStamps)) {
+            // fewer writes since than the block holds
+            for (long s = entry.stamp + 1; s <= stamp; s++) {
+                long key = written[(int) (s % maxStamps)];
+                int x = Cell.xOf(key), y = Cell.yOf(key);
+                if (x >= entry.minX && x <= entry.maxX && y >= entry.minY && y <= entry.maxY) return false;
+            }
+            return true;
+        }
+
+        for (int x = entry.minX; x <= entry.maxX; x++) {
+            for (int y = entry.minY; y <= entry.maxY; y++) {
+                long[] version = versions.get(Cell.key(x, y));
+                if (version != null && version[0] > entry.stamp) return false;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // cells carrying a stamp
+    int stamps() {
+        return versions.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Queries computed, whether the result was missing or {@link #getStale() stale}.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Results dropped because a cell they read changed.
+     */
+    public long getStale() {
+        return stale;
+    }
+
+    /**
+     * Results dropped to make room, or because they were older than the stamps kept.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public double getHitRate() {
+        long queries = hits + misses;
+        return queries > 0 ? (double) hits / queries : 0;
+    }
+
+    /**
+     * Drops the results and the stamps of the cells, keeping the statistics.
+     */
+    public void clear() {
+        entries.clear();
+        versions.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCache{size=" + size() + ", hits=" + hits + ", misses=" + misses + ", stale=" + stale
+                + ", evictions=" + evictions + "}";
+    }
+
+}
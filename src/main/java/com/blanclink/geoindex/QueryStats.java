@@ -0,0 +1,114 @@
+package com.blanclink.geoindex;
+
+/**
+ * What one operation of a {@link PointIndex} did, passed to its {@link MetricsListener}. The index
+ * reuses a single instance, so a listener must copy what it keeps.
+ */
+public final class QueryStats {
+
+    public enum Operation {
+        ADD, REMOVE, RANGE, WITHIN_RADIUS, K_NEAREST
+    }
+
+    private Operation operation;
+    private long startNanos;
+    private long nanos;
+    int cellsVisited;
+    int cellsOccupied;
+    int rings;
+    int candidates;
+    int returned;
+    int distanceTests;
+    private int indexCells;
+    private int indexPoints;
+
+    QueryStats start(Operation operation) {
+        this.operation = operation;
+        this.cellsVisited = 0;
+        this.cellsOccupied = 0;
+        this.rings = 0;
+        this.candidates = 0;
+        this.returned = 0;
+        this.distanceTests = 0;
+        this.startNanos = System.nanoTime();
+        return this;
+    }
+
+    void finish(int indexCells, int indexPoints) {
+        this.nanos = System.nanoTime() - startNanos;
+        this.indexCells = indexCells;
+        this.indexPoints = indexPoints;
+    }
+
+    // counts a probed cell and the points it holds, which the query then tests
+    void visit(Bucket<?> entry) {
+        cellsVisited++;
+        if (entry != null) {
+            cellsOccupied++;
+            candidates += entry.size();
+        }
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Cells looked up, occupied or not.
+     */
+    public int getCellsVisited() {
+        return cellsVisited;
+    }
+
+    public int getCellsOccupied() {
+        return cellsOccupied;
+    }
+
+    /**
+     * Rings of cells around the center searched by {@code kNearest}.
+     */
+    public int getRings() {
+        return rings;
+    }
+
+    /**
+     * Points held by the occupied cells visited, each tested against the query.
+     */
+    public int getCandidates() {
+        return candidates;
+    }
+
+    public int getReturned() {
+        return returned;
+    }
+
+    /**
+     * Exact (haversine) distances evaluated; points settled by the approximate distance are not counted.
+     */
+    public int getDistanceTests() {
+        return distanceTests;
+    }
+
+    /**
+     * Cells of the index holding at least one point after the operation.
+     */
+    public int getIndexCells() {
+        return indexCells;
+    }
+
+    public int getIndexPoints() {
+        return indexPoints;
+    }
+
+    @Override
+    public String toString() {
+        return operation + " " + nanos / 1000 + "us: " + cellsVisited + " cells visited, " + cellsOccupied
+                + " occupied, " + rings + " rings, " + candidates + " candidates, " + returned + " returned, "
+                + distanceTests + " distance tests";
+    }
+
+}
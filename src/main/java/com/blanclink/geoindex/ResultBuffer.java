@@ -0,0 +1,48 @@
+package com.blanclink.geoindex;
+
+/**
+ * Caller-owned result of {@link PointIndex#kNearest(IPoint, int, double, java.util.function.Predicate, ResultBuffer)},
+ * nearest first. Each query overwrites the previous result; the buffer grows to the largest {@code k}
+ * it served and is reused from then on, so querying through the same buffer does not allocate.
+ */
+public class ResultBuffer<T extends IPoint> {
+
+    private final NearestHeap<T> heap = new NearestHeap<>(0);
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public T get(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        return heap.item(i);
+    }
+
+    public void clear() {
+        heap.clear(0, size);
+        size = 0;
+    }
+
+    NearestHeap<T> start(int k) {
+        clear();
+        heap.reset(k);
+        return heap;
+    }
+
+    /**
+     * Sorts the points offered since {@link #start} and returns their count.
+     */
+    int sort() {
+        return heap.sort();
+    }
+
+    void finish(int size) {
+        this.size = size;
+    }
+
+}
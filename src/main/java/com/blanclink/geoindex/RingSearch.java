@@ -0,0 +1,83 @@
+package com.blanclink.geoindex;
+
+import java.util.function.Predicate;
+
+import static com.blanclink.geoindex.Distances.distance;
+import static com.blanclink.geoindex.Distances.ringSquareDistance;
+import static java.lang.Math.max;
+
+/**
+ * The kNearest search shared by the point indexes: rings of cells around the cell of the center are
+ * offered to a heap ordered by approximate distance, until the next ring cannot improve on a full heap
+ * or lies beyond twice the maximum distance.
+ */
+final class RingSearch {
+
+    /**
+     * Offers the accepted points of the cells {@code minX..maxX, minY..maxY} to {@code nearest}.
+     */
+    interface Cells<T> {
+        void offer(NearestHeap<T> nearest, double lat, double lon, int minX, int maxX, int minY, int maxY,
+                   Predicate<T> accept, QueryStats stats);
+    }
+
+    private RingSearch() {
+    }
+
+    /**
+     * @return the number of rings searched around the center cell
+     */
+    static <T> int search(Cells<T> cells, IPoint point, double resolution, double maxDistance,
+                          Predicate<T> accept, NearestHeap<T> nearest, QueryStats stats) {
+        double lat = point.lat(), lon = point.lon();
+        int x = Cell.x(lat, resolution);
+        int y = Cell.y(lon, resolution);
+
+        cells.offer(nearest, lat, lon, x, x, y, y, accept, stats);
+
+        int rings = 0;
+        for (int d = 1; d * resolution <= coarseMaxDistance(resolution, maxDistance); d++) {
+            if (nearest.isFull() && ringSquareDistance(point, x, y, d, resolution) > nearest.worst()) break;
+
+            cells.offer(nearest, lat, lon, x-d, x+d, y+d, y+d, accept, stats);
+            cells.offer(nearest, lat, lon, x-d, x+d, y-d, y-d, accept, stats);
+            cells.offer(nearest, lat, lon, x-d, x-d, y-d+1, y+d-1, accept, stats);
+            cells.offer(nearest, lat, lon, x+d, x+d, y-d+1, y+d-1, accept, stats);
+            rings = d;
+        }
+        return rings;
+    }
+
+    /**
+     * The number of rings a search holding the points of {@code nearest} still visits: no point outside
+     * them can enter its results.
+     */
+    static <T> int reach(IPoint point, double resolution, double maxDistance, NearestHeap<T> nearest) {
+        int x = Cell.x(point.lat(), resolution);
+        int y = Cell.y(point.lon(), resolution);
+
+        int rings = 0;
+        for (int d = 1; d * resolution <= coarseMaxDistance(resolution, maxDistance); d++) {
+            if (nearest.isFull() && ringSquareDistance(point, x, y, d, resolution) > nearest.worst()) break;
+            rings = d;
+        }
+        return rings;
+    }
+
+    private static double coarseMaxDistance(double resolution, double maxDistance) {
+        return max(maxDistance * 2.0, resolution * 2.0 + 0.01);
+    }
+
+    /**
+     * Of the {@code n} items left sorted by {@link NearestHeap#sort()}, the number of leading ones within
+     * {@code maxDistance} of {@code point}: the first one beyond it ends the results.
+     */
+    static <T extends IPoint> int within(NearestHeap<T> nearest, int n, IPoint point, double maxDistance) {
+        int size = 0;
+        while (size < n && distance(point, nearest.item(size)) <= maxDistance) {
+            size++;
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,407 @@
+package com.blanclink.geoindex;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static com.blanclink.geoindex.Distances.*;
+import static java.lang.Math.*;
+
+/**
+ * Thread-safe index spreading its points over several {@link PointIndex} shards, each with its own lock
+ * and worker thread, so writers to different shards never contend and one query can use several cores.
+ * <p>
+ * Space is cut into square tiles of {@code tileCells} by {@code tileCells} cells and each tile belongs to
+ * one shard, picked by hashing the tile so that a hotspot covering a few tiles still spreads over several
+ * shards. A point lives in the shard of its cell. Queries only visit the shards owning a tile the box, or
+ * the cells the circle reaches, overlaps, each over the cells of its own tiles: the calling thread queries
+ * one of them and the workers of the others run in parallel, then the per-shard results are merged.
+ * {@code kNearest} asks the shard of the query point first and merges in the top {@code k}s of the shards
+ * that can still hold nearer points.
+ * <p>
+ * Call {@link #close()} to stop the workers.
+ */
+public class ShardedPointIndex<T extends IPoint> implements AutoCloseable {
+
+    private static final int DEFAULT_TILE_CELLS = 16;
+
+    private static final class Shard<T extends IPoint> {
+        private final int number;
+        private final PointIndex<T> index;
+        private final ExecutorService executor;
+
+        private Shard(int number, PointIndex<T> index, ExecutorService executor) {
+            this.number = number;
+            this.index = index;
+            this.executor = executor;
+        }
+    }
+
+    private final double resolution;
+    private final int tileCells;
+    private final List<Shard<T>> shards;
+    private final ConcurrentMap<String, Shard<T>> owner = new ConcurrentHashMap<>();
+    private final boolean parallel = Runtime.getRuntime().availableProcessors() > 1;
+
+    public ShardedPointIndex(double resolution, int shards) {
+        this(resolution, shards, DEFAULT_TILE_CELLS, null, null);
+    }
+
+    public ShardedPointIndex(double resolution, int shards, int tileCells) {
+        this(resolution, shards, tileCells, null, null);
+    }
+
+    public ShardedPointIndex(double resolution, int shards, int tileCells, Duration expiration) {
+        this(resolution, shards, tileCells, expiration, Clock.systemUTC());
+    }
+
+    public ShardedPointIndex(double resolution, int shards, int tileCells, Duration expiration, Clock clock) {
+        if (shards < 1) throw new IllegalArgumentException("shards must be at least 1");
+        if (tileCells < 1) throw new IllegalArgumentException("tileCells must be at least 1");
+
+        this.resolution = resolution;
+        this.tileCells = tileCells;
+        this.shards = new ArrayList<>(shards);
+
+        for (int i = 0; i < shards; i++) {
+            String name = "geoindex-shard-" + i;
+            ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            PointIndex<T> index = expiration != null
+                    ? new PointIndex<>(resolution, expiration, clock) : new PointIndex<>(resolution);
+            Shard<T> shard = new Shard<>(i, index, executor);
+            index.addListener(new PointListener<T>() {
+                @Override
+                public void onAdd(T point) {
+                }
+
+                // the point stays in this shard
+                @Override
+                public void onMove(T previous, T point) {
+                }
+
+                // also reached when the point expires or leaves for another shard
+                @Override
+                public void onRemove(T point) {
+                    owner.remove(point.getId(), shard);
+                }
+            });
+            this.shards.add(shard);
+        }
+    }
+
+    private Shard<T> shardOf(int x, int y) {
+        long tile = Cell.key(floorDiv(x, tileCells), floorDiv(y, tileCells));
+        return shards.get((int) (((tile * 0x9E3779B97F4A7C15L) >>> 32) % shards.size()));
+    }
+
+    private Shard<T> shardOf(IPoint point) {
+        return shardOf(Cell.x(point.lat(), resolution), Cell.y(point.lon(), resolution));
+    }
+
+    // the shards owning a tile of the block of cells, in shard order
+    private List<Shard<T>> shardsOf(int minX, int maxX, int minY, int maxY) {
+        boolean[] hit = new boolean[shards.size()];
+        int found = 0;
+
+        for (int tileX = floorDiv(minX, tileCells); tileX <= floorDiv(maxX, tileCells) && found < hit.length; tileX++) {
+            for (int tileY = floorDiv(minY, tileCells); tileY <= floorDiv(maxY, tileCells) && found < hit.length; tileY++) {
+                int i = shardOf(tileX * tileCells, tileY * tileCells).number;
+                if (!hit[i]) {
+                    hit[i] = true;
+                    found++;
+                }
+            }
+        }
+
+        List<Shard<T>> result = new ArrayList<>(found);
+        for (int i = 0; i < hit.length; i++) {
+            if (hit[i]) result.add(shards.get(i));
+        }
+        return result;
+    }
+
+    // appends the part of the block of cells minX..maxX, minY..maxY in each tile to the blocks of the shard
+    // owning the tile, each holding minX, maxX, minY, maxY per block after the number of ints it uses
+    private void addBlocks(int[][] blocks, int minX, int maxX, int minY, int maxY) {
+        for (int tileX = floorDiv(minX, tileCells); tileX <= floorDiv(maxX, tileCells); tileX++) {
+            for (int tileY = floorDiv(minY, tileCells); tileY <= floorDiv(maxY, tileCells); tileY++) {
+                int i = shardOf(tileX * tileCells, tileY * tileCells).number;
+                int[] own = blocks[i];
+                if (own == null) {
+                    blocks[i] = own = new int[17];
+                } else if (own[0] + 5 > own.length) {
+                    blocks[i] = own = Arrays.copyOf(own, own.length * 2);
+                }
+
+                int n = own[0];
+                own[n + 1] = max(minX, tileX * tileCells);
+                own[n + 2] = min(maxX, tileX * tileCells + tileCells - 1);
+                own[n + 3] = max(minY, tileY * tileCells);
+                own[n + 4] = min(maxY, tileY * tileCells + tileCells - 1);
+                own[0] = n + 4;
+            }
+        }
+    }
+
+    // the shards with blocks, in shard order, trimming their blocks to the ints they use
+    private List<Shard<T>> shardsOf(int[][] blocks) {
+        List<Shard<T>> result = new ArrayList<>();
+        for (int i = 0; i < blocks.length; i++) {
+            if (blocks[i] != null) {
+                blocks[i] = Arrays.copyOfRange(blocks[i], 1, blocks[i][0] + 1);
+                result.add(shards.get(i));
+            }
+        }
+        return result;
+    }
+
+    // the blocks of cells, by shard, which can hold points within the circle: the rows it crosses over the
+    // columns it reaches at any of them, in two ranges when it crosses the antimeridian
+    private int[][] blocksWithin(IPoint center, double meters) {
+        double lat = center.lat(), lon = center.lon();
+        double dLat = meters / Cell.LAT_DEGREE_LENGTH;
+        double south = max(lat - dLat, -90.0), north = min(lat + dLat, 90.0);
+        int minX = Cell.x(south, resolution), maxX = Cell.x(north, resolution);
+        int lastY = Cell.y(180.0, resolution);
+
+        int[][] blocks = new int[shards.size()][];
+        double halfWidth = lonHalfWidth(lat, meters * (1.0 + PointIndex.RADIUS_MARGIN) + 1.0, south, north);
+        double west = lon - halfWidth, east = lon + halfWidth;
+        if (halfWidth >= 180.0 || (west < -180.0 && Cell.y(west + 360.0, resolution) <= Cell.y(east, resolution))
+                || (east > 180.0 && Cell.y(east - 360.0, resolution) >= Cell.y(west, resolution))) {
+            addBlocks(blocks, minX, maxX, 0, lastY);
+        } else if (west < -180.0) {
+            addBlocks(blocks, minX, maxX, 0, Cell.y(east, resolution));
+            addBlocks(blocks, minX, maxX, Cell.y(west + 360.0, resolution), lastY);
+        } else if (east > 180.0) {
+            addBlocks(blocks, minX, maxX, Cell.y(west, resolution), lastY);
+            addBlocks(blocks, minX, maxX, 0, Cell.y(east - 360.0, resolution));
+        } else {
+            addBlocks(blocks, minX, maxX, Cell.y(west, resolution), Cell.y(east, resolution));
+        }
+        return blocks;
+    }
+
+    public T get(String id) {
+        Shard<T> shard = owner.get(id);
+        if (shard == null) return null;
+
+        synchronized (shard) {
+            return shard.index.get(id);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard<T> shard : shards) {
+            synchronized (shard) {
+                size += shard.index.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * See {@link PointIndex#expire()}; sweeps every shard in turn.
+     */
+    public int expire() {
+        int expired = 0;
+        for (Shard<T> shard : shards) {
+            synchronized (shard) {
+                expired += shard.index.expire();
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Adds or moves {@code point}. A move into another shard locks both shards, the one with the lower
+     * number first, and removes the point from its previous shard. Ownership of the id is claimed with
+     * {@code putIfAbsent}/{@code replace} under the lock of the destination, so two writers racing on the
+     * same id never both insert it; the loser retries against the new owner.
+     */
+    public void add(T point) {
+        String id = point.getId();
+        Shard<T> to = shardOf(point);
+
+        while (true) {
+            Shard<T> from = owner.get(id);
+            Shard<T> first = to, second = to;
+            if (from != null && from != to) {
+                boolean ordered = from.number < to.number;
+                first = ordered ? from : to;
+                second = ordered ? to : from;
+            }
+
+            synchronized (first) {
+                synchronized (second) {
+                    if (from == null ? owner.putIfAbsent(id, to) != null : !owner.replace(id, from, to)) continue;
+
+                    if (from != null && from != to) {
+                        from.index.remove(id);
+                    }
+                    to.index.add(point);
+                    return;
+                }
+            }
+        }
+    }
+
+    public void remove(String id) {
+        while (true) {
+            Shard<T> shard = owner.get(id);
+            if (shard == null) return;
+
+            synchronized (shard) {
+                if (owner.get(id) != shard) continue;
+                shard.index.remove(id);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Each shard only scans the cells of the box in the tiles it owns.
+     */
+    public List<T> range(IPoint topLeft, IPoint bottomRight) {
+        int[][] blocks = new int[shards.size()][];
+        addBlocks(blocks, Cell.x(bottomRight.lat(), resolution), Cell.x(topLeft.lat(), resolution),
+                Cell.y(topLeft.lon(), resolution), Cell.y(bottomRight.lon(), resolution));
+
+        List<T> result = new ArrayList<>();
+        for (List<T> points : scatter(shardsOf(blocks), shard -> {
+            List<T> found = new ArrayList<>();
+            shard.index.range(topLeft, bottomRight, blocks[shard.number], found::add);
+            return found;
+        })) {
+            result.addAll(points);
+        }
+        return result;
+    }
+
+    /**
+     * Each shard only scans the cells the circle can reach in the tiles it owns.
+     */
+    public List<T> withinRadius(IPoint center, double meters, Predicate<T> accept) {
+        int[][] blocks = blocksWithin(center, meters);
+
+        List<T> result = new ArrayList<>();
+        for (List<T> points : scatter(shardsOf(blocks),
+                shard -> shard.index.withinRadius(center, meters, accept, blocks[shard.number]))) {
+            result.addAll(points);
+        }
+        return result;
+    }
+
+    /**
+     * Queries the shard of {@code point} first. Its nearest points bound the rings of cells a single index
+     * would search, so only the shards owning a tile of those rings are asked for theirs. All are ranked by
+     * the approximate distance a single index ranks by, then cut at {@code maxDistance} as it does.
+     */
+    public List<T> kNearest(IPoint point, int k, double maxDistance, Predicate<T> accept) {
+        if (k <= 0) return new ArrayList<>();
+
+        Shard<T> home = shardOf(point);
+        NearestHeap<T> nearest = new NearestHeap<>(k);
+        synchronized (home) {
+            offer(nearest, point, home.index.nearestCandidates(point, k, maxDistance, accept));
+        }
+
+        int x = Cell.x(point.lat(), resolution), y = Cell.y(point.lon(), resolution);
+        int rings = RingSearch.reach(point, resolution, maxDistance, nearest);
+        List<Shard<T>> targets = shardsOf(x - rings, x + rings, y - rings, y + rings);
+        targets.remove(home);
+        for (List<T> points : scatter(targets, shard -> shard.index.nearestCandidates(point, k, maxDistance, accept))) {
+            offer(nearest, point, points);
+        }
+
+        int n = nearest.sort();
+        int size = RingSearch.within(nearest, n, point, maxDistance);
+        List<T> nearbyPoints = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            nearbyPoints.add(nearest.item(i));
+        }
+        return nearbyPoints;
+    }
+
+    private static <T extends IPoint> void offer(NearestHeap<T> nearest, IPoint point, List<T> candidates) {
+        for (T candidate : candidates) {
+            nearest.offer(candidate, approximateSquareDistance(point, candidate));
+        }
+    }
+
+    // runs the query on the first shard in the calling thread and on the others in their workers,
+    // or on all of them in the calling thread when a single processor would only switch between them
+    private List<List<T>> scatter(List<Shard<T>> targets, Function<Shard<T>, List<T>> query) {
+        int inline = parallel ? min(1, targets.size()) : targets.size();
+
+        List<Future<List<T>>> futures = new ArrayList<>(targets.size() - inline);
+        for (int i = inline; i < targets.size(); i++) {
+            Shard<T> shard = targets.get(i);
+            futures.add(shard.executor.submit(() -> {
+                synchronized (shard) {
+                    return query.apply(shard);
+                }
+            }));
+        }
+
+        List<List<T>> results = new ArrayList<>(targets.size());
+        for (int i = 0; i < inline; i++) {
+            Shard<T> shard = targets.get(i);
+            synchronized (shard) {
+                results.add(query.apply(shard));
+            }
+        }
+
+        try {
+            for (Future<List<T>> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
+
+    public double getResolution() {
+        return resolution;
+    }
+
+    public int getShards() {
+        return shards.size();
+    }
+
+    /**
+     * Stops the workers; queries spanning several shards fail afterwards.
+     */
+    @Override
+    public void close() {
+        for (Shard<T> shard : shards) {
+            shard.executor.shutdown();
+        }
+    }
+
+    int[] shardSizes() {
+        int[] sizes = new int[shards.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            Shard<T> shard = shards.get(i);
+            synchronized (shard) {
+                sizes[i] = shard.index.size();
+            }
+        }
+        return sizes;
+    }
+
+}
@@ -0,0 +1,517 @@
+package com.blanclink.geoindex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Binary snapshot of the points of an index, read in place from a memory-mapped file.
+ * <p>
+ * Layout, big-endian, every section starting on its natural alignment:
+ * <pre>
+ *     header     int magic, int version, double resolution, int flags, int cells, int points, int idBytes
+ *     cells      per cell, ordered by key: long key, int first point, int point count
+ *     lat, lon   per point, ordered by cell: double
+ *     deadlines  per point, if flags has DEADLINES: long expiration deadline in epoch millis
+ *     byDeadline if flags has DEADLINES: int point numbers, ordered by deadline
+ *     idOffsets  per point and one past the last: int offset of the id in idBytes
+ *     byId       open-addressing table of point number + 1 (0 when free), linearly probed from the
+ *                FNV-1a hash of the UTF-8 id; its size is the smallest power of two of at least twice the points
+ *     idBytes    UTF-8 ids
+ * </pre>
+ * The flags also record whether the index was sparse and, from bit {@code STORAGE_SHIFT}, the ordinal
+ * of its {@link CellStorage}. A single mapping limits a snapshot to 2 GB, about 50 million points with
+ * short ids.
+ */
+final class Snapshot {
+
+    static final int MAGIC = 0x47454F58; // "GEOX"
+    static final int VERSION = 2;
+    static final int DEADLINES = 1;
+    static final int SPARSE = 2;
+    static final int STORAGE_SHIFT = 8;
+
+    private static final int HEADER_BYTES = 32;
+    private static final int CELL_BYTES = 16;
+
+    private final ByteBuffer buffer;
+    private final double resolution;
+    private final int flags;
+    private final int cells;
+    private final int points;
+    private final int latAt, lonAt, deadlinesAt, byDeadlineAt, idOffsetsAt, byIdAt, idBytesAt;
+    private final int tableMask;
+
+    private Snapshot(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("not an index snapshot");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("unsupported snapshot version " + buffer.getInt(4));
+        }
+
+        this.resolution = buffer.getDouble(8);
+        this.flags = buffer.getInt(16);
+        this.cells = buffer.getInt(20);
+        this.points = buffer.getInt(24);
+
+        this.latAt = HEADER_BYTES + cells * CELL_BYTES;
+        this.lonAt = latAt + points * 8;
+        this.deadlinesAt = lonAt + points * 8;
+        this.byDeadlineAt = deadlinesAt + ((flags & DEADLINES) != 0 ? points * 8 : 0);
+        this.idOffsetsAt = byDeadlineAt + ((flags & DEADLINES) != 0 ? points * 4 : 0);
+        this.byIdAt = idOffsetsAt + (points + 1) * 4;
+        this.tableMask = tableSize(points) - 1;
+        this.idBytesAt = byIdAt + (tableMask + 1) * 4;
+
+        if (idBytesAt + buffer.getInt(28) != buffer.capacity()) {
+            throw new IllegalArgumentException("truncated index snapshot");
+        }
+    }
+
+    static Snapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping outlives the channel
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Snapshot(buffer);
+        }
+    }
+
+    double resolution() {
+        return resolution;
+    }
+
+    int cells() {
+        return cells;
+    }
+
+    int points() {
+        return points;
+    }
+
+    boolean hasDeadlines() {
+        return (flags & DEADLINES) != 0;
+    }
+
+    boolean isSparse() {
+        return (flags & SPARSE) != 0;
+    }
+
+    CellStorage storage() {
+        return CellStorage.values()[flags >>> STORAGE_SHIFT];
+    }
+
+    long cellKey(int cell) {
+        return buffer.getLong(HEADER_BYTES + cell * CELL_BYTES);
+    }
+
+    int cellFirst(int cell) {
+        return buffer.getInt(HEADER_BYTES + cell * CELL_BYTES + 8);
+    }
+
+    int cellCount(int cell) {
+        return buffer.getInt(HEADER_BYTES + cell * CELL_BYTES + 12);
+    }
+
+    double lat(int point) {
+        return buffer.getDouble(latAt + point * 8);
+    }
+
+    double lon(int point) {
+        return buffer.getDouble(lonAt + point * 8);
+    }
+
+    long deadline(int point) {
+        return buffer.getLong(deadlinesAt + point * 8);
+    }
+
+    // the point with the rank-th earliest deadline
+    int byDeadline(int rank) {
+        return buffer.getInt(byDeadlineAt + rank * 4);
+    }
+
+    String id(int point) {
+        int from = buffer.getInt(idOffsetsAt + point * 4), to = buffer.getInt(idOffsetsAt + point * 4 + 4);
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(idBytesAt + from + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    boolean idEquals(int point, byte[] id) {
+        int from = buffer.getInt(idOffsetsAt + point * 4), to = buffer.getInt(idOffsetsAt + point * 4 + 4);
+        if (to - from != id.length) return false;
+
+        for (int i = 0; i < id.length; i++) {
+            if (buffer.get(idBytesAt + from + i) != id[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of the point with {@code id}, or -1.
+     */
+    int find(String id) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        for (int i = hash(bytes) & tableMask; ; i = (i + 1) & tableMask) {
+            int point = buffer.getInt(byIdAt + i * 4) - 1;
+            if (point < 0) return -1;
+            if (idEquals(point, bytes)) return point;
+        }
+    }
+
+    private static int tableSize(int points) {
+        int size = 2;
+        while (size < points * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static int hash(byte[] bytes) {
+        int h = 0x811C9DC5;
+        for (byte b : bytes) {
+            h = (h ^ (b & 0xFF)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Writes the cells of {@code index} to {@code path} through a temporary file, so that readers
+     * never see a partial snapshot; the temporary file is deleted if writing fails.
+     *
+     * @param deadlines expiration deadline per id, or {@code null}
+     */
+    static <T extends IPoint> void write(Path path, GeoIndex<Bucket<T>> index, CellStorage storage,
+                                         Map<String, Long> deadlines) throws IOException {
+        long[] keys = index.keys();
+        Arrays.sort(keys);
+
+        List<T> points = new ArrayList<>();
+        int[] counts = new int[keys.length];
+        for (int cell = 0; cell < keys.length; cell++) {
+            int before = points.size();
+            index.find(keys[cell]).collect(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                    Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, point -> true, points);
+            counts[cell] = points.size() - before;
+        }
+
+        byte[][] ids = new byte[points.size()][];
+        int idBytes = 0;
+        int[] byId = new int[tableSize(ids.length)];
+        for (int point = 0; point < ids.length; point++) {
+            ids[point] = points.get(point).getId().getBytes(StandardCharsets.UTF_8);
+            idBytes += ids[point].length;
+
+            int i = hash(ids[point]) & (byId.length - 1);
+            while (byId[i] != 0) i = (i + 1) & (byId.length - 1);
+            byId[i] = point + 1;
+        }
+
+        int flags = (deadlines != null ? DEADLINES : 0) | (index.isSparse() ? SPARSE : 0)
+                | storage.ordinal() << STORAGE_SHIFT;
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            write(temporary, index.getResolution(), flags, keys, counts, points, ids, idBytes, byId, deadlines);
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    private static <T extends IPoint> void write(Path temporary, double resolution, int flags, long[] keys, int[] counts,
+                                                 List<T> points, byte[][] ids, int idBytes, int[] byId,
+                                                 Map<String, Long> deadlines) throws IOException {
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Output out = new Output(channel);
+            int cells = 0;
+            for (int count : counts) {
+                if (count > 0) cells++;
+            }
+
+            out.buffer(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putDouble(resolution)
+                    .putInt(flags).putInt(cells).putInt(points.size()).putInt(idBytes);
+
+            int first = 0;
+            for (int cell = 0; cell < keys.length; cell++) {
+                if (counts[cell] == 0) continue;
+                out.buffer(CELL_BYTES).putLong(keys[cell]).putInt(first).putInt(counts[cell]);
+                first += counts[cell];
+            }
+            for (T point : points) out.buffer(8).putDouble(point.lat());
+            for (T point : points) out.buffer(8).putDouble(point.lon());
+            if (deadlines != null) {
+                long[] deadline = new long[points.size()];
+                for (int point = 0; point < deadline.length; point++) {
+                    deadline[point] = deadlines.get(points.get(point).getId());
+                    out.buffer(8).putLong(deadline[point]);
+                }
+                int[] byDeadline = IntStream.range(0, deadline.length).boxed()
+                        .sorted(Comparator.comparingLong(point -> deadline[point])).mapToInt(point -> point).toArray();
+                for (int point : byDeadline) out.buffer(4).putInt(point);
+            }
+
+            int offset = 0;
+            for (byte[] id : ids) {
+                out.buffer(4).putInt(offset);
+                offset += id.length;
+            }
+            out.buffer(4).putInt(offset);
+            for (int entry : byId) out.buffer(4).putInt(entry);
+            for (byte[] id : ids) out.put(id);
+
+            out.flush();
+            channel.force(true);
+        }
+    }
+
+    private static final class Output {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+
+        private Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        // room for the next {@code bytes} bytes
+        private ByteBuffer buffer(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) flush();
+            return buffer;
+        }
+
+        private void put(byte[] bytes) throws IOException {
+            for (int from = 0; from < bytes.length; ) {
+                int length = Math.min(bytes.length - from, buffer(1).remaining());
+                buffer.put(bytes, from, length);
+                from += length;
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * The points of a snapshot, each created by the factory the first time it is read and kept for later
+     * reads, so that repeated queries stop allocating. Points are kept in chunks allocated as they are
+     * first touched; a racing read at worst creates a point twice.
+     */
+    static final class Points<T extends IPoint> {
+
+        private static final int CHUNK_BITS = 12;
+
+        private final Snapshot snapshot;
+        private final PointFactory<? extends T> factory;
+        private final Object[][] chunks;
+
+        Points(Snapshot snapshot, PointFactory<? extends T> factory) {
+            this.snapshot = snapshot;
+            this.factory = factory;
+            this.chunks = new Object[(snapshot.points() >>> CHUNK_BITS) + 1][];
+        }
+
+        Snapshot snapshot() {
+            return snapshot;
+        }
+
+        @SuppressWarnings("unchecked")
+        T get(int point) {
+            Object[] chunk = chunks[point >>> CHUNK_BITS];
+            if (chunk == null) chunks[point >>> CHUNK_BITS] = chunk = new Object[1 << CHUNK_BITS];
+
+            int i = point & ((1 << CHUNK_BITS) - 1);
+            T created = (T) chunk[i];
+            if (created == null) {
+                chunk[i] = created = factory.create(snapshot.id(point), snapshot.lat(point), snapshot.lon(point));
+            }
+            return created;
+        }
+    }
+
+    /**
+     * Id to point map reading through to the snapshot for ids not changed since it was opened. With an
+     * expiration, the deadlines of those ids are read from the snapshot as well and swept by
+     * {@link #expire} in deadline order, without scheduling a timer per point.
+     */
+    static final class Positions<T extends IPoint> extends AbstractMap<String, T> {
+
+        private final Points<T> points;
+        private final Snapshot snapshot;
+        // deadline of every point of a snapshot written without deadlines, -1 if none expire
+        private final long deadline;
+        private final Map<String, T> changed = new HashMap<>();
+        // snapshot ids that have since been replaced or removed
+        private final Set<String> shadowed = new HashSet<>();
+        private boolean cleared;
+        private int size;
+        // rank of the next deadline to sweep
+        private int nextDeadline;
+
+        Positions(Points<T> points, long deadline) {
+            this.points = points;
+            this.snapshot = points.snapshot();
+            this.deadline = deadline;
+            this.size = snapshot.points();
+        }
+
+        private int inSnapshot(String id) {
+            return cleared || shadowed.contains(id) ? -1 : snapshot.find(id);
+        }
+
+        /**
+         * Returns the deadline in the snapshot of {@code id} if it has not changed since, or -1.
+         */
+        long deadline(String id) {
+            int i = deadline >= 0 || snapshot.hasDeadlines() ? inSnapshot(id) : -1;
+            if (i < 0) return -1;
+            return snapshot.hasDeadlines() ? snapshot.deadline(i) : deadline;
+        }
+
+        /**
+         * Passes to {@code expire} each id not changed since the snapshot was opened whose deadline is at
+         * most {@code now}; ids that changed have their own timers.
+         *
+         * @return the number of ids passed
+         */
+        int expire(long now, Consumer<String> expire) {
+            int expired = 0;
+            while (nextDeadline < snapshot.points() && !cleared) {
+                int point = snapshot.hasDeadlines() ? snapshot.byDeadline(nextDeadline) : nextDeadline;
+                long at = snapshot.hasDeadlines() ? snapshot.deadline(point) : deadline;
+                if (at < 0 || at > now) break;
+
+                nextDeadline++;
+                String id = snapshot.id(point);
+                if (!shadowed.contains(id)) {
+                    expire.accept(id);
+                    expired++;
+                }
+            }
+            return expired;
+        }
+
+        @Override
+        public T get(Object key) {
+            if (!(key instanceof String)) return null;
+
+            T point = changed.get(key);
+            if (point != null) return point;
+
+            int i = inSnapshot((String) key);
+            return i >= 0 ? points.get(i) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public T put(String id, T point) {
+            T previous = changed.put(id, point);
+            if (previous == null) {
+                int i = inSnapshot(id);
+                if (i >= 0) {
+                    shadowed.add(id);
+                    previous = points.get(i);
+                } else {
+                    size++;
+                }
+            }
+            return previous;
+        }
+
+        @Override
+        public T remove(Object key) {
+            if (!(key instanceof String)) return null;
+
+            T previous = changed.remove(key);
+            if (previous == null) {
+                int i = inSnapshot((String) key);
+                if (i < 0) return null;
+                shadowed.add((String) key);
+                previous = points.get(i);
+            }
+            size--;
+            return previous;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            changed.clear();
+            shadowed.clear();
+            cleared = true;
+            size = 0;
+        }
+
+        @Override
+        public Set<Entry<String, T>> entrySet() {
+            return new AbstractSet<Entry<String, T>>() {
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public Iterator<Entry<String, T>> iterator() {
+                    Iterator<Entry<String, T>> changes = changed.entrySet().iterator();
+
+                    return new Iterator<Entry<String, T>>() {
+
+                        private int next = cleared ? snapshot.points() : -1;
+                        private Entry<String, T> entry = advance();
+
+                        private Entry<String, T> advance() {
+                            if (changes.hasNext()) return changes.next();
+
+                            while (++next < snapshot.points()) {
+                                String id = snapshot.id(next);
+                                if (!shadowed.contains(id)) {
+                                    return new SimpleImmutableEntry<>(id, points.get(next));
+                                }
+                            }
+                            return null;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return entry != null;
+                        }
+
+                        @Override
+                        public Entry<String, T> next() {
+                            if (entry == null) throw new NoSuchElementException();
+                            Entry<String, T> current = entry;
+                            entry = advance();
+                            return current;
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.blanclink.geoindex;
+
+/**
+ * A position recorded by a {@link HistoryIndex}, with the time it was recorded at.
+ */
+public class TimedPoint<T extends IPoint> {
+
+    private final T point;
+    private final long time;
+
+    TimedPoint(T point, long time) {
+        this.point = point;
+        this.time = time;
+    }
+
+    public T getPoint() {
+        return point;
+    }
+
+    public String getId() {
+        return point.getId();
+    }
+
+    public double lat() {
+        return point.lat();
+    }
+
+    public double lon() {
+        return point.lon();
+    }
+
+    /**
+     * Milliseconds since the epoch.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return point + "@" + time;
+    }
+
+}
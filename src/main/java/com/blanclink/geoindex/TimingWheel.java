@@ -0,0 +1,216 @@
+package com.blanclink.geoindex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel holding at most one timer per key.
+ * <p>
+ * Level {@code l} has 64 slots of {@code 64^l} ticks each. Rescheduling a key moves its existing
+ * timer node, so a key updated every second for an hour still costs a single node. {@link #advance}
+ * jumps over empty level 0 slots using an occupancy bitmap, so its cost is bounded by the timers
+ * fired and cascaded plus one step per 64 ticks elapsed. Not thread-safe.
+ */
+public class TimingWheel<K> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 64 / SLOT_BITS;
+    // extra level holding timers scheduled at or before the current tick
+    private static final int DUE = LEVELS;
+
+    private static final class Timer<K> {
+        private final K key;
+        private long deadline;
+        private int level;
+        private int slot;
+        private Timer<K> prev;
+        private Timer<K> next;
+
+        private Timer(K key) {
+            this.key = key;
+        }
+    }
+
+    private final long tickMillis;
+    private final Map<K, Timer<K>> timers = new HashMap<>();
+    private final Timer<?>[][] wheels = new Timer<?>[LEVELS + 1][SLOTS];
+    private final long[] occupied = new long[LEVELS + 1];
+    private long currentTick;
+
+    public TimingWheel(long tickMillis, long startMillis) {
+        if (tickMillis <= 0) throw new IllegalArgumentException("tickMillis must be positive");
+        this.tickMillis = tickMillis;
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    public int size() {
+        return timers.size();
+    }
+
+    public boolean isScheduled(K key) {
+        return timers.containsKey(key);
+    }
+
+    /**
+     * Returns the deadline of the timer of {@code key}, rounded up to a whole tick, or -1 if none is scheduled.
+     */
+    public long deadline(K key) {
+        Timer<K> timer = timers.get(key);
+        return timer != null ? timer.deadline * tickMillis : -1;
+    }
+
+    /**
+     * Schedules {@code key} to fire once the clock reaches {@code deadlineMillis}, replacing its previous timer.
+     */
+    public void schedule(K key, long deadlineMillis) {
+        Timer<K> timer = timers.get(key);
+
+        if (timer == null) {
+            timer = new Timer<>(key);
+            timers.put(key, timer);
+        } else {
+            unlink(timer);
+        }
+
+        timer.deadline = (deadlineMillis + tickMillis - 1) / tickMillis;
+        place(timer);
+    }
+
+    public boolean cancel(K key) {
+        Timer<K> timer = timers.remove(key);
+        if (timer == null) return false;
+
+        unlink(timer);
+        return true;
+    }
+
+    public void clear() {
+        timers.clear();
+        for (int level = 0; level <= LEVELS; level++) {
+            Arrays.fill(wheels[level], null);
+            occupied[level] = 0;
+        }
+    }
+
+    /**
+     * Fires, in deadline order, every timer whose deadline is at or before {@code nowMillis}.
+     *
+     * @return the number of timers fired
+     */
+    public int advance(long nowMillis, Consumer<? super K> onExpire) {
+        long target = nowMillis / tickMillis;
+        int fired = fire(DUE, 0, onExpire);
+
+        while (currentTick < target) {
+            if (timers.isEmpty()) {
+                currentTick = target;
+                break;
+            }
+
+            // jump to the next occupied level 0 slot, or to the end of this rotation
+            int offset = (int) (currentTick & SLOT_MASK);
+            long pending = offset == SLOT_MASK ? 0 : occupied[0] & (-1L << (offset + 1));
+            long next = pending != 0
+                    ? (currentTick & ~SLOT_MASK) + Long.numberOfTrailingZeros(pending)
+                    : (currentTick | SLOT_MASK) + 1;
+
+            if (next > target) {
+                currentTick = target;
+                break;
+            }
+
+            currentTick = next;
+            if ((currentTick & SLOT_MASK) == 0) {
+                // timers cascading onto the current tick land on the due list
+                cascade(1);
+                fired += fire(DUE, 0, onExpire);
+            }
+            fired += fire(0, (int) (currentTick & SLOT_MASK), onExpire);
+        }
+
+        return fired;
+    }
+
+    // slots are drained from the head so that callbacks may cancel or schedule other timers
+    @SuppressWarnings("unchecked")
+    private int fire(int level, int slot, Consumer<? super K> onExpire) {
+        int fired = 0;
+        Timer<K> timer;
+
+        while ((timer = (Timer<K>) wheels[level][slot]) != null) {
+            unlink(timer);
+
+            if (timer.deadline <= currentTick) {
+                timers.remove(timer.key);
+                onExpire.accept(timer.key);
+                fired++;
+            } else {
+                place(timer);
+            }
+        }
+
+        return fired;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void cascade(int level) {
+        if (level >= LEVELS) return;
+
+        int slot = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        if (slot == 0) {
+            cascade(level + 1);
+        }
+
+        Timer<K> timer;
+        while ((timer = (Timer<K>) wheels[level][slot]) != null) {
+            unlink(timer);
+            place(timer);
+        }
+    }
+
+    // a timer sits on the lowest level whose current rotation contains its deadline
+    private void place(Timer<K> timer) {
+        long deadline = timer.deadline;
+        if (deadline <= currentTick) {
+            link(timer, DUE, 0);
+            return;
+        }
+
+        int level = 0;
+        while (level < LEVELS - 1
+                && (deadline >>> (SLOT_BITS * (level + 1))) != (currentTick >>> (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+
+        link(timer, level, (int) ((deadline >>> (SLOT_BITS * level)) & SLOT_MASK));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void link(Timer<K> timer, int level, int slot) {
+        Timer<K> head = (Timer<K>) wheels[level][slot];
+        timer.level = level;
+        timer.slot = slot;
+        timer.prev = null;
+        timer.next = head;
+        if (head != null) head.prev = timer;
+        wheels[level][slot] = timer;
+        occupied[level] |= 1L << slot;
+    }
+
+    private void unlink(Timer<K> timer) {
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            wheels[timer.level][timer.slot] = timer.next;
+            if (timer.next == null) occupied[timer.level] &= ~(1L << timer.slot);
+        }
+        if (timer.next != null) timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+    }
+
+}
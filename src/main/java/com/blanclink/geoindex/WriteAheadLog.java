@@ -0,0 +1,481 @@
+package com.blanclink.geoindex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Durable record of the changes of a {@link PointIndex}, from which {@link #recover} rebuilds the index
+ * after a restart.
+ * <p>
+ * The directory holds one checkpoint, a {@link PointIndex#writeSnapshot snapshot}, and the logs of the
+ * changes since, numbered by generation: {@code checkpoint-N.snapshot} covers everything before
+ * {@code log-N.wal}. Each log starts with {@code int magic, int version} and holds big-endian records:
+ * <pre>
+ *     ID      byte 3, int ref, short length, UTF-8 id; precedes the first record of an id in the log
+ *     ADD     byte 1, int ref, double lat, double lon, long epoch millis
+ *     REMOVE  byte 2, int ref
+ * </pre>
+ * Changes are appended to a memory buffer; {@link #flush()}, typically run by {@link #scheduleFlush},
+ * writes and forces everything appended since the previous flush at once, so the index's thread never
+ * waits on the disk and a crash loses at most one flush period. Expirations are not logged: they follow
+ * from the times of the ADD records. Call {@link #checkpoint()} now and then from the thread using the
+ * index to bound the log to replay.
+ */
+public class WriteAheadLog implements PointListener<IPoint>, AutoCloseable {
+
+    static final int MAGIC = 0x4757414C; // "GWAL"
+    static final int VERSION = 1;
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte ID = 3;
+
+    private static final int ADD_BYTES = 29;
+    private static final int REMOVE_BYTES = 5;
+
+    private final Path directory;
+    private final Clock clock;
+    // refs of the ids of the current log, used by the index's thread only
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final Object channelLock = new Object();
+    private PointIndex<?> index;
+    private boolean attaching;
+    private long generation;
+    private FileChannel channel;
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer flushing = ByteBuffer.allocate(1 << 16);
+    private long logBytes;
+    // the error of the last flush, until a flush succeeds
+    private IOException failure;
+
+    public WriteAheadLog(Path directory) throws IOException {
+        this(directory, Clock.systemUTC());
+    }
+
+    /**
+     * Opens a log in {@code directory}, after the generations already there. Records are timed by
+     * {@code clock}, which should be the clock of the index.
+     */
+    public WriteAheadLog(Path directory, Clock clock) throws IOException {
+        this.directory = directory;
+        this.clock = clock;
+        Files.createDirectories(directory);
+
+        Generations generations = Generations.of(directory);
+        this.generation = Math.max(generations.checkpoint, generations.lastLog) + 1;
+        this.channel = openLog(generation);
+    }
+
+    private FileChannel openLog(long generation) throws IOException {
+        FileChannel channel = FileChannel.open(logPath(directory, generation),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        while (header.hasRemaining()) channel.write(header);
+        logBytes = 8;
+        return channel;
+    }
+
+    private static Path logPath(Path directory, long generation) {
+        return directory.resolve("log-" + generation + ".wal");
+    }
+
+    private static Path checkpointPath(Path directory, long generation) {
+        return directory.resolve("checkpoint-" + generation + ".snapshot");
+    }
+
+    /**
+     * Checkpoints {@code index}, then logs its changes as its listener.
+     */
+    public void attach(PointIndex<? extends IPoint> index) throws IOException {
+        if (this.index != null) throw new IllegalStateException("already attached");
+        this.index = index;
+        checkpoint();
+
+        // the points already indexed are in the checkpoint
+        attaching = true;
+        try {
+            index.addListener(this);
+        } finally {
+            attaching = false;
+        }
+    }
+
+    @Override
+    public void onAdd(IPoint point) {
+        if (attaching) return;
+
+        int ref = ref(point.getId());
+        synchronized (this) {
+            reserve(ADD_BYTES).put(ADD).putInt(ref).putDouble(point.lat()).putDouble(point.lon()).putLong(clock.millis());
+        }
+    }
+
+    @Override
+    public void onMove(IPoint previous, IPoint point) {
+        onAdd(point);
+    }
+
+    @Override
+    public void onRemove(IPoint point) {
+        int ref = ref(point.getId());
+        synchronized (this) {
+            reserve(REMOVE_BYTES).put(REMOVE).putInt(ref);
+        }
+    }
+
+    // replay expires the point from the time of its ADD record
+    @Override
+    public void onExpire(IPoint point) {
+    }
+
+    private int ref(String id) {
+        Integer ref = ids.get(id);
+        if (ref != null) return ref;
+
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) throw new IllegalArgumentException("id longer than 32767 bytes");
+        ref = ids.size();
+        ids.put(id, ref);
+        synchronized (this) {
+            reserve(7 + bytes.length).put(ID).putInt(ref).putShort((short) bytes.length).put(bytes);
+        }
+        return ref;
+    }
+
+    // room for the next {@code bytes} bytes of the pending buffer, grown until the next flush
+    private ByteBuffer reserve(int bytes) {
+        if (pending.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            pending = grown.put(pending);
+        }
+        return pending;
+    }
+
+    /**
+     * Writes the records appended since the previous flush and forces them to the disk. Safe to call from
+     * any thread. If writing fails the records not yet written go back in front of the pending ones, so
+     * the next flush, or {@link #checkpoint()} or {@link #close()}, retries them and throws again while
+     * the failure lasts.
+     */
+    public void flush() throws IOException {
+        synchronized (channelLock) {
+            ByteBuffer out;
+            synchronized (this) {
+                out = pending;
+                pending = flushing;
+                flushing = out;
+            }
+
+            out.flip();
+            // a forced write after a failure, even with nothing new to write
+            if (!out.hasRemaining() && failure == null) {
+                out.clear();
+                return;
+            }
+
+            try {
+                while (out.hasRemaining()) logBytes += channel.write(out);
+                channel.force(false);
+                failure = null;
+            } catch (IOException e) {
+                failure = e;
+                requeue(out);
+                throw e;
+            } finally {
+                out.clear();
+            }
+        }
+    }
+
+    // puts the unwritten rest of {@code out} back before the records appended since it was swapped out
+    private synchronized void requeue(ByteBuffer out) {
+        ByteBuffer merged = ByteBuffer.allocate(Math.max(pending.capacity(), out.remaining() + pending.position()));
+        merged.put(out);
+        pending.flip();
+        pending = merged.put(pending);
+    }
+
+    /**
+     * Flushes every {@code period}; failed flushes are retried by the next ones and not reported.
+     */
+    public ScheduledFuture<?> scheduleFlush(ScheduledExecutorService executor, Duration period) {
+        return scheduleFlush(executor, period, e -> {
+        });
+    }
+
+    /**
+     * Flushes every {@code period}, passing the error of a failed flush to {@code onError}. The schedule
+     * goes on, and the next flush retries the records that could not be written.
+     */
+    public ScheduledFuture<?> scheduleFlush(ScheduledExecutorService executor, Duration period,
+                                            Consumer<? super IOException> onError) {
+        long millis = period.toMillis();
+        return executor.scheduleAtFixedRate(() -> {
+            try {
+                flush();
+            } catch (IOException e) {
+                onError.accept(e);
+            }
+        }, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts a new log and writes the attached index to a checkpoint, which then replaces the previous
+     * checkpoint and logs. Must be called from the thread using the index; the snapshot is written
+     * synchronously.
+     */
+    public void checkpoint() throws IOException {
+        if (index == null) throw new IllegalStateException("no index attached");
+
+        long checkpoint;
+        synchronized (channelLock) {
+            flush();
+            channel.close();
+            checkpoint = ++generation;
+            channel = openLog(checkpoint);
+            ids.clear();
+        }
+
+        index.writeSnapshot(checkpointPath(directory, checkpoint));
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                long generation = Generations.generation(file);
+                if (generation >= 0 && generation < checkpoint) Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Bytes written to the current log, which {@link #recover} would read on top of the checkpoint.
+     */
+    public long getLogBytes() {
+        synchronized (channelLock) {
+            return logBytes;
+        }
+    }
+
+    /**
+     * Flushes and closes the log, and stops listening to the index.
+     */
+    @Override
+    public void close() throws IOException {
+        if (index != null) index.removeListener(this);
+        synchronized (channelLock) {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the index from {@code directory}, or returns an empty index of {@code resolution} if there
+     * is nothing to recover.
+     */
+    public static PointIndex<BasicPoint> recover(Path directory, double resolution) throws IOException {
+        return recover(directory, resolution, CellStorage.MAP, BasicPoint::new);
+    }
+
+    /**
+     * Rebuilds an expiring index, see {@link #recover(Path, double, CellStorage, PointFactory, Duration, Clock)}.
+     */
+    public static PointIndex<BasicPoint> recover(Path directory, double resolution, Duration expiration, Clock clock)
+            throws IOException {
+        return recover(directory, resolution, CellStorage.MAP, BasicPoint::new, expiration, clock);
+    }
+
+    /**
+     * Rebuilds the index from {@code directory} with points created by {@code factory}, see
+     * {@link #recover(Path, double, CellStorage, PointFactory, Duration, Clock)}.
+     */
+    public static <T extends IPoint> PointIndex<T> recover(Path directory, double resolution, CellStorage storage,
+                                                           PointFactory<T> factory) throws IOException {
+        return recover(directory, resolution, storage, factory, null, null);
+    }
+
+    /**
+     * Rebuilds an expiring index: the points of the checkpoint keep their deadlines, those of the logs
+     * expire {@code expiration} after their last ADD record, and the ones past their deadline are dropped.
+     * The index has the storage and sparse mode of the checkpoint, or {@code storage} and
+     * {@code resolution} if there is none, and its points are created by {@code factory}.
+     * <p>
+     * Each log is read sequentially into arrays indexed by id reference, keeping the last record of each
+     * id, and the survivors of all logs are applied in one {@link PointIndex#addAll} on top of the
+     * memory-mapped checkpoint. A record cut short by a crash, or naming an id the log has not declared,
+     * ends the replay of its log.
+     */
+    public static <T extends IPoint> PointIndex<T> recover(Path directory, double resolution, CellStorage storage,
+                                                           PointFactory<T> factory, Duration expiration, Clock clock)
+            throws IOException {
+        Generations generations = Generations.of(directory);
+
+        PointIndex<T> index;
+        if (generations.checkpoint > 0) {
+            index = PointIndex.openSnapshot(checkpointPath(directory, generations.checkpoint), factory, expiration, clock);
+        } else {
+            index = expiration != null
+                    ? new PointIndex<>(resolution, expiration, clock, storage) : new PointIndex<>(resolution, storage);
+        }
+
+        // last record per id, a null point for a removal
+        Map<String, T> points = new HashMap<>();
+        Map<String, Long> times = new HashMap<>();
+        for (long generation : generations.logs) {
+            if (generation >= generations.checkpoint) {
+                read(logPath(directory, generation), factory, points, times);
+            }
+        }
+
+        long now = expiration != null ? clock.millis() : 0;
+        List<T> added = new ArrayList<>(points.size());
+        long[] deadlines = new long[points.size()];
+        for (Map.Entry<String, T> entry : points.entrySet()) {
+            T point = entry.getValue();
+            long deadline = expiration != null && point != null ? times.get(entry.getKey()) + expiration.toMillis() + 1 : 0;
+
+            if (point == null || (expiration != null && deadline <= now)) {
+                index.remove(entry.getKey());
+            } else {
+                deadlines[added.size()] = deadline;
+                added.add(point);
+            }
+        }
+
+        index.addAll(added, expiration != null ? deadlines : null);
+        return index;
+    }
+
+    private static <T extends IPoint> void read(Path path, PointFactory<T> factory, Map<String, T> points,
+                                                Map<String, Long> times) throws IOException {
+        ByteBuffer log;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            log = buffer;
+        }
+        // a log created just before a crash may miss its header
+        if (log.remaining() < 8) return;
+        if (log.getInt() != MAGIC) {
+            throw new IllegalArgumentException("not a write-ahead log: " + path);
+        }
+        if (log.getInt() != VERSION) {
+            throw new IllegalArgumentException("unsupported write-ahead log version: " + path);
+        }
+
+        // the last record of each ref, reduced before touching the maps
+        List<String> ids = new ArrayList<>();
+        byte[] last = new byte[1024];
+        double[] lat = new double[1024], lon = new double[1024];
+        long[] time = new long[1024];
+
+        // refs are declared by ID records numbered from 0 in order, before any record using them: anything
+        // else is a torn or corrupt tail
+        while (log.hasRemaining()) {
+            byte type = log.get();
+            if (type == ADD && log.remaining() >= ADD_BYTES - 1) {
+                int ref = log.getInt();
+                if (ref < 0 || ref >= ids.size()) break;
+                last[ref] = ADD;
+                lat[ref] = log.getDouble();
+                lon[ref] = log.getDouble();
+                time[ref] = log.getLong();
+            } else if (type == REMOVE && log.remaining() >= REMOVE_BYTES - 1) {
+                int ref = log.getInt();
+                if (ref < 0 || ref >= ids.size()) break;
+                last[ref] = REMOVE;
+            } else if (type == ID && log.remaining() >= 6 && log.remaining() >= 6 + log.getShort(log.position() + 4)) {
+                int ref = log.getInt();
+                short length = log.getShort();
+                if (ref != ids.size() || length < 0) break;
+                byte[] bytes = new byte[length];
+                log.get(bytes);
+                ids.add(new String(bytes, StandardCharsets.UTF_8));
+
+                if (ids.size() > last.length) {
+                    last = Arrays.copyOf(last, last.length * 2);
+                    lat = Arrays.copyOf(lat, last.length);
+                    lon = Arrays.copyOf(lon, last.length);
+                    time = Arrays.copyOf(time, last.length);
+                }
+            } else {
+                // torn tail
+                break;
+            }
+        }
+
+        for (int ref = 0; ref < ids.size(); ref++) {
+            String id = ids.get(ref);
+            if (last[ref] == ADD) {
+                points.put(id, factory.create(id, lat[ref], lon[ref]));
+                times.put(id, time[ref]);
+            } else if (last[ref] == REMOVE) {
+                points.put(id, null);
+            }
+        }
+    }
+
+    private static final class Generations {
+        private long checkpoint;
+        private long lastLog;
+        private final List<Long> logs = new ArrayList<>();
+
+        private static Generations of(Path directory) throws IOException {
+            Generations generations = new Generations();
+            if (!Files.isDirectory(directory)) return generations;
+
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    long generation = generation(file);
+                    if (generation < 0) continue;
+
+                    if (name.startsWith("checkpoint-")) {
+                        generations.checkpoint = Math.max(generations.checkpoint, generation);
+                    } else {
+                        generations.logs.add(generation);
+                        generations.lastLog = Math.max(generations.lastLog, generation);
+                    }
+                }
+            }
+            Collections.sort(generations.logs);
+            return generations;
+        }
+
+        // the generation of a log or checkpoint file, -1 for any other file
+        private static long generation(Path file) {
+            String name = file.getFileName().toString();
+            String number;
+            if (name.startsWith("log-") && name.endsWith(".wal")) {
+                number = name.substring(4, name.length() - 4);
+            } else if (name.startsWith("checkpoint-") && name.endsWith(".snapshot")) {
+                number = name.substring(11, name.length() - 9);
+            } else {
+                return -1;
+            }
+
+            try {
+                return Long.parseLong(number);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+
+}
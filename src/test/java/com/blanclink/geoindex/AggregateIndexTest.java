@@ -0,0 +1,115 @@
+package com.blanclink.geoindex;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class AggregateIndexTest extends BaseTest {
+
+    private static final BasicPoint northWest = new BasicPoint("north west", 52.0, -1.0);
+    private static final BasicPoint southEast = new BasicPoint("south east", 51.0, 1.0);
+
+    @Test
+    public void testCounts() {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000);
+        AggregateIndex<BasicPoint, PointCount<BasicPoint>> counts = new AggregateIndex<>(1000, PointCount::new);
+
+        locations.subList(0, 100).forEach(index::add);
+        index.addListener(counts);
+        locations.subList(100, locations.size()).forEach(index::add);
+
+        assertEquals(locations.size(), counts.aggregate(northWest, southEast).getCount());
+        assertEquals(inCellsOf(oxford, embankment), counts.aggregate(oxford, embankment).getCount());
+
+        int total = 0;
+        Map<Cell, PointCount<BasicPoint>> cells = counts.cells(northWest, southEast);
+        for (PointCount<BasicPoint> cell : cells.values()) {
+            total += cell.getCount();
+        }
+        assertEquals(locations.size(), total);
+
+        int atSwanley = counts.get(swanley).getCount();
+        int atEmbankment = counts.get(embankment).getCount();
+
+        index.remove(charring.getId());
+        index.add(new BasicPoint(embankment.getId(), swanley.lat(), swanley.lon()));
+
+        assertEquals(locations.size() - 1, counts.aggregate(northWest, southEast).getCount());
+        assertEquals(atSwanley + 1, counts.get(swanley).getCount());
+        assertEquals(atEmbankment - 1 - (Cell.keyOf(charring, 1000) == Cell.keyOf(embankment, 1000) ? 1 : 0),
+                counts.get(embankment).getCount());
+    }
+
+    @Test
+    public void testSums() {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000);
+        AggregateIndex<BasicPoint, LatitudeSum> sums = new AggregateIndex<>(5000, LatitudeSum::new);
+        index.addListener(sums);
+
+        index.add(charring);
+        index.add(embankment);
+        index.add(new BasicPoint(charring.getId(), oxford.lat(), oxford.lon()));
+
+        LatitudeSum sum = sums.aggregate(northWest, southEast);
+        assertEquals(2, sum.count);
+        assertEquals(embankment.lat() + oxford.lat(), sum.sum, 1e-9);
+    }
+
+    @Test
+    public void testExpiration() {
+        MutableClock clock = new MutableClock(0);
+        PointIndex<BasicPoint> index = new PointIndex<>(1000, Duration.ofMillis(5000), clock);
+        AggregateIndex<BasicPoint, PointCount<BasicPoint>> counts = new AggregateIndex<>(1000, PointCount::new);
+        index.addListener(counts);
+
+        index.add(charring);
+        clock.advance(Duration.ofMillis(1000));
+        index.add(embankment);
+
+        clock.advance(Duration.ofMillis(4001));
+        assertEquals(1, index.expire());
+        assertEquals(1, counts.aggregate(northWest, southEast).getCount());
+    }
+
+    private int inCellsOf(IPoint topLeft, IPoint bottomRight) {
+        Cell from = Cell.cellOf(topLeft, 1000), to = Cell.cellOf(bottomRight, 1000);
+        int count = 0;
+        for (BasicPoint location : locations) {
+            Cell cell = Cell.cellOf(location, 1000);
+            if (cell.getX() >= to.getX() && cell.getX() <= from.getX()
+                    && cell.getY() >= from.getY() && cell.getY() <= to.getY()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static class LatitudeSum implements Aggregate<BasicPoint, LatitudeSum> {
+
+        private int count;
+        private double sum;
+
+        @Override
+        public void add(BasicPoint point) {
+            count++;
+            sum += point.lat();
+        }
+
+        @Override
+        public void remove(BasicPoint point) {
+            count--;
+            sum -= point.lat();
+        }
+
+        @Override
+        public void merge(LatitudeSum other) {
+            count += other.count;
+            sum += other.sum;
+        }
+
+    }
+
+}
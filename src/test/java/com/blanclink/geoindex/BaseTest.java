@@ -9,6 +9,7 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Random;
 
 public abstract class BaseTest {
 
@@ -40,6 +41,7 @@ public abstract class BaseTest {
     public void setUpClass() throws IOException {
         String line;
 
+        locations.clear();
         BufferedReader br = new BufferedReader(new InputStreamReader(getClass().getClassLoader().getResourceAsStream("tube.csv")));
         while ((line = br.readLine()) != null) {
             String[] columns = line.split(",");
@@ -62,4 +64,8 @@ public abstract class BaseTest {
         return new BasicPoint(strings[0], lat, lon);
     }
 
+    protected static BasicPoint near(IPoint center, String id, Random random) {
+        return new BasicPoint(id, center.getLat() + random.nextGaussian() * 0.01, center.getLon() + random.nextGaussian() * 0.01);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+package com.blanclink.geoindex;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class CellMapTest {
+
+    @Test
+    public void testMatchesHashMap() {
+        CellMap<Integer> cells = new CellMap<>();
+        Map<Cell, Integer> expected = new HashMap<>();
+        Random random = new Random(1);
+
+        for (int i = 0; i < 100000; i++) {
+            Cell cell = new Cell(random.nextInt(200) - 100, random.nextInt(200) - 100);
+
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(cell), cells.remove(cell.key()));
+            } else {
+                assertEquals(expected.put(cell, i), cells.put(cell.key(), i));
+            }
+        }
+
+        assertEquals(expected.size(), cells.size());
+        assertEquals(expected, cells.asMap());
+    }
+
+    @Test
+    public void testKeyRoundTrip() {
+        Cell cell = new Cell(-5, Integer.MAX_VALUE);
+
+        assertEquals(cell, Cell.fromKey(cell.key()));
+        assertEquals(-5, Cell.xOf(Cell.key(-5, 7)));
+        assertEquals(7, Cell.yOf(Cell.key(-5, 7)));
+    }
+
+    @Test
+    public void testShare() {
+        CellMap<Integer> cells = new CellMap<>();
+        for (int i = 0; i < 100; i++) {
+            cells.put(Cell.key(i, i), i);
+        }
+
+        CellMap<Integer> shared = cells.share();
+        Map<Cell, Integer> expected = new HashMap<>(shared.asMap());
+
+        for (int i = 0; i < 100; i++) {
+            cells.remove(Cell.key(i, i));
+            cells.put(Cell.key(i, -i), i);
+        }
+        assertEquals(expected, shared.asMap());
+
+        shared.clear();
+        shared.put(Cell.key(1, 2), 3);
+        assertEquals(100, cells.size());
+        assertEquals(Integer.valueOf(7), cells.get(Cell.key(7, -7)));
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.blanclink.geoindex;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ClusterIndexTest extends BaseTest {
+
+    private static final BasicPoint northWest = new BasicPoint("north west", 52.0, -1.0);
+    private static final BasicPoint southEast = new BasicPoint("south east", 51.0, 1.0);
+
+    @Test
+    public void testLevels() {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000);
+        ClusterIndex<BasicPoint> clusters = new ClusterIndex<>(250, 4, 5);
+        index.addListener(clusters);
+        locations.forEach(index::add);
+
+        int previous = Integer.MAX_VALUE;
+        for (int level = 0; level < clusters.getLevels(); level++) {
+            List<Cluster<BasicPoint>> result = clusters.clusters(northWest, southEast, level);
+            assertEquals(locations.size(), total(result));
+            assertTrue(result.size() <= previous);
+            previous = result.size();
+        }
+        assertTrue(previous < 20);
+        assertEquals(250 * 64, clusters.getResolution(3), 0.0);
+    }
+
+    @Test
+    public void testSparseCellsExpand() {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000);
+        ClusterIndex<BasicPoint> clusters = new ClusterIndex<>(1000, 2, 3);
+        index.addListener(clusters);
+
+        index.add(swanley);
+        index.add(charring);
+        index.add(embankment);
+
+        for (Cluster<BasicPoint> cluster : clusters.clusters(northWest, southEast, 0)) {
+            assertEquals(cluster.getCount() == 1, cluster.getPoint() != null);
+        }
+
+        clusters.setExpandBelow(0);
+        List<Cluster<BasicPoint>> result = clusters.clusters(northWest, southEast, 2);
+        assertEquals(3, total(result));
+        for (Cluster<BasicPoint> cluster : result) {
+            assertNull(cluster.getPoint());
+        }
+
+        clusters.setExpandBelow(2);
+        result = clusters.clusters(northWest, southEast, 2);
+        assertEquals(3, result.size());
+        for (Cluster<BasicPoint> cluster : result) {
+            assertNotNull(cluster.getPoint());
+        }
+    }
+
+    @Test
+    public void testCentroids() {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000);
+        ClusterIndex<BasicPoint> clusters = new ClusterIndex<>(1000, 8, 4);
+        index.addListener(clusters);
+        Random random = new Random(3);
+
+        for (int i = 0; i < 5000; i++) {
+            String id = "v" + random.nextInt(300);
+            if (random.nextInt(4) == 0) {
+                index.remove(id);
+            } else {
+                index.add(new BasicPoint(id, 51.3 + random.nextDouble() * 0.4, -0.5 + random.nextDouble() * 0.7));
+            }
+        }
+
+        List<Cluster<BasicPoint>> result = clusters.clusters(northWest, southEast, 3);
+        double lat = 0, lon = 0;
+        for (BasicPoint point : index.getAll().values()) {
+            lat += point.lat();
+            lon += point.lon();
+        }
+        assertEquals(index.getAll().size(), total(result));
+
+        double clusterLat = 0, clusterLon = 0;
+        for (Cluster<BasicPoint> cluster : result) {
+            clusterLat += cluster.lat() * cluster.getCount();
+            clusterLon += cluster.lon() * cluster.getCount();
+        }
+        assertEquals(lat, clusterLat, 1e-6);
+        assertEquals(lon, clusterLon, 1e-6);
+    }
+
+    @Test
+    public void testLevelFor() {
+        ClusterIndex<BasicPoint> clusters = new ClusterIndex<>(100, 2, 10);
+
+        assertEquals(0, clusters.levelFor(charring, charring, 1));
+        int level = clusters.levelFor(northWest, southEast, 100);
+        assertTrue(level > 0 && level < 9);
+    }
+
+    private int total(List<Cluster<BasicPoint>> clusters) {
+        int total = 0;
+        for (Cluster<BasicPoint> cluster : clusters) {
+            total += cluster.getCount();
+        }
+        return total;
+    }
+
+}
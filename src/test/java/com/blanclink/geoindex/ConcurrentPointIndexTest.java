@@ -0,0 +1,131 @@
+package com.blanclink.geoindex;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentPointIndexTest extends BaseTest {
+
+    private Predicate<BasicPoint> all = point -> true;
+
+    @Test
+    public void testRangeAndKNearest() {
+        ConcurrentPointIndex<BasicPoint> index = new ConcurrentPointIndex<>(500);
+
+        locations.forEach(index::add);
+
+        List<BasicPoint> within = index.range(oxford, embankment);
+        within.sort(Comparator.comparing(BasicPoint::getId));
+        List<BasicPoint> expected = new ArrayList<>(Arrays.asList(picadilly, charring, coventGarden, embankment, leicester, oxford));
+        expected.sort(Comparator.comparing(BasicPoint::getId));
+
+        assertEquals(expected, within);
+        assertEquals(Arrays.asList(charring, embankment, leicester, coventGarden, picadilly), index.kNearest(charring, 5, 20000, all));
+    }
+
+    @Test
+    public void testMatchesPointIndex() {
+        Random random = new Random(4);
+        ConcurrentPointIndex<BasicPoint> concurrent = new ConcurrentPointIndex<>(200);
+        PointIndex<BasicPoint> index = new PointIndex<>(200);
+        for (int i = 0; i < 5000; i++) {
+            BasicPoint point = near(charring, "p" + random.nextInt(3000), random);
+            concurrent.add(point);
+            index.add(point);
+        }
+
+        for (int i = 0; i < 50; i++) {
+            BasicPoint center = near(charring, "q" + i, random);
+            assertEquals(index.kNearest(center, 20, 1500, all), concurrent.kNearest(center, 20, 1500, all));
+        }
+        List<BasicPoint> expected = index.range(oxford, embankment), range = concurrent.range(oxford, embankment);
+        expected.sort(Comparator.comparing(BasicPoint::getId));
+        range.sort(Comparator.comparing(BasicPoint::getId));
+        assertEquals(expected, range);
+        assertEquals(index.size(), concurrent.cellMembers());
+    }
+
+    @Test
+    public void testExpiration() {
+        MutableClock clock = new MutableClock(0);
+        ConcurrentPointIndex<BasicPoint> index = new ConcurrentPointIndex<>(500, Duration.ofSeconds(5), clock);
+
+        index.add(charring);
+        clock.advance(Duration.ofSeconds(3));
+        index.add(embankment);
+        clock.advance(Duration.ofSeconds(3));
+
+        assertEquals(1, index.expire());
+        assertEquals(null, index.get(charring.getId()));
+        assertEquals(Arrays.asList(embankment), index.kNearest(charring, 5, 1000, all));
+
+        index.add(embankment);
+        clock.advance(Duration.ofSeconds(3));
+        assertEquals(0, index.expire());
+        assertEquals(embankment, index.get(embankment.getId()));
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        ConcurrentPointIndex<BasicPoint> index = new ConcurrentPointIndex<>(100);
+        int writers = 4, readers = 4, vehicles = 200, updates = 20000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(writers + readers);
+        AtomicBoolean done = new AtomicBoolean();
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            long seed = w;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < updates; i++) {
+                    String id = "v" + random.nextInt(vehicles);
+                    if (random.nextInt(10) == 0) {
+                        index.remove(id);
+                    } else {
+                        index.add(new BasicPoint(id,
+                                51.50 + random.nextDouble() * 0.02,
+                                -0.13 + random.nextDouble() * 0.02));
+                    }
+                }
+            }));
+        }
+
+        for (int r = 0; r < readers; r++) {
+            futures.add(executor.submit(() -> {
+                while (!done.get()) {
+                    for (BasicPoint point : index.kNearest(charring, 10, 5000, all)) {
+                        assertTrue(point.getId().startsWith("v"));
+                    }
+                    index.range(oxford, embankment);
+                }
+            }));
+        }
+
+        for (int w = 0; w < writers; w++) {
+            futures.get(w).get(60, TimeUnit.SECONDS);
+        }
+        done.set(true);
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(index.size(), index.cellMembers());
+
+        Set<String> seen = new HashSet<>();
+        for (BasicPoint point : index.range(new BasicPoint("", 52.0, -1.0), new BasicPoint("", 51.0, 1.0))) {
+            assertTrue(seen.add(point.getId()));
+            assertEquals(point, index.get(point.getId()));
+        }
+        assertEquals(index.size(), seen.size());
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.blanclink.geoindex;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DistancesTest {
+
+    @Test
+    public void testLonDegreeDistance() {
+        // a tenth of a degree of latitude changes the degree of longitude by less than half a percent below 60 degrees
+        for (double lat : new double[]{0.37, 23.81, -33.86, 51.53, 59.94}) {
+            double expected = Distances.distance(lat, 0.0, lat, 1.0);
+            Assert.assertEquals(expected, Distances.lonDegreeDistance(lat), expected * 0.005);
+        }
+    }
+
+    @Test
+    public void testApproximateSquareDistance() {
+        double lat = 51.53, lon = -0.12;
+        double expected = Distances.distance(lat, lon, lat, lon + 0.1);
+        Assert.assertEquals(expected, Math.sqrt(Distances.approximateSquareDistance(lat, lon, lat, lon + 0.1)),
+                expected * 0.005);
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.blanclink.geoindex;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class GeofenceIndexTest extends BaseTest {
+
+    private static class Events implements GeofenceListener<BasicPoint> {
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onEnter(Geofence fence, BasicPoint point) {
+            events.add("+" + fence.getId() + " " + point.getId());
+        }
+
+        @Override
+        public void onExit(Geofence fence, BasicPoint point) {
+            events.add("-" + fence.getId() + " " + point.getId());
+        }
+
+        private List<String> drain() {
+            List<String> drained = new ArrayList<>(events);
+            Collections.sort(drained);
+            events.clear();
+            return drained;
+        }
+    }
+
+    @Test
+    public void testEnterAndExit() {
+        MutableClock clock = new MutableClock(0);
+        PointIndex<BasicPoint> index = new PointIndex<>(1000, Duration.ofMillis(100), clock);
+        GeofenceIndex<BasicPoint> fences = new GeofenceIndex<>(500);
+        index.addListener(fences);
+
+        Events events = new Events();
+        fences.subscribe(Geofence.rectangle("west end", oxford, embankment), events);
+        fences.subscribe(Geofence.circle("charing", charring, 300), events);
+
+        index.add(new BasicPoint("bus", leicester.getLat(), leicester.getLon()));
+        assertEquals(Arrays.asList("+west end bus"), events.drain());
+
+        index.add(new BasicPoint("bus", charring.getLat(), charring.getLon()));
+        assertEquals(Arrays.asList("+charing bus"), events.drain());
+
+        index.add(new BasicPoint("bus", waterloo.getLat(), waterloo.getLon()));
+        assertEquals(Arrays.asList("-charing bus", "-west end bus"), events.drain());
+
+        index.add(new BasicPoint("cab", embankment.getLat(), embankment.getLon()));
+        assertEquals(Arrays.asList("+charing cab", "+west end cab"), events.drain());
+        index.remove("cab");
+        assertEquals(Arrays.asList("-charing cab", "-west end cab"), events.drain());
+
+        index.add(new BasicPoint("van", picadilly.getLat(), picadilly.getLon()));
+        assertEquals(Arrays.asList("+west end van"), events.drain());
+        clock.advance(Duration.ofMillis(200));
+        index.expire();
+        assertEquals(Arrays.asList("-west end van"), events.drain());
+
+        fences.unsubscribe("west end");
+        index.add(new BasicPoint("van", coventGarden.getLat(), coventGarden.getLon()));
+        assertEquals(Arrays.asList(), events.drain());
+        assertEquals(1, fences.size());
+    }
+
+    @Test
+    public void testMatchesPolling() {
+        Random random = new Random(20);
+        PointIndex<BasicPoint> index = new PointIndex<>(300);
+        GeofenceIndex<BasicPoint> fences = new GeofenceIndex<>(200);
+        index.addListener(fences);
+
+        List<Geofence> subscribed = new ArrayList<>();
+        List<List<String>> inside = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            BasicPoint center = new BasicPoint("f" + i, 51.50 + random.nextDouble() * 0.02, -0.14 + random.nextDouble() * 0.03);
+            Geofence fence = i % 2 == 0
+                    ? Geofence.circle("f" + i, center, 100 + random.nextInt(500))
+                    : Geofence.rectangle("f" + i, center, new BasicPoint("br", center.getLat() - 0.003, center.getLon() + 0.004));
+            List<String> members = new ArrayList<>();
+            subscribed.add(fence);
+            inside.add(members);
+            fences.subscribe(fence, new GeofenceListener<BasicPoint>() {
+                public void onEnter(Geofence fence, BasicPoint point) { members.add(point.getId()); }
+                public void onExit(Geofence fence, BasicPoint point) { members.remove(point.getId()); }
+            });
+        }
+
+        for (int i = 0; i < 20000; i++) {
+            String id = "v" + random.nextInt(300);
+            if (random.nextInt(10) == 0) {
+                index.remove(id);
+            } else {
+                index.add(new BasicPoint(id, 51.50 + random.nextDouble() * 0.02, -0.14 + random.nextDouble() * 0.03));
+            }
+        }
+
+        for (int i = 0; i < subscribed.size(); i++) {
+            List<String> expected = new ArrayList<>();
+            for (BasicPoint point : index.getAll().values()) {
+                if (subscribed.get(i).contains(point)) expected.add(point.getId());
+            }
+            Collections.sort(expected);
+            Collections.sort(inside.get(i));
+            assertEquals(expected, inside.get(i));
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.blanclink.geoindex;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class HistoryIndexTest extends BaseTest {
+
+    private static List<String> ids(List<TimedPoint<BasicPoint>> points) {
+        return points.stream().map(TimedPoint::getId).sorted().collect(Collectors.toList());
+    }
+
+    private static List<Long> times(List<TimedPoint<BasicPoint>> points) {
+        return points.stream().map(TimedPoint::getTime).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testRangeAndTrajectory() {
+        MutableClock clock = new MutableClock(0);
+        HistoryIndex<BasicPoint> history = new HistoryIndex<>(500, Duration.ofMinutes(1), Duration.ofHours(1), clock);
+        PointIndex<BasicPoint> index = new PointIndex<>(500);
+        index.addListener(history);
+
+        // the bus rides from Waterloo to Brent Cross and back, a minute and a half per stop
+        List<BasicPoint> stops = Arrays.asList(waterloo, charring, oxford, regentsPark, brentCross);
+        for (int i = 0; i < 2 * stops.size(); i++) {
+            BasicPoint stop = stops.get(i < stops.size() ? i : 2 * stops.size() - 1 - i);
+            index.add(new BasicPoint("bus", stop.lat(), stop.lon()));
+            index.add(new BasicPoint(stop.getId(), stop.lat(), stop.lon()));
+            clock.advance(Duration.ofSeconds(90));
+        }
+
+        assertEquals(20, history.size());
+        assertEquals(10, history.getSegments());
+
+        List<TimedPoint<BasicPoint>> atWaterloo = history.range(waterloo, waterloo, 0, Long.MAX_VALUE);
+        assertEquals(Arrays.asList("Waterloo", "Waterloo", "bus", "bus"), ids(atWaterloo));
+        assertEquals(Arrays.asList("Waterloo", "bus"), ids(history.range(waterloo, waterloo, 0, 89_999)));
+        assertEquals(Arrays.asList("Waterloo", "bus"), ids(history.range(waterloo, waterloo, 810_000, 810_000)));
+        assertEquals(Collections.emptyList(), ids(history.range(waterloo, waterloo, 1, 809_999)));
+
+        List<TimedPoint<BasicPoint>> trajectory = history.trajectory("bus", 90_000, 360_000);
+        assertEquals(Arrays.asList(90_000L, 180_000L, 270_000L, 360_000L), times(trajectory));
+        assertEquals(brentCross.lat(), trajectory.get(3).lat(), 0.0);
+        assertEquals(charring.lat(), trajectory.get(0).lat(), 0.0);
+        assertEquals(Collections.emptyList(), history.trajectory("tram", 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRetention() {
+        MutableClock clock = new MutableClock(0);
+        HistoryIndex<BasicPoint> history = new HistoryIndex<>(500, Duration.ofSeconds(10), Duration.ofSeconds(30), clock);
+
+        for (int second = 0; second < 100; second++) {
+            history.add(new BasicPoint("bus", waterloo.lat(), waterloo.lon()), second * 1000L);
+            clock.advance(Duration.ofSeconds(1));
+        }
+
+        // at 100 s, the segments ending at or before 70 s are gone
+        assertEquals(3, history.getSegments());
+        assertEquals(30, history.size());
+        assertEquals(70_000L, (long) times(history.trajectory("bus", 0, Long.MAX_VALUE)).get(0));
+        assertEquals(30, history.range(waterloo, waterloo, 0, Long.MAX_VALUE).size());
+
+        clock.advance(Duration.ofSeconds(40));
+        assertEquals(0, history.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTimesMustNotDecrease() {
+        HistoryIndex<BasicPoint> history = new HistoryIndex<>(500, Duration.ofSeconds(10), Duration.ofSeconds(30), new MutableClock(0));
+        history.add(waterloo, 2000);
+        history.add(waterloo, 1000);
+    }
+
+}
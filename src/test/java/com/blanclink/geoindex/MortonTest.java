@@ -0,0 +1,91 @@
+package com.blanclink.geoindex;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+public class MortonTest {
+
+    @Test
+    public void testEncodeDecode() {
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            int x = random.nextInt(Integer.MAX_VALUE), y = random.nextInt(Integer.MAX_VALUE);
+            long z = Morton.encode(x, y);
+            Assert.assertEquals(x, Morton.x(z));
+            Assert.assertEquals(y, Morton.y(z));
+        }
+        Assert.assertEquals(0b1110, Morton.encode(3, 2));
+    }
+
+    @Test
+    public void testNextInBox() {
+        Random random = new Random(11);
+        for (int i = 0; i < 200; i++) {
+            int minX = random.nextInt(40), minY = random.nextInt(40);
+            int maxX = minX + random.nextInt(20), maxY = minY + random.nextInt(20);
+            long zMin = Morton.encode(minX, minY), zMax = Morton.encode(maxX, maxY);
+
+            long expected = -1;
+            for (long z = zMax; z >= zMin; z--) {
+                int x = Morton.x(z), y = Morton.y(z);
+                boolean inside = x >= minX && x <= maxX && y >= minY && y <= maxY;
+                if (inside) {
+                    expected = z;
+                } else {
+                    Assert.assertEquals(expected, Morton.nextInBox(z, zMin, zMax));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSparseRangeMatchesDense() {
+        Random random = new Random(3);
+        GeoIndex<long[]> sparse = new GeoIndex<>(100, () -> new long[1]);
+        GeoIndex<long[]> sparseLater = new GeoIndex<>(100, () -> new long[1]);
+        sparse.setSparse(true);
+
+        List<Long> keys = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            BasicPoint point = new BasicPoint("p" + i, 51.3 + random.nextDouble() * 0.4, -0.5 + random.nextDouble() * 0.8);
+            long key = Cell.keyOf(point, 100);
+            keys.add(key);
+            sparse.addEntryAt(point)[0] = key;
+            sparseLater.addEntryAt(point)[0] = key;
+        }
+        Assert.assertTrue(sparse.isSparse());
+
+        int x0 = Cell.xOf(keys.get(0)), y0 = Cell.yOf(keys.get(0));
+        for (int i = 0; i < 200; i++) {
+            int minX = x0 - 300 + random.nextInt(600), minY = y0 - 300 + random.nextInt(600);
+            int maxX = minX + random.nextInt(300), maxY = minY + random.nextInt(300);
+
+            HashSet<Long> expected = new HashSet<>();
+            for (long key : keys) {
+                int x = Cell.xOf(key), y = Cell.yOf(key);
+                if (x >= minX && x <= maxX && y >= minY && y <= maxY) expected.add(key);
+            }
+
+            Assert.assertEquals(expected, keysOf(sparse.get(minX, maxX, minY, maxY)));
+            sparseLater.setSparse(true);
+            Assert.assertEquals(expected, keysOf(sparseLater.get(minX, maxX, minY, maxY)));
+            sparseLater.setSparse(false);
+            Assert.assertEquals(expected, keysOf(sparseLater.get(minX, maxX, minY, maxY)));
+        }
+    }
+
+    private static HashSet<Long> keysOf(List<long[]> entries) {
+        HashSet<Long> keys = new HashSet<>();
+        for (long[] entry : entries) {
+            keys.add(entry[0]);
+        }
+        Assert.assertEquals(entries.size(), keys.size());
+        return keys;
+    }
+
+}
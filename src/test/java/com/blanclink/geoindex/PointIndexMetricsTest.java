@@ -0,0 +1,270 @@
+package com.blanclink.geoindex;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PointIndexMetricsTest extends BaseTest {
+
+    private static class Recorder implements MetricsListener {
+        private final List<String> operations = new ArrayList<>();
+        private QueryStats last;
+        private int expired;
+
+        @Override
+        public void onOperation(QueryStats stats) {
+            operations.add(stats.getOperation().name());
+            last = stats;
+        }
+
+        @Override
+        public void onExpire(int points, long nanos) {
+            expired += points;
+        }
+    }
+
+    @Test
+    public void testQueryStats() {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000);
+        Recorder recorder = new Recorder();
+        index.setMetrics(recorder);
+        locations.forEach(index::add);
+
+        List<BasicPoint> nearest = index.kNearest(charring, 3, 1000, point -> true);
+        QueryStats stats = recorder.last;
+        assertEquals(QueryStats.Operation.K_NEAREST, stats.getOperation());
+        assertEquals(nearest.size(), stats.getReturned());
+        assertTrue(stats.getRings() >= 1);
+        // the center cell, then 8d cells in ring d
+        assertEquals((2 * stats.getRings() + 1) * (2 * stats.getRings() + 1), stats.getCellsVisited());
+        assertTrue(stats.getCandidates() >= nearest.size());
+        assertTrue(stats.getCellsOccupied() <= stats.getCellsVisited());
+        assertEquals(index.getAll().size(), stats.getIndexPoints());
+
+        List<BasicPoint> visited = new ArrayList<>();
+        index.range(oxford, embankment, visited::add);
+        assertEquals(visited.size(), recorder.last.getReturned());
+        assertEquals(index.range(oxford, embankment).size(), recorder.last.getReturned());
+
+        index.withinRadius(charring, 500, point -> true);
+        assertEquals(QueryStats.Operation.WITHIN_RADIUS, recorder.last.getOperation());
+        assertTrue(recorder.last.getDistanceTests() > 0);
+
+        index.setMetrics(null);
+        index.remove(charring.getId());
+        assertEquals("WITHIN_RADIUS", recorder.operations.get(recorder.operations.size() - 1));
+        assertEquals(locations.size(), recorder.operations.stream().filter("ADD"::equals).count());
+    }
+
+    private static long occupied(PointIndex<?> index) {
+        long[] occupancy = index.getOccupancy();
+        return Arrays.stream(occupancy).sum() - occupancy[0];
+    }
+
+    @Test
+    public void testIndexCells() {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000000);
+        PointIndexMetrics metrics = new PointIndexMetrics();
+        index.setMetrics(metrics);
+
+        index.add(charring);
+        index.add(embankment);
+        index.add(reykjavik);
+        assertEquals(2, metrics.getIndexCells());
+        index.remove(reykjavik.getId());
+        assertEquals(1, metrics.getIndexCells());
+        index.add(new BasicPoint(charring.getId(), reykjavik.lat(), reykjavik.lon()));
+        assertEquals(2, metrics.getIndexCells());
+        index.remove(embankment.getId());
+        assertEquals(1, metrics.getIndexCells());
+
+        // batches large enough to fill cells in parallel, moving most points between cells
+        Random random = new Random(19);
+        index = new PointIndex<>(100);
+        index.setMetrics(metrics);
+        for (int round = 0; round < 3; round++) {
+            List<BasicPoint> batch = new ArrayList<>();
+            for (int i = 0; i < 10000; i++) {
+                batch.add(near(charring, "v" + random.nextInt(8000), random));
+            }
+            index.addAll(batch);
+            index.remove("v0");
+            assertEquals(occupied(index), metrics.getIndexCells());
+        }
+        index.snapshot().kNearest(charring, 1, 100, point -> true);
+        assertEquals(occupied(index), metrics.getIndexCells());
+    }
+
+    @Test
+    public void testSparseRangeSkipsEmptiedCells() {
+        Random random = new Random(8);
+        PointIndex<BasicPoint> index = new PointIndex<>(100);
+        PointIndex<BasicPoint> sparseLater = new PointIndex<>(100);
+        index.setSparse(true);
+        for (int i = 0; i < 2000; i++) {
+            BasicPoint point = near(charring, "v" + i, random);
+            index.add(point);
+            sparseLater.add(point);
+        }
+
+        // every point gathers in the cell of Charing Cross, emptying the others
+        for (int i = 0; i < 2000; i++) {
+            BasicPoint point = new BasicPoint("v" + i, charring.lat(), charring.lon());
+            index.add(point);
+            sparseLater.add(point);
+        }
+        sparseLater.setSparse(true);
+
+        BasicPoint topLeft = new BasicPoint("", charring.lat() + 0.002, charring.lon() - 0.003);
+        BasicPoint bottomRight = new BasicPoint("", charring.lat() - 0.002, charring.lon() + 0.003);
+        for (PointIndex<BasicPoint> sparse : Arrays.asList(index, sparseLater, index.clone())) {
+            Recorder recorder = new Recorder();
+            sparse.setMetrics(recorder);
+
+            assertEquals(2000, sparse.range(brentCross, swanley).size());
+            assertEquals(1, recorder.last.getCellsVisited());
+            assertEquals(1, recorder.last.getCellsOccupied());
+
+            // a box of a few cells is walked in Z-order too, as only one cell is occupied
+            assertEquals(2000, sparse.range(topLeft, bottomRight).size());
+            assertEquals(1, recorder.last.getCellsVisited());
+        }
+
+        index.add(new BasicPoint("v0", swanley.lat(), swanley.lon()));
+        assertEquals(2000, index.range(brentCross, swanley).size());
+        index.remove("v0");
+        assertEquals(1999, index.range(brentCross, swanley).size());
+    }
+
+    @Test
+    public void testWithinRadiusDistanceTests() {
+        PointIndex<BasicPoint> index = new PointIndex<>(100);
+        Recorder recorder = new Recorder();
+        index.setMetrics(recorder);
+        Random random = new Random(20);
+        for (int i = 0; i < 2000; i++) {
+            index.add(near(charring, "v" + i, random));
+        }
+
+        List<BasicPoint> within = index.withinRadius(charring, 300, point -> true);
+        QueryStats stats = recorder.last;
+        // every point returned from a cell crossing the circle took a haversine, the whole cells took none
+        assertTrue(stats.getDistanceTests() > 2);
+        assertTrue(stats.getDistanceTests() <= stats.getCandidates() + 2);
+        assertTrue(stats.getReturned() == within.size());
+    }
+
+    @Test
+    public void testExpirySweeps() {
+        MutableClock clock = new MutableClock(0);
+        PointIndex<BasicPoint> index = new PointIndex<>(1000, Duration.ofMillis(100), clock);
+        PointIndexMetrics metrics = new PointIndexMetrics();
+        index.setMetrics(metrics);
+
+        index.add(charring);
+        index.add(embankment);
+        clock.advance(Duration.ofMillis(200));
+        index.add(leicester);
+
+        // one sweep per operation, whether or not it drops points
+        assertEquals(3, metrics.getExpirySweeps());
+        assertEquals(2, metrics.getExpiredPoints());
+        assertEquals(3, metrics.getCount("ADD"));
+        assertEquals(1, metrics.getIndexPoints());
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000);
+        PointIndexMetrics metrics = new PointIndexMetrics();
+        index.setMetrics(metrics);
+        index.setCacheSize(16);
+        locations.forEach(index::add);
+        index.kNearest(charring, 3, 1000, point -> true);
+        Predicate<BasicPoint> all = point -> true;
+        index.kNearest(charring, 3, 1000, all);
+        index.kNearest(charring, 3, 1000, all);
+
+        ObjectName name = metrics.register("test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals((long) locations.size() + 2, server.getAttribute(name, "OperationCount"));
+            assertEquals(1L, server.getAttribute(name, "CacheHits"));
+            assertEquals(2L, server.getAttribute(name, "CacheMisses"));
+            assertArrayEquals(index.getOccupancy(), (long[]) server.getAttribute(name, "Occupancy"));
+            assertEquals(2L, server.invoke(name, "getCount", new Object[]{"K_NEAREST"}, new String[]{String.class.getName()}));
+            String[] latencies = (String[]) server.getAttribute(name, "Latencies");
+            assertEquals(QueryStats.Operation.values().length, latencies.length);
+        } finally {
+            PointIndexMetrics.unregister(name);
+        }
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(100000, histogram.getMaxNanos());
+        assertEquals(50500, histogram.getMeanNanos(), 0.001);
+        // within a factor of two, from above
+        long median = histogram.getPercentileNanos(50);
+        assertTrue(median >= 50000 && median < 100000);
+        assertEquals(100000, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void testOccupancy() {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000000);
+        index.add(charring);
+        index.add(embankment);
+        index.add(leicester);
+        index.add(reykjavik);
+        index.remove(reykjavik.getId());
+
+        // the London cell holds 3 points, Reykjavik's is left empty
+        assertArrayEquals(new long[]{1, 0, 1}, index.getOccupancy());
+    }
+
+    @Test
+    public void testMetricsOccupancy() {
+        MutableClock clock = new MutableClock(0);
+        PointIndex<BasicPoint> index = new PointIndex<>(100, Duration.ofMillis(100), clock);
+        index.add(charring);
+        PointIndexMetrics metrics = new PointIndexMetrics();
+        index.setMetrics(metrics);
+        assertArrayEquals(index.getOccupancy(), metrics.getOccupancy());
+
+        Random random = new Random(23);
+        locations.forEach(index::add);
+        index.remove(embankment.getId());
+        assertArrayEquals(index.getOccupancy(), metrics.getOccupancy());
+
+        List<BasicPoint> batch = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            batch.add(near(charring, "v" + random.nextInt(8000), random));
+        }
+        index.addAll(batch);
+        assertArrayEquals(index.getOccupancy(), metrics.getOccupancy());
+
+        clock.advance(Duration.ofMillis(200));
+        index.add(leicester);
+        assertArrayEquals(index.getOccupancy(), metrics.getOccupancy());
+    }
+
+}
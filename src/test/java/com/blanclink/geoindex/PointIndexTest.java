@@ -3,12 +3,22 @@ package com.blanclink.geoindex;
 import org.junit.Test;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
+import static java.lang.Math.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class PointIndexTest extends BaseTest {
 
@@ -42,6 +52,310 @@ public class PointIndexTest extends BaseTest {
         assertEquals(9, index.kNearest(charring, 100, 1000, all).size());
     }
 
+    @Test
+    public void testWithinRadius() {
+        PointIndex<BasicPoint> index = new PointIndex<>(500);
+
+        locations.forEach(index::add);
+
+        assertEquals(sort(index.kNearest(charring, 100, 1000, all)), sort(index.withinRadius(charring, 1000, all)));
+        assertEquals(sort(Arrays.asList(charring, embankment)), sort(index.withinRadius(charring, 300, all)));
+        assertEquals(Arrays.asList(embankment), index.withinRadius(charring, 300, point -> !point.equals(charring)));
+    }
+
+    @Test
+    public void testWithinRadiusMatchesDistance() {
+        Random random = new Random(9);
+
+        for (CellStorage storage : CellStorage.values()) {
+            PointIndex<BasicPoint> index = new PointIndex<>(100, storage);
+            List<BasicPoint> points = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                BasicPoint point = new BasicPoint("v" + i, 51.45 + random.nextDouble() * 0.1, -0.2 + random.nextDouble() * 0.15);
+                points.add(point);
+                index.add(point);
+            }
+
+            for (double meters : new double[]{50, 700, 3000}) {
+                List<BasicPoint> expected = new ArrayList<>();
+                for (BasicPoint point : points) {
+                    if (Distances.distance(charring, point) <= meters) expected.add(point);
+                }
+                assertEquals(sort(expected), sort(index.withinRadius(charring, meters, all)));
+            }
+        }
+    }
+
+    @Test
+    public void testWithinRadiusAwayFromLondon() {
+        Random random = new Random(10);
+
+        // far north, where the degree of longitude shrinks quickly, and south of the equator
+        for (double[] origin : new double[][]{{69.6, 18.9}, {-33.9, 151.2}, {-0.01, 36.8}}) {
+            PointIndex<BasicPoint> index = new PointIndex<>(100);
+            List<BasicPoint> points = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                BasicPoint point = new BasicPoint("v" + i, origin[0] + random.nextDouble() * 0.1,
+                        origin[1] + random.nextDouble() * 0.2);
+                points.add(point);
+                index.add(point);
+            }
+
+            BasicPoint center = new BasicPoint("c", origin[0] + 0.05, origin[1] + 0.1);
+            for (double meters : new double[]{50, 700, 3000, 8000}) {
+                List<BasicPoint> expected = new ArrayList<>();
+                for (BasicPoint point : points) {
+                    if (Distances.distance(center, point) <= meters) expected.add(point);
+                }
+                assertEquals(sort(expected), sort(index.withinRadius(center, meters, all)));
+            }
+        }
+    }
+
+    @Test
+    public void testWithinRadiusNearPolesAndAntimeridian() {
+        Random random = new Random(11);
+
+        for (double[] origin : new double[][]{{89.0, 170.0}, {-89.0, 120.0}, {88.9, 179.99}, {-0.5, 179.9}, {30.0, -179.95}}) {
+            PointIndex<BasicPoint> index = new PointIndex<>(1000);
+            List<BasicPoint> points = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                double lat = max(-90.0, min(90.0, origin[0] + (random.nextDouble() - 0.5) * 4.0));
+                double lon = origin[1] + (random.nextDouble() - 0.5) * (abs(origin[0]) > 80.0 ? 360.0 : 4.0);
+                BasicPoint point = new BasicPoint("v" + i, lat, lon > 180.0 ? lon - 360.0 : lon < -180.0 ? lon + 360.0 : lon);
+                points.add(point);
+                index.add(point);
+            }
+
+            BasicPoint center = new BasicPoint("c", origin[0], origin[1]);
+            for (double meters : new double[]{5000, 30000, 100000, 150000}) {
+                List<BasicPoint> expected = new ArrayList<>();
+                for (BasicPoint point : points) {
+                    if (Distances.distance(center, point) <= meters) expected.add(point);
+                }
+                assertEquals(sort(expected), sort(index.withinRadius(center, meters, all)));
+            }
+        }
+    }
+
+    @Test
+    public void testStreams() {
+        Random random = new Random(16);
+        PointIndex<BasicPoint> index = new PointIndex<>(200);
+        for (int i = 0; i < 5000; i++) {
+            index.add(near(charring, "p" + i, random));
+        }
+
+        List<BasicPoint> range = index.range(oxford, embankment);
+        assertEquals(sort(range), sort(index.rangeStream(oxford, embankment).collect(Collectors.toList())));
+        assertEquals(range.size(), index.rangeStream(oxford, embankment).parallel().count());
+        assertEquals(10, index.rangeStream(oxford, embankment).limit(10).count());
+
+        assertEquals(index.getAll().size(), index.stream().count());
+        assertEquals(sort(new ArrayList<>(index.getAll().values())), sort(index.stream().collect(Collectors.toList())));
+
+        for (int i = 0; i < 20; i++) {
+            BasicPoint center = near(charring, "q" + i, random);
+            for (double meters : new double[]{100, 1000}) {
+                assertEquals(index.kNearest(center, 25, meters, all),
+                        index.nearest(center, meters, all).limit(25).collect(Collectors.toList()));
+            }
+        }
+        assertEquals(index.kNearest(charring, 5000, 300, all).size(), index.nearest(charring, 300, all).count());
+    }
+
+    @Test
+    public void testVisitorAndResultBuffer() {
+        Random random = new Random(17);
+        for (CellStorage storage : CellStorage.values()) {
+            PointIndex<BasicPoint> index = new PointIndex<>(200, storage);
+            for (int i = 0; i < 2000; i++) {
+                index.add(near(charring, "p" + i, random));
+            }
+
+            List<BasicPoint> visited = new ArrayList<>();
+            index.range(oxford, embankment, visited::add);
+            assertEquals(sort(index.range(oxford, embankment)), sort(visited));
+
+            ResultBuffer<BasicPoint> buffer = new ResultBuffer<>();
+            for (int k : new int[]{50, 5, 0, 20}) {
+                List<BasicPoint> expected = index.kNearest(charring, k, 1000, all);
+                assertEquals(expected.size(), index.kNearest(charring, k, 1000, all, buffer));
+                assertEquals(expected.size(), buffer.size());
+                for (int i = 0; i < buffer.size(); i++) {
+                    assertEquals(expected.get(i), buffer.get(i));
+                }
+            }
+
+            buffer.clear();
+            assertTrue(buffer.isEmpty());
+        }
+    }
+
+    @Test
+    public void testMove() {
+        for (CellStorage storage : CellStorage.values()) {
+            PointIndex<BasicPoint> index = new PointIndex<>(1000, storage);
+            List<String> moves = new ArrayList<>();
+            index.addListener(new PointListener<BasicPoint>() {
+                public void onAdd(BasicPoint point) { moves.add("+" + point.getId()); }
+                public void onRemove(BasicPoint point) { moves.add("-" + point.getId()); }
+                public void onMove(BasicPoint previous, BasicPoint point) { moves.add(previous.getId() + ">" + point.getId()); }
+            });
+
+            index.add(charring);
+            BasicPoint nearby = new BasicPoint(charring.getId(), charring.getLat() + 0.00001, charring.getLon());
+            index.add(nearby);
+            assertEquals(Arrays.asList(nearby), index.range(oxford, embankment));
+
+            BasicPoint far = new BasicPoint(charring.getId(), reykjavik.getLat(), reykjavik.getLon());
+            index.add(far);
+            assertEquals(Arrays.asList(), index.range(oxford, embankment));
+            assertEquals(Arrays.asList(far), index.kNearest(reykjavik, 5, 1000, all));
+            assertEquals(far, index.get(charring.getId()));
+            assertEquals(1, index.getAll().size());
+
+            String id = charring.getId();
+            assertEquals(Arrays.asList("+" + id, id + ">" + id, id + ">" + id), moves);
+        }
+    }
+
+    @Test
+    public void testColumnarStorage() {
+        PointIndex<BasicPoint> index = new PointIndex<>(500, CellStorage.COLUMNAR);
+
+        locations.forEach(index::add);
+
+        List<BasicPoint> expected = Arrays.asList(picadilly, charring, coventGarden, embankment, leicester, oxford);
+        assertEquals(sort(expected), sort(index.range(oxford, embankment)));
+        assertEquals(Arrays.asList(charring, embankment, leicester, coventGarden, picadilly), index.kNearest(charring, 5, 20000, all));
+
+        index.remove(embankment.getId());
+        index.add(new BasicPoint(leicester.getId(), waterloo.lat(), waterloo.lon()));
+
+        assertEquals(Arrays.asList(charring, coventGarden, picadilly), index.kNearest(charring, 3, 20000, all));
+        assertEquals(waterloo.lat(), index.get(leicester.getId()).lat(), 0.0);
+    }
+
+    @Test
+    public void testColumnarMatchesMap() {
+        PointIndex<BasicPoint> map = new PointIndex<>(200);
+        PointIndex<BasicPoint> columnar = new PointIndex<>(200, CellStorage.COLUMNAR);
+        Random random = new Random(5);
+
+        for (int i = 0; i < 20000; i++) {
+            String id = "v" + random.nextInt(500);
+            if (random.nextInt(5) == 0) {
+                map.remove(id);
+                columnar.remove(id);
+            } else {
+                BasicPoint point = new BasicPoint(id, 51.5 + random.nextDouble() * 0.01, -0.13 + random.nextDouble() * 0.01);
+                map.add(point);
+                columnar.add(point);
+            }
+        }
+
+        assertEquals(map.getAll(), columnar.getAll());
+        assertEquals(sort(map.range(oxford, embankment)), sort(columnar.range(oxford, embankment)));
+        assertEquals(map.kNearest(charring, 20, 2000, all), columnar.kNearest(charring, 20, 2000, all));
+    }
+
+    @Test
+    public void testAddAll() {
+        Random random = new Random(13);
+        List<BasicPoint> batch = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            batch.add(new BasicPoint("v" + random.nextInt(15000), 51.45 + random.nextDouble() * 0.1, -0.2 + random.nextDouble() * 0.15));
+        }
+
+        for (CellStorage storage : CellStorage.values()) {
+            PointIndex<BasicPoint> expected = new PointIndex<>(200, storage);
+            batch.forEach(expected::add);
+            PointIndex<BasicPoint> built = PointIndex.build(batch, 200, storage);
+
+            assertEquals(expected.getAll(), built.getAll());
+            assertEquals(sort(expected.range(oxford, embankment)), sort(built.range(oxford, embankment)));
+
+            List<BasicPoint> moves = new ArrayList<>();
+            for (int i = 0; i < 10000; i++) {
+                BasicPoint point = batch.get(random.nextInt(batch.size()));
+                moves.add(new BasicPoint(point.getId(), point.lat() + random.nextGaussian() * 0.001, point.lon()));
+            }
+            moves.forEach(expected::add);
+            built.addAll(moves);
+
+            assertEquals(expected.getAll(), built.getAll());
+            assertEquals(sort(expected.range(oxford, embankment)), sort(built.range(oxford, embankment)));
+            assertEquals(expected.kNearest(charring, 50, 2000, all), built.kNearest(charring, 50, 2000, all));
+            for (BasicPoint point : expected.getAll().values()) {
+                assertEquals(point, built.get(point.getId()));
+            }
+        }
+    }
+
+    @Test
+    public void testAddAllNotifiesOncePerId() {
+        Random random = new Random(14);
+        for (int size : new int[]{100, 10000}) {
+            PointIndex<BasicPoint> index = new PointIndex<>(200);
+            index.add(new BasicPoint("v0", charring.lat(), charring.lon()));
+
+            List<String> events = new ArrayList<>();
+            index.addListener(new PointListener<BasicPoint>() {
+                @Override
+                public void onAdd(BasicPoint point) {
+                    events.add("add " + point.getId());
+                }
+
+                @Override
+                public void onMove(BasicPoint from, BasicPoint to) {
+                    events.add("move " + to.getId());
+                }
+
+                @Override
+                public void onRemove(BasicPoint point) {
+                    events.add("remove " + point.getId());
+                }
+            });
+            events.clear();
+
+            // each id twice, the same instance for the odd ones
+            List<BasicPoint> batch = new ArrayList<>();
+            for (int i = 0; i < size / 2; i++) {
+                batch.add(near(charring, "v" + i, random));
+            }
+            for (int i = 0; i < size / 2; i++) {
+                batch.add(i % 2 == 1 ? batch.get(i) : near(charring, "v" + i, random));
+            }
+            index.addAll(batch);
+
+            assertEquals(size / 2, events.size());
+            assertEquals("move v0", events.get(0));
+            for (int i = 1; i < size / 2; i++) {
+                assertEquals("add v" + i, events.get(i));
+                assertSame(batch.get(size / 2 + i), index.get("v" + i));
+            }
+            assertEquals(size / 2, index.range(brentCross, swanley).size());
+        }
+    }
+
+    @Test
+    public void testKNearestBeyondFullRing() {
+        double resolution = 1000;
+        Cell cell = Cell.cellOf(charring, resolution);
+
+        BasicPoint query = atGrid("query", cell, resolution, 0.95, 0.5);
+        BasicPoint farSouth = atGrid("far south", cell, resolution, -0.95, 0.5);
+        BasicPoint southWest = atGrid("south west", cell, resolution, -0.9, -0.5);
+        BasicPoint nearNorth = atGrid("near north", cell, resolution, 2.05, 0.5);
+
+        PointIndex<BasicPoint> index = new PointIndex<>(resolution);
+        Arrays.asList(farSouth, southWest, nearNorth).forEach(index::add);
+
+        assertEquals(Arrays.asList(nearNorth), index.kNearest(query, 1, 5000, all));
+        assertEquals(Arrays.asList(nearNorth, farSouth), index.kNearest(query, 2, 5000, all));
+    }
+
     @Test
     public void testExpiringIndex() throws InterruptedException {
         PointIndex<BasicPoint> index = new PointIndex<>(1000, Duration.ofMillis(5000));
@@ -80,6 +394,202 @@ public class PointIndexTest extends BaseTest {
         assertEquals(sort(index.kNearest(charring, 3, 5000, all)), sort(Arrays.asList(embankment, leicester, coventGarden)));
     }
 
+    @Test
+    public void testBoxedPoint() {
+        PointIndex<IPoint> index = new PointIndex<>(500);
+        IPoint boxed = new IPoint() {
+            public String getId() { return "boxed"; }
+            public Double getLat() { return charring.getLat(); }
+            public Double getLon() { return charring.getLon(); }
+        };
+
+        index.add(boxed);
+        index.add(embankment);
+
+        assertEquals(Arrays.asList(boxed, embankment), index.kNearest(charring, 2, 1000, point -> true));
+        assertEquals(2, index.range(oxford, embankment).size());
+    }
+
+    private BasicPoint atGrid(String id, Cell cell, double resolution, double dx, double dy) {
+        return new BasicPoint(id,
+                (cell.getX() + dx) * resolution / Cell.LAT_DEGREE_LENGTH - 90.0,
+                (cell.getY() + dy) * resolution / Cell.LON_DEGREE_LENGTH - 180.0);
+    }
+
+    @Test
+    public void testExpiringIndexWithClock() {
+        MutableClock clock = new MutableClock(0);
+        PointIndex<BasicPoint> index = new PointIndex<>(1000, Duration.ofMillis(5000), clock);
+
+        index.add(picadilly);
+        clock.advance(Duration.ofMillis(1000));
+        index.add(charring);
+        index.add(picadilly);
+
+        clock.advance(Duration.ofMillis(5000));
+        assertNotNull(index.get(picadilly.getId()));
+        assertNotNull(index.get(charring.getId()));
+
+        clock.advance(Duration.ofMillis(1));
+        assertEquals(null, index.get(charring.getId()));
+        assertEquals(Arrays.asList(), index.range(oxford, embankment));
+        assertEquals(0, index.getAll().size());
+    }
+
+    @Test
+    public void testSnapshotIsolation() {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000, CellStorage.COLUMNAR);
+        locations.forEach(index::add);
+
+        PointIndex<BasicPoint> snapshot = index.snapshot();
+        List<? extends IPoint> range = sort(snapshot.range(oxford, embankment));
+
+        index.remove(charring.getId());
+        index.add(new BasicPoint(picadilly.getId(), reykjavik.getLat(), reykjavik.getLon()));
+        index.add(new BasicPoint("new", leicester.getLat(), leicester.getLon()));
+
+        assertEquals(range, sort(snapshot.range(oxford, embankment)));
+        assertEquals(charring, snapshot.get(charring.getId()));
+        assertEquals(picadilly, snapshot.get(picadilly.getId()));
+        assertEquals(null, snapshot.get("new"));
+        assertEquals(locations.size(), snapshot.getAll().size());
+
+        assertEquals(null, index.get(charring.getId()));
+        assertEquals(range.size() - 1, index.range(oxford, embankment).size());
+        assertTrue(snapshot.isReadOnly());
+        assertFalse(index.isReadOnly());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshotIsReadOnly() {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000);
+        index.add(charring);
+
+        index.snapshot().add(embankment);
+    }
+
+    @Test
+    public void testSnapshotWhileWriting() throws Exception {
+        Random random = new Random(15);
+        PointIndex<BasicPoint> index = new PointIndex<>(500);
+        for (int i = 0; i < 5000; i++) {
+            index.add(near(charring, "p" + i, random));
+        }
+
+        PointIndex<BasicPoint> snapshot = index.snapshot();
+        List<BasicPoint> nearest = snapshot.kNearest(charring, 50, 5000, all);
+        int inRange = snapshot.range(oxford, embankment).size();
+
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> consistent = reader.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    if (!nearest.equals(snapshot.kNearest(charring, 50, 5000, all))
+                            || inRange != snapshot.range(oxford, embankment).size()) {
+                        return false;
+                    }
+                }
+                return true;
+            });
+
+            while (!consistent.isDone()) {
+                index.add(near(charring, "p" + random.nextInt(10000), random));
+                index.remove("p" + random.nextInt(10000));
+            }
+            assertTrue(consistent.get());
+        } finally {
+            reader.shutdown();
+        }
+    }
+
+    @Test
+    public void testCloneIsIndependent() {
+        MutableClock clock = new MutableClock(0);
+        PointIndex<BasicPoint> index = new PointIndex<>(1000, Duration.ofMillis(5000), clock);
+        index.add(picadilly);
+        clock.advance(Duration.ofMillis(1000));
+        index.add(charring);
+
+        PointIndex<BasicPoint> clone = index.clone();
+        index.remove(charring.getId());
+        clone.add(embankment);
+
+        assertEquals(Arrays.asList(picadilly), index.range(oxford, embankment));
+        assertEquals(sort(Arrays.asList(picadilly, charring, embankment)), sort(clone.range(oxford, embankment)));
+
+        clock.advance(Duration.ofMillis(4500));
+        assertEquals(null, clone.get(picadilly.getId()));
+        assertEquals(charring, clone.get(charring.getId()));
+        assertEquals(null, index.get(picadilly.getId()));
+    }
+
+    @Test
+    public void testMigrate() {
+        Random random = new Random(24);
+        MutableClock clock = new MutableClock(0);
+        PointIndex<BasicPoint> index = new PointIndex<>(100, Duration.ofMillis(5000), clock);
+        index.setCacheSize(16);
+        for (int i = 0; i < 1000; i++) {
+            index.add(near(charring, "v" + i, random));
+        }
+
+        // the build runs when the test says so, after the index has moved on
+        List<Runnable> tasks = new ArrayList<>();
+        Future<Void> switched = index.migrate(1000, tasks::add);
+        assertEquals(100, index.getResolution(), 0.0);
+
+        clock.advance(Duration.ofMillis(3000));
+        for (int i = 0; i < 500; i++) {
+            index.add(near(charring, "v" + random.nextInt(1500), random));
+        }
+        for (int i = 0; i < 100; i++) {
+            index.remove("v" + random.nextInt(1500));
+        }
+        List<BasicPoint> before = index.kNearest(charring, 10, 2000, all);
+        QueryCache<BasicPoint> cache = index.getCache();
+        long misses = cache.getMisses();
+
+        tasks.forEach(Runnable::run);
+        assertFalse(switched.isDone());
+        clock.advance(Duration.ofMillis(2500));
+
+        assertTrue(index.size() < 500);
+        assertEquals(1000, index.getResolution(), 0.0);
+        assertTrue(switched.isDone());
+
+        // the switch drops the cached results, not the cache or its statistics
+        assertSame(cache, index.getCache());
+        assertEquals(0, cache.size());
+        assertEquals(misses, cache.getMisses());
+
+        PointIndex<BasicPoint> expected = new PointIndex<>(1000);
+        index.getAll().values().forEach(expected::add);
+        assertEquals(expected.kNearest(charring, 10, 2000, all), index.kNearest(charring, 10, 2000, all));
+        assertEquals(sort(expected.range(oxford, londonBridge)), sort(index.range(oxford, londonBridge)));
+        assertFalse(before.equals(index.kNearest(charring, 10, 2000, all)));
+        for (BasicPoint point : index.getAll().values()) {
+            assertEquals(point, index.get(point.getId()));
+        }
+    }
+
+    @Test
+    public void testSuggestResolution() {
+        Random random = new Random(25);
+        PointIndex<BasicPoint> index = new PointIndex<>(100);
+
+        // 40000 points uniformly over about 4.4 x 4.4 km
+        for (int i = 0; i < 40000; i++) {
+            index.add(new BasicPoint("v" + i, 51.49 + random.nextDouble() * 0.04, -0.16 + random.nextDouble() * 0.064));
+        }
+
+        // a cell of 110 m holds about 25 points
+        double suggested = index.suggestResolution(25);
+        assertTrue(suggested > 100 && suggested < 125);
+
+        assertEquals(2 * suggested, index.suggestResolution(100), 1e-9);
+        assertEquals(100, new PointIndex<BasicPoint>(100).suggestResolution(25), 0.0);
+    }
+
     private List<? extends IPoint> sort(List<? extends IPoint> pointList) {
         pointList.sort((IPoint o1, IPoint o2) -> o1.getId().compareTo(o2.getId()));
         return pointList;
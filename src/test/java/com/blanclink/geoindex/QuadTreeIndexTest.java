@@ -0,0 +1,121 @@
+package com.blanclink.geoindex;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QuadTreeIndexTest extends BaseTest {
+
+    private Predicate<BasicPoint> all = point -> true;
+
+    @Test
+    public void testRange() {
+        QuadTreeIndex<BasicPoint> index = new QuadTreeIndex<>(4);
+
+        locations.forEach(index::add);
+
+        List<BasicPoint> expected = Arrays.asList(picadilly, charring, coventGarden, embankment, leicester, oxford);
+        assertEquals(sort(expected), sort(index.range(oxford, embankment)));
+    }
+
+    @Test
+    public void testKNearest() {
+        QuadTreeIndex<BasicPoint> index = new QuadTreeIndex<>(4);
+
+        locations.forEach(index::add);
+
+        assertEquals(Arrays.asList(charring, embankment, leicester), index.kNearest(charring, 3, 1000, all));
+        assertEquals(Arrays.asList(charring, embankment, leicester, coventGarden, picadilly), index.kNearest(charring, 5, 20000, all));
+
+        Predicate<BasicPoint> noPicadilly = point -> !point.getId().contains("Piccadilly");
+
+        assertEquals(Arrays.asList(charring, embankment, leicester, coventGarden, westminster), index.kNearest(charring, 5, 20000, noPicadilly));
+        assertEquals(9, index.kNearest(charring, 100, 1000, all).size());
+    }
+
+    @Test
+    public void testSplitAndMerge() {
+        QuadTreeIndex<BasicPoint> index = new QuadTreeIndex<>(8);
+        Random random = new Random(1);
+
+        for (int i = 0; i < 1000; i++) {
+            index.add(new BasicPoint("p" + i, 51.5 + random.nextDouble() * 0.001, -0.12 + random.nextDouble() * 0.001));
+        }
+        assertTrue(index.depth() > 15);
+
+        for (int i = 0; i < 1000; i++) {
+            index.remove("p" + i);
+        }
+        assertEquals(0, index.depth());
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testSameCoordinates() {
+        QuadTreeIndex<BasicPoint> index = new QuadTreeIndex<>(2);
+
+        for (int i = 0; i < 100; i++) {
+            index.add(new BasicPoint("p" + i, charring.lat(), charring.lon()));
+        }
+
+        assertEquals(100, index.range(oxford, embankment).size());
+        assertEquals(10, index.kNearest(charring, 10, 10, all).size());
+    }
+
+    @Test
+    public void testMatchesPointIndex() {
+        PointIndex<BasicPoint> grid = new PointIndex<>(200);
+        QuadTreeIndex<BasicPoint> tree = new QuadTreeIndex<>(16);
+        Random random = new Random(5);
+
+        for (int i = 0; i < 50000; i++) {
+            String id = "v" + random.nextInt(2000);
+            if (random.nextInt(5) == 0) {
+                grid.remove(id);
+                tree.remove(id);
+            } else {
+                // most points on a single block, the rest spread over London
+                double spread = random.nextInt(10) < 8 ? 0.002 : 0.4;
+                BasicPoint point = new BasicPoint(id, 51.5 + random.nextDouble() * spread, -0.13 + random.nextDouble() * spread);
+                grid.add(point);
+                tree.add(point);
+            }
+        }
+
+        assertEquals(grid.getAll(), tree.getAll());
+        assertEquals(sort(grid.range(oxford, embankment)), sort(tree.range(oxford, embankment)));
+        assertEquals(sort(grid.range(regentsPark, lewisham)), sort(tree.range(regentsPark, lewisham)));
+
+        for (BasicPoint query : Arrays.asList(charring, waterloo, brentCross, swanley)) {
+            assertEquals(grid.kNearest(query, 20, 5000, all), tree.kNearest(query, 20, 5000, all));
+            assertEquals(grid.kNearest(query, 500, 1000, all), tree.kNearest(query, 500, 1000, all));
+        }
+    }
+
+    @Test
+    public void testExpiringIndex() {
+        MutableClock clock = new MutableClock(0);
+        QuadTreeIndex<BasicPoint> index = new QuadTreeIndex<>(2, Duration.ofMillis(5000), clock);
+
+        locations.forEach(index::add);
+        clock.advance(Duration.ofMillis(1000));
+        index.add(charring);
+
+        clock.advance(Duration.ofMillis(4001));
+        assertNull(index.get(picadilly.getId()));
+        assertEquals(Arrays.asList(charring), index.range(oxford, embankment));
+        assertEquals(1, index.size());
+    }
+
+    private List<? extends IPoint> sort(List<? extends IPoint> pointList) {
+        pointList.sort((IPoint o1, IPoint o2) -> o1.getId().compareTo(o2.getId()));
+        return pointList;
+    }
+
+}
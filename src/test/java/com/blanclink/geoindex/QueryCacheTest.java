@@ -0,0 +1,169 @@
+package com.blanclink.geoindex;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueryCacheTest extends BaseTest {
+
+    private final Predicate<BasicPoint> all = point -> true;
+
+    @Test
+    public void testMatchesUncached() {
+        Random random = new Random(21);
+        PointIndex<BasicPoint> cached = new PointIndex<>(300);
+        PointIndex<BasicPoint> plain = new PointIndex<>(300);
+        cached.setCacheSize(16);
+
+        List<BasicPoint> centers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            centers.add(new BasicPoint("c" + i, 51.50 + random.nextDouble() * 0.02, -0.14 + random.nextDouble() * 0.03));
+        }
+
+        for (int i = 0; i < 20000; i++) {
+            int op = random.nextInt(10);
+            BasicPoint center = centers.get(random.nextInt(centers.size()));
+
+            if (op == 0) {
+                BasicPoint point = new BasicPoint("v" + random.nextInt(500),
+                        51.50 + random.nextDouble() * 0.02, -0.14 + random.nextDouble() * 0.03);
+                cached.add(point);
+                plain.add(point);
+            } else if (op == 1) {
+                String id = "v" + random.nextInt(500);
+                cached.remove(id);
+                plain.remove(id);
+            } else if (op < 6) {
+                BasicPoint topLeft = new BasicPoint("tl", center.getLat() + 0.002, center.getLon() - 0.003);
+                BasicPoint bottomRight = new BasicPoint("br", center.getLat() - 0.002, center.getLon() + 0.003);
+                assertEquals(sort(plain.range(topLeft, bottomRight)), sort(cached.range(topLeft, bottomRight)));
+            } else {
+                assertEquals(plain.kNearest(center, 5, 1000, all), cached.kNearest(center, 5, 1000, all));
+            }
+        }
+
+        QueryCache<BasicPoint> cache = cached.getCache();
+        assertTrue(cache.getHits() > 0);
+        assertTrue(cache.getStale() > 0);
+        assertTrue(cache.size() <= 16);
+    }
+
+    @Test
+    public void testInvalidatesOnlyTouchedCells() {
+        PointIndex<BasicPoint> index = new PointIndex<>(500);
+        index.setCacheSize(10);
+        locations.forEach(index::add);
+
+        List<BasicPoint> range = index.range(oxford, embankment);
+        index.add(new BasicPoint("far", reykjavik.getLat(), reykjavik.getLon()));
+        assertEquals(range, index.range(oxford, embankment));
+        assertEquals(1, index.getCache().getHits());
+
+        index.add(new BasicPoint("near", charring.getLat(), charring.getLon()));
+        assertEquals(range.size() + 1, index.range(oxford, embankment).size());
+        assertEquals(1, index.getCache().getStale());
+
+        // results are copies
+        index.range(oxford, embankment).clear();
+        assertEquals(range.size() + 1, index.range(oxford, embankment).size());
+    }
+
+    @Test
+    public void testDriftingBoxesShareEntry() {
+        PointIndex<BasicPoint> cached = new PointIndex<>(1000);
+        PointIndex<BasicPoint> plain = new PointIndex<>(1000);
+        cached.setCacheSize(10);
+        locations.forEach(cached::add);
+        locations.forEach(plain::add);
+
+        // a poll whose box moves by a few metres, within the same cells, and by a few ulps
+        for (double drift : new double[]{0, 1e-15, 2e-5, -3e-5, 4e-5}) {
+            BasicPoint topLeft = new BasicPoint("tl", oxford.getLat() + drift, oxford.getLon() - drift);
+            BasicPoint bottomRight = new BasicPoint("br", embankment.getLat() + drift, embankment.getLon() + drift);
+            assertEquals(plain.range(topLeft, bottomRight), cached.range(topLeft, bottomRight));
+        }
+        assertEquals(1, cached.getCache().getMisses());
+        assertEquals(4, cached.getCache().getHits());
+    }
+
+    @Test
+    public void testExpiryInvalidates() {
+        MutableClock clock = new MutableClock(0);
+        PointIndex<BasicPoint> index = new PointIndex<>(500, Duration.ofMillis(100), clock);
+        index.setCacheSize(10);
+        index.add(charring);
+        index.add(embankment);
+
+        assertEquals(Arrays.asList(charring, embankment), index.kNearest(charring, 2, 1000, all));
+        clock.advance(Duration.ofMillis(50));
+        index.add(embankment);
+        clock.advance(Duration.ofMillis(60));
+
+        assertEquals(Arrays.asList(embankment), index.kNearest(charring, 2, 1000, all));
+        assertEquals(0, index.getCache().getHits());
+    }
+
+    @Test
+    public void testEviction() {
+        PointIndex<BasicPoint> index = new PointIndex<>(500);
+        index.setCacheSize(2);
+        locations.forEach(index::add);
+
+        index.kNearest(charring, 1, 1000, all);
+        index.kNearest(oxford, 1, 1000, all);
+        index.kNearest(charring, 1, 1000, all);
+        index.kNearest(waterloo, 1, 1000, all);
+        index.kNearest(charring, 1, 1000, all);
+        index.kNearest(oxford, 1, 1000, all);
+
+        QueryCache<BasicPoint> cache = index.getCache();
+        assertEquals(2, cache.getHits());
+        assertEquals(4, cache.getMisses());
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test
+    public void testStampsStayBounded() {
+        Random random = new Random(29);
+        PointIndex<BasicPoint> cached = new PointIndex<>(1000);
+        PointIndex<BasicPoint> plain = new PointIndex<>(1000);
+        cached.setCacheSize(4);
+        locations.forEach(cached::add);
+        locations.forEach(plain::add);
+
+        // writes spread over far more cells than the stamps kept, between repeats of the same queries
+        for (int i = 0; i < 50000; i++) {
+            BasicPoint point = new BasicPoint("w" + i, random.nextDouble() * 120 - 60, random.nextDouble() * 360 - 180);
+            cached.add(point);
+            plain.add(point);
+            if (i % 1000 == 0) {
+                assertEquals(plain.range(oxford, embankment), cached.range(oxford, embankment));
+                assertEquals(plain.kNearest(charring, 3, 5000, all), cached.kNearest(charring, 3, 5000, all));
+            }
+            if (i % 7000 == 0) {
+                BasicPoint near = new BasicPoint("n" + i, charring.getLat(), charring.getLon());
+                cached.add(near);
+                plain.add(near);
+            }
+        }
+
+        QueryCache<BasicPoint> cache = cached.getCache();
+        assertTrue(cache.stamps() <= 1024);
+        assertTrue(cache.getHits() > 0);
+        assertTrue(cache.getStale() > 0);
+    }
+
+    private List<? extends IPoint> sort(List<? extends IPoint> pointList) {
+        pointList.sort((IPoint o1, IPoint o2) -> o1.getId().compareTo(o2.getId()));
+        return pointList;
+    }
+
+}
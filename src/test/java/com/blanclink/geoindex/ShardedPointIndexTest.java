@@ -0,0 +1,198 @@
+package com.blanclink.geoindex;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedPointIndexTest extends BaseTest {
+
+    private Predicate<BasicPoint> all = point -> true;
+
+    private static List<BasicPoint> byId(List<BasicPoint> points) {
+        List<BasicPoint> sorted = new ArrayList<>(points);
+        sorted.sort(Comparator.comparing(BasicPoint::getId));
+        return sorted;
+    }
+
+    @Test
+    public void testMatchesSingleIndex() {
+        Random random = new Random(22);
+        PointIndex<BasicPoint> single = new PointIndex<>(100);
+
+        try (ShardedPointIndex<BasicPoint> sharded = new ShardedPointIndex<>(100, 4, 4)) {
+            for (int i = 0; i < 20000; i++) {
+                BasicPoint point = new BasicPoint("v" + random.nextInt(2000),
+                        51.45 + random.nextDouble() * 0.1, -0.2 + random.nextDouble() * 0.2);
+                if (random.nextInt(10) == 0) {
+                    single.remove(point.getId());
+                    sharded.remove(point.getId());
+                } else {
+                    single.add(point);
+                    sharded.add(point);
+                }
+            }
+
+            assertEquals(single.size(), sharded.size());
+            for (int size : sharded.shardSizes()) {
+                assertTrue(size > 0);
+            }
+
+            for (int i = 0; i < 50; i++) {
+                BasicPoint center = new BasicPoint("q", 51.45 + random.nextDouble() * 0.1, -0.2 + random.nextDouble() * 0.2);
+                BasicPoint topLeft = new BasicPoint("tl", center.lat() + 0.01, center.lon() - 0.02);
+                BasicPoint bottomRight = new BasicPoint("br", center.lat() - 0.01, center.lon() + 0.02);
+
+                assertEquals(byId(single.range(topLeft, bottomRight)), byId(sharded.range(topLeft, bottomRight)));
+                assertEquals(byId(single.withinRadius(center, 800, all)), byId(sharded.withinRadius(center, 800, all)));
+                assertEquals(single.kNearest(center, 10, 1500, all), sharded.kNearest(center, 10, 1500, all));
+            }
+
+            for (BasicPoint point : single.getAll().values()) {
+                assertEquals(point, sharded.get(point.getId()));
+            }
+        }
+    }
+
+    @Test
+    public void testKNearestMatchesBruteForce() {
+        Random random = new Random(31);
+        PointIndex<BasicPoint> single = new PointIndex<>(200);
+        List<BasicPoint> points = new ArrayList<>();
+
+        try (ShardedPointIndex<BasicPoint> sharded = new ShardedPointIndex<>(200, 5, 1)) {
+            for (int i = 0; i < 3000; i++) {
+                BasicPoint point = new BasicPoint("v" + i, 51.45 + random.nextDouble() * 0.1, -0.2 + random.nextDouble() * 0.2);
+                points.add(point);
+                single.add(point);
+                sharded.add(point);
+            }
+
+            for (int i = 0; i < 300; i++) {
+                BasicPoint center = new BasicPoint("q", 51.45 + random.nextDouble() * 0.1, -0.2 + random.nextDouble() * 0.2);
+                int k = 1 + random.nextInt(30);
+                double maxDistance = 50 + random.nextDouble() * 1500;
+
+                // the k nearest by approximate distance, cut at the first one beyond maxDistance
+                List<BasicPoint> expected = new ArrayList<>(points);
+                expected.sort(Comparator.comparingDouble(point -> Distances.approximateSquareDistance(center, point)));
+                expected = expected.subList(0, k);
+                for (int j = 0; j < expected.size(); j++) {
+                    if (Distances.distance(center, expected.get(j)) > maxDistance) {
+                        expected = expected.subList(0, j);
+                        break;
+                    }
+                }
+
+                assertEquals(expected, single.kNearest(center, k, maxDistance, all));
+                assertEquals(expected, sharded.kNearest(center, k, maxDistance, all));
+            }
+        }
+    }
+
+    @Test
+    public void testWithinRadiusAcrossAntimeridian() {
+        Random random = new Random(37);
+        PointIndex<BasicPoint> single = new PointIndex<>(5000);
+
+        try (ShardedPointIndex<BasicPoint> sharded = new ShardedPointIndex<>(5000, 4, 2)) {
+            for (int i = 0; i < 2000; i++) {
+                double lon = random.nextDouble() * 4 - 2;
+                BasicPoint point = new BasicPoint("v" + i, 64 + random.nextDouble() * 4, lon < 0 ? lon + 180 : lon - 180);
+                single.add(point);
+                sharded.add(point);
+            }
+
+            for (double lon : new double[]{-179.9, 179.9, 180.0}) {
+                BasicPoint center = new BasicPoint("q", 66, lon);
+                assertEquals(byId(single.withinRadius(center, 60000, all)), byId(sharded.withinRadius(center, 60000, all)));
+            }
+        }
+    }
+
+    @Test
+    public void testMoveAcrossShards() {
+        try (ShardedPointIndex<BasicPoint> sharded = new ShardedPointIndex<>(500, 8, 1)) {
+            sharded.add(new BasicPoint("bus", waterloo.lat(), waterloo.lon()));
+            sharded.add(new BasicPoint("bus", brentCross.lat(), brentCross.lon()));
+
+            assertEquals(1, sharded.size());
+            assertEquals(brentCross.lat(), sharded.get("bus").lat(), 0.0);
+            assertEquals(Collections.emptyList(), sharded.kNearest(waterloo, 1, 1000, all));
+            assertEquals("bus", sharded.kNearest(brentCross, 1, 1000, all).get(0).getId());
+
+            sharded.remove("bus");
+            assertEquals(0, sharded.size());
+            assertEquals(null, sharded.get("bus"));
+        }
+    }
+
+    @Test
+    public void testConcurrentAddOfNewIds() throws InterruptedException {
+        int writers = 4, ids = 2000;
+
+        try (ShardedPointIndex<BasicPoint> sharded = new ShardedPointIndex<>(500, 8, 1)) {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                // every writer puts the same ids into its own area of London, so into different shards
+                double lat = 51.40 + w * 0.05;
+                threads.add(new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < ids; i++) {
+                        sharded.add(new BasicPoint("v" + i, lat, -0.2 + i * 0.0001));
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            assertEquals(ids, sharded.size());
+            for (int i = 0; i < ids; i++) {
+                sharded.remove("v" + i);
+            }
+            assertEquals(0, sharded.size());
+        }
+    }
+
+    @Test
+    public void testKNearestZero() {
+        try (ShardedPointIndex<BasicPoint> sharded = new ShardedPointIndex<>(500, 4, 1)) {
+            locations.forEach(sharded::add);
+            assertEquals(Collections.emptyList(), sharded.kNearest(charring, 0, 5000, all));
+        }
+    }
+
+    @Test
+    public void testExpiration() {
+        MutableClock clock = new MutableClock(0);
+
+        try (ShardedPointIndex<BasicPoint> sharded = new ShardedPointIndex<>(500, 4, 1, Duration.ofSeconds(5), clock)) {
+            sharded.add(waterloo);
+            clock.advance(Duration.ofSeconds(3));
+            sharded.add(brentCross);
+            clock.advance(Duration.ofSeconds(3));
+
+            assertEquals(1, sharded.expire());
+            assertEquals(null, sharded.get(waterloo.getId()));
+            assertEquals(brentCross, sharded.get(brentCross.getId()));
+
+            sharded.add(waterloo);
+            assertEquals(waterloo, sharded.get(waterloo.getId()));
+            assertEquals(2, sharded.size());
+        }
+    }
+
+}
@@ -0,0 +1,245 @@
+package com.blanclink.geoindex;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SnapshotTest extends BaseTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Predicate<BasicPoint> all = point -> true;
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000);
+        locations.forEach(index::add);
+
+        Path path = folder.getRoot().toPath().resolve("tube.snapshot");
+        index.writeSnapshot(path);
+        PointIndex<BasicPoint> opened = PointIndex.openSnapshot(path);
+
+        assertEquals(index.getAll(), opened.getAll());
+        assertEquals(sort(index.range(oxford, embankment)), sort(opened.range(oxford, embankment)));
+        assertEquals(index.kNearest(charring, 5, 20000, all), opened.kNearest(charring, 5, 20000, all));
+        assertEquals(sort(index.withinRadius(charring, 1000, all)), sort(opened.withinRadius(charring, 1000, all)));
+        for (BasicPoint location : locations) {
+            assertEquals(location, opened.get(location.getId()));
+        }
+        assertNull(opened.get("Nowhere"));
+    }
+
+    @Test
+    public void testReadsReusePoints() throws IOException {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000);
+        locations.forEach(index::add);
+
+        Path path = folder.getRoot().toPath().resolve("tube.snapshot");
+        index.writeSnapshot(path);
+        PointIndex<BasicPoint> opened = PointIndex.openSnapshot(path);
+
+        // each point is created by the first query returning it, later queries return the same instance
+        List<BasicPoint> range = opened.range(brentCross, swanley);
+        IdentityHashMap<BasicPoint, Boolean> created = new IdentityHashMap<>();
+        range.forEach(point -> created.put(point, true));
+        for (BasicPoint point : opened.range(brentCross, swanley)) {
+            assertTrue(created.containsKey(point));
+        }
+        for (BasicPoint point : opened.kNearest(charring, 20, 2000, all)) {
+            assertTrue(created.containsKey(point));
+        }
+        for (BasicPoint point : opened.withinRadius(charring, 2000, all)) {
+            assertTrue(created.containsKey(point));
+        }
+        assertSame(opened.get(charring.getId()), opened.get(charring.getId()));
+
+        // a copied cell keeps the instances
+        PointIndex<BasicPoint> snapshot = opened.snapshot();
+        opened.add(new BasicPoint("new", charring.lat(), charring.lon()));
+        for (BasicPoint point : opened.range(brentCross, swanley)) {
+            assertTrue(point.getId().equals("new") || created.containsKey(point));
+        }
+        assertEquals(range.size(), snapshot.range(brentCross, swanley).size());
+    }
+
+    @Test
+    public void testChangesAfterOpen() throws IOException {
+        PointIndex<BasicPoint> index = new PointIndex<>(500);
+        locations.forEach(index::add);
+
+        Path path = folder.getRoot().toPath().resolve("tube.snapshot");
+        index.writeSnapshot(path);
+        PointIndex<BasicPoint> opened = PointIndex.openSnapshot(path);
+
+        Random random = new Random(17);
+        for (int i = 0; i < 2000; i++) {
+            BasicPoint location = locations.get(random.nextInt(locations.size()));
+            if (random.nextInt(3) == 0) {
+                index.remove(location.getId());
+                opened.remove(location.getId());
+            } else {
+                BasicPoint moved = new BasicPoint(random.nextBoolean() ? location.getId() : "new " + random.nextInt(100),
+                        location.lat() + random.nextGaussian() * 0.01, location.lon() + random.nextGaussian() * 0.01);
+                index.add(moved);
+                opened.add(moved);
+            }
+        }
+
+        assertEquals(index.getAll(), opened.getAll());
+        assertEquals(sort(index.range(regentsPark, lewisham)), sort(opened.range(regentsPark, lewisham)));
+        assertEquals(index.kNearest(charring, 20, 20000, all), opened.kNearest(charring, 20, 20000, all));
+
+        Path again = folder.getRoot().toPath().resolve("again.snapshot");
+        opened.writeSnapshot(again);
+        assertEquals(index.getAll(), PointIndex.openSnapshot(again).getAll());
+    }
+
+    @Test
+    public void testDeadlines() throws IOException {
+        MutableClock clock = new MutableClock(0);
+        PointIndex<BasicPoint> index = new PointIndex<>(1000, Duration.ofMillis(5000), clock);
+
+        index.add(picadilly);
+        clock.advance(Duration.ofMillis(1000));
+        index.add(charring);
+
+        Path path = folder.getRoot().toPath().resolve("expiring.snapshot");
+        index.writeSnapshot(path);
+        PointIndex<BasicPoint> opened = PointIndex.openSnapshot(path, Duration.ofMillis(5000), clock);
+
+        clock.advance(Duration.ofMillis(4001));
+        assertNull(opened.get(picadilly.getId()));
+        assertEquals(Arrays.asList(charring), opened.range(oxford, embankment));
+
+        clock.advance(Duration.ofMillis(1000));
+        assertEquals(0, opened.getAll().size());
+    }
+
+    @Test
+    public void testExpiresUnchangedIdsWithoutDeadlines() throws IOException {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000);
+        locations.forEach(index::add);
+        Path path = folder.getRoot().toPath().resolve("tube.snapshot");
+        index.writeSnapshot(path);
+
+        MutableClock clock = new MutableClock(0);
+        PointIndex<BasicPoint> opened = PointIndex.openSnapshot(path, Duration.ofMillis(5000), clock);
+        clock.advance(Duration.ofMillis(3000));
+        opened.add(charring);
+        opened.remove(picadilly.getId());
+
+        // the replaced and removed ids are skipped by the sweep of the snapshot
+        clock.advance(Duration.ofMillis(2001));
+        assertEquals(locations.size() - 2, opened.expire());
+        assertEquals(1, opened.getAll().size());
+        assertEquals(charring, opened.get(charring.getId()));
+
+        clock.advance(Duration.ofMillis(3000));
+        assertEquals(0, opened.getAll().size());
+    }
+
+    @Test
+    public void testKeepsStorageAndSparseMode() throws IOException {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000, CellStorage.COLUMNAR);
+        index.setSparse(true);
+        locations.forEach(index::add);
+        Path path = folder.getRoot().toPath().resolve("tube.snapshot");
+        index.writeSnapshot(path);
+
+        Snapshot snapshot = Snapshot.open(path);
+        assertEquals(CellStorage.COLUMNAR, snapshot.storage());
+        assertTrue(snapshot.isSparse());
+
+        Path again = folder.getRoot().toPath().resolve("again.snapshot");
+        PointIndex.openSnapshot(path).writeSnapshot(again);
+        snapshot = Snapshot.open(again);
+        assertEquals(CellStorage.COLUMNAR, snapshot.storage());
+        assertTrue(snapshot.isSparse());
+    }
+
+    @Test
+    public void testOpensWithFactory() throws IOException {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000);
+        locations.forEach(index::add);
+        Path path = folder.getRoot().toPath().resolve("tube.snapshot");
+        index.writeSnapshot(path);
+
+        PointIndex<Stop> opened = PointIndex.openSnapshot(path, Stop::new);
+        Stop stop = opened.get(charring.getId());
+        assertEquals(charring.lat(), stop.lat(), 0);
+        assertSame(stop, opened.kNearest(charring, 1, 1000, point -> true).get(0));
+        assertEquals(index.range(oxford, embankment).size(), opened.range(oxford, embankment).size());
+    }
+
+    @Test
+    public void testDeletesTemporaryFileOnFailure() throws IOException {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000);
+        index.add(charring);
+
+        // a non-empty directory cannot be replaced by the finished file
+        Path path = folder.newFolder("taken").toPath();
+        Files.createFile(path.resolve("file"));
+        try {
+            index.writeSnapshot(path);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertFalse(Files.exists(path.resolveSibling("taken.tmp")));
+    }
+
+    @Test
+    public void testRejectsOtherFiles() throws IOException {
+        PointIndex<BasicPoint> index = new PointIndex<>(1000);
+        index.add(charring);
+        Path path = folder.getRoot().toPath().resolve("tube.snapshot");
+        index.writeSnapshot(path);
+
+        byte[] bytes = Files.readAllBytes(path);
+        ByteBuffer.wrap(bytes).putInt(4, Snapshot.VERSION + 1);
+        Files.write(path, bytes);
+        assertRejected(path);
+
+        Files.write(path, "Charing Cross,51.508359,-0.124803".getBytes());
+        assertRejected(path);
+    }
+
+    private void assertRejected(Path path) throws IOException {
+        try {
+            PointIndex.openSnapshot(path);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private List<? extends IPoint> sort(List<? extends IPoint> pointList) {
+        pointList.sort((IPoint o1, IPoint o2) -> o1.getId().compareTo(o2.getId()));
+        return pointList;
+    }
+
+    private static class Stop extends BasicPoint {
+
+        Stop(String id, double lat, double lon) {
+            super(id, lat, lon);
+        }
+    }
+
+}
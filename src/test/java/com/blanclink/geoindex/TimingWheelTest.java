@@ -0,0 +1,69 @@
+package com.blanclink.geoindex;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+
+    @Test
+    public void testFiresOnceAtDeadline() {
+        TimingWheel<String> wheel = new TimingWheel<>(1, 1000);
+        List<String> fired = new ArrayList<>();
+
+        wheel.schedule("a", 1010);
+        wheel.schedule("b", 1010 + 5000);
+        wheel.schedule("a", 1020);
+
+        assertEquals(0, wheel.advance(1019, fired::add));
+        assertEquals(1, wheel.advance(1020, fired::add));
+        assertEquals(Collections.singletonList("a"), fired);
+        assertTrue(wheel.isScheduled("b"));
+        assertFalse(wheel.isScheduled("a"));
+
+        assertTrue(wheel.cancel("b"));
+        assertEquals(0, wheel.advance(100000, fired::add));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testMatchesSortedDeadlines() {
+        Random random = new Random(3);
+        long now = 1_000_000;
+        TimingWheel<Integer> wheel = new TimingWheel<>(1, now);
+        Map<Integer, Long> deadlines = new HashMap<>();
+
+        for (int round = 0; round < 2000; round++) {
+            for (int i = 0; i < 20; i++) {
+                int key = random.nextInt(500);
+                long deadline = now + (random.nextBoolean() ? random.nextInt(100) : random.nextInt(1_000_000));
+                wheel.schedule(key, deadline);
+                deadlines.put(key, deadline);
+            }
+            if (random.nextInt(4) == 0) {
+                int key = random.nextInt(500);
+                assertEquals(deadlines.remove(key) != null, wheel.cancel(key));
+            }
+
+            now += random.nextInt(round % 100 == 0 ? 200_000 : 50);
+            long until = now;
+
+            Set<Integer> expected = new HashSet<>();
+            deadlines.forEach((key, deadline) -> {
+                if (deadline <= until) expected.add(key);
+            });
+
+            Set<Integer> fired = new HashSet<>();
+            wheel.advance(now, fired::add);
+
+            assertEquals(expected, fired);
+            deadlines.keySet().removeAll(fired);
+            assertEquals(deadlines.size(), wheel.size());
+        }
+    }
+
+}
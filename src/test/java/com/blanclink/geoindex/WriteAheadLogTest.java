@@ -0,0 +1,241 @@
+package com.blanclink.geoindex;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WriteAheadLogTest extends BaseTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Predicate<BasicPoint> all = point -> true;
+
+    private void update(PointIndex<BasicPoint> index, Random random, int updates) {
+        for (int i = 0; i < updates; i++) {
+            String id = "v" + random.nextInt(500);
+            if (random.nextInt(10) == 0) {
+                index.remove(id);
+            } else {
+                index.add(new BasicPoint(id, 51.45 + random.nextDouble() * 0.1, -0.2 + random.nextDouble() * 0.15));
+            }
+        }
+    }
+
+    private static long files(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void testRecover() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("wal");
+        Random random = new Random(25);
+        PointIndex<BasicPoint> index = new PointIndex<>(200);
+        update(index, random, 1000);
+
+        WriteAheadLog log = new WriteAheadLog(directory);
+        log.attach(index);
+        update(index, random, 5000);
+        log.flush();
+
+        // no close, as after a crash
+        PointIndex<BasicPoint> recovered = WriteAheadLog.recover(directory, 200);
+        assertEquals(index.getAll(), recovered.getAll());
+        assertEquals(index.kNearest(charring, 10, 5000, all), recovered.kNearest(charring, 10, 5000, all));
+
+        log.checkpoint();
+        assertEquals(2, files(directory));
+        update(index, random, 2000);
+        long logged = log.getLogBytes();
+        log.flush();
+        assertTrue(log.getLogBytes() > logged);
+        update(index, random, 10);
+
+        recovered = WriteAheadLog.recover(directory, 200);
+        assertTrue(!index.getAll().equals(recovered.getAll()));
+        log.close();
+        recovered = WriteAheadLog.recover(directory, 200);
+        assertEquals(index.getAll(), recovered.getAll());
+
+        // a recovered index is logged on as a new generation
+        try (WriteAheadLog reopened = new WriteAheadLog(directory)) {
+            reopened.attach(recovered);
+            recovered.remove(recovered.getAll().keySet().iterator().next());
+            update(recovered, random, 100);
+        }
+        assertEquals(recovered.getAll(), WriteAheadLog.recover(directory, 200).getAll());
+    }
+
+    @Test
+    public void testRecoverExpiring() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("wal");
+        MutableClock clock = new MutableClock(0);
+        PointIndex<BasicPoint> index = new PointIndex<>(500, Duration.ofSeconds(5), clock);
+        index.add(waterloo);
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, clock)) {
+            log.attach(index);
+            clock.advance(Duration.ofSeconds(1));
+            index.add(charring);
+            clock.advance(Duration.ofSeconds(2));
+            index.add(embankment);
+            index.add(picadilly);
+            index.remove(picadilly.getId());
+        }
+
+        clock.advance(Duration.ofMillis(3500));
+        PointIndex<BasicPoint> recovered = WriteAheadLog.recover(directory, 500, Duration.ofSeconds(5), clock);
+        assertNull(recovered.get(waterloo.getId()));
+        assertNull(recovered.get(charring.getId()));
+        assertNull(recovered.get(picadilly.getId()));
+        assertEquals(embankment, recovered.get(embankment.getId()));
+
+        clock.advance(Duration.ofMillis(1501));
+        assertNull(recovered.get(embankment.getId()));
+    }
+
+    // swaps the channel of the current log, returning the previous one
+    private static FileChannel setChannel(WriteAheadLog log, FileChannel channel) throws ReflectiveOperationException {
+        Field field = WriteAheadLog.class.getDeclaredField("channel");
+        field.setAccessible(true);
+        FileChannel previous = (FileChannel) field.get(log);
+        field.set(log, channel);
+        return previous;
+    }
+
+    @Test
+    public void testFailedFlushKeepsRecords() throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("wal");
+        Random random = new Random(25);
+        PointIndex<BasicPoint> index = new PointIndex<>(200);
+
+        WriteAheadLog log = new WriteAheadLog(directory);
+        log.attach(index);
+        update(index, random, 500);
+        log.flush();
+
+        Path current = Files.list(directory).filter(path -> path.toString().endsWith(".wal"))
+                .collect(Collectors.toList()).get(0);
+        FileChannel broken = FileChannel.open(current, StandardOpenOption.WRITE);
+        broken.close();
+        setChannel(log, broken).close();
+        update(index, random, 500);
+        try {
+            log.flush();
+            fail("flush should fail on a closed channel");
+        } catch (IOException expected) {
+        }
+
+        // a scheduled flush reports each failure and keeps running
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        CountDownLatch failures = new CountDownLatch(3);
+        log.scheduleFlush(executor, Duration.ofMillis(1), e -> failures.countDown());
+        assertTrue(failures.await(10, TimeUnit.SECONDS));
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        update(index, random, 500);
+        setChannel(log, FileChannel.open(current, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+        log.close();
+        assertEquals(index.getAll(), WriteAheadLog.recover(directory, 200).getAll());
+    }
+
+    @Test
+    public void testTornTail() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("wal");
+        PointIndex<BasicPoint> index = new PointIndex<>(500);
+
+        WriteAheadLog log = new WriteAheadLog(directory);
+        log.attach(index);
+        locations.forEach(index::add);
+        log.flush();
+
+        Path current = Files.list(directory).filter(path -> path.toString().endsWith(".wal"))
+                .collect(Collectors.toList()).get(0);
+        Files.write(current, new byte[]{1, 0, 0, 0, 3, 64}, StandardOpenOption.APPEND);
+
+        assertEquals(index.getAll(), WriteAheadLog.recover(directory, 500).getAll());
+    }
+
+    @Test
+    public void testCorruptTail() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("wal");
+        PointIndex<BasicPoint> index = new PointIndex<>(500);
+
+        WriteAheadLog log = new WriteAheadLog(directory);
+        log.attach(index);
+        locations.forEach(index::add);
+        log.close();
+
+        Path current = Files.list(directory).filter(path -> path.toString().endsWith(".wal"))
+                .collect(Collectors.toList()).get(0);
+        byte[] valid = Files.readAllBytes(current);
+        ByteBuffer undeclared = ByteBuffer.allocate(29).put((byte) 1).putInt(1 << 20)
+                .putDouble(charring.lat()).putDouble(charring.lon()).putLong(0);
+        ByteBuffer skipped = ByteBuffer.allocate(8 + 29).put((byte) 3).putInt(5000).putShort((short) 1).put((byte) 'x')
+                .put((byte) 1).putInt(5000).putDouble(charring.lat()).putDouble(charring.lon()).putLong(0);
+        ByteBuffer negative = ByteBuffer.allocate(5).put((byte) 2).putInt(-1);
+
+        // each ends the replay without failing it
+        for (ByteBuffer tail : new ByteBuffer[]{undeclared, skipped, negative}) {
+            Files.write(current, valid);
+            Files.write(current, tail.array(), StandardOpenOption.APPEND);
+            assertEquals(index.getAll(), WriteAheadLog.recover(directory, 500).getAll());
+        }
+    }
+
+    @Test
+    public void testRecoverKeepsTypeAndStorage() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("wal");
+        PointIndex<BasicPoint> index = new PointIndex<>(500, CellStorage.COLUMNAR);
+        index.setSparse(true);
+        index.add(charring);
+
+        try (WriteAheadLog log = new WriteAheadLog(directory)) {
+            log.attach(index);
+            index.add(embankment);
+        }
+
+        PointIndex<Stop> recovered = WriteAheadLog.recover(directory, 500, CellStorage.MAP, Stop::new);
+        assertEquals(Stop.class, recovered.get(charring.getId()).getClass());
+        assertEquals(Stop.class, recovered.get(embankment.getId()).getClass());
+
+        Path path = folder.getRoot().toPath().resolve("recovered.snapshot");
+        recovered.writeSnapshot(path);
+        Snapshot snapshot = Snapshot.open(path);
+        assertEquals(CellStorage.COLUMNAR, snapshot.storage());
+        assertTrue(snapshot.isSparse());
+    }
+
+    private static class Stop extends BasicPoint {
+
+        Stop(String id, double lat, double lon) {
+            super(id, lat, lon);
+        }
+    }
+
+}